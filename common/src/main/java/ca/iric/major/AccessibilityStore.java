@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/** -------------------------------------------
+      AccessibilityStore
+        is a read-only, memory-mapped store of the TiledSecondaryStructure
+        profiles (canonical base pair probability per nucleotide) of a set of
+        transcripts, computed once by a batch job (see main) so that the site
+        annotation never folds. A profile is a view on the mapping, one per
+        transcript: the accessibility of a short range (the seed and supp
+        windows) is a scan of its bytes, a ProfileIndex is only built for the
+        long ranges.
+
+        The probabilities are quantized on one byte per nucleotide, q = round(
+        254 p ), 255 for a nucleotide no tile covers (NaN); the error is at most
+        1/508.
+
+        Layout (big-endian):
+          long   magic
+          long   offset of the index
+          bytes  the profiles, one after the other
+          index: int number of profiles, then for each: int id length, id
+                 bytes (UTF-8), long offset of the profile, int length
+
+        The shared store is opened from $ACCESSIBILITY_STORE (the store path);
+        when it is set, a folded Guide reads its seed and supp accessibility
+        from the profile of its target (Guide.annotateAccessibility).
+*/
+
+public class AccessibilityStore {
+
+    private static final String ENV_VAR_NAME = "ACCESSIBILITY_STORE";
+    private static final long MAGIC = 0x524e584143433031L; // RNXACC01
+    private static final int HEADER = 16;
+    private static final int UNCOVERED = 255;
+    private static final double SCALE = 254.0;
+    private static final int SCAN_LIMIT = 64; // ranges up to this length are scanned, longer ones use the ProfileIndex
+    private static AccessibilityStore instance = null;
+    private static boolean initialized = false;
+
+    // return the shared store, null if $ACCESSIBILITY_STORE is not set or the store cannot be opened
+    public static synchronized AccessibilityStore getInstance() {
+        if( !initialized ) {
+            initialized = true;
+            String path = System.getenv( ENV_VAR_NAME );
+            if( path != null && !path.isBlank() ) {
+                try {
+                    instance = new AccessibilityStore( Paths.get( path.trim() ) );
+                } catch( IOException e ) {
+                    System.err.println( "AccessibilityStore: cannot open " + path + ", running without store (" + e.getMessage() + ")" );
+                }
+            }
+        }
+        return instance;
+    }
+
+    /** -------------------------------------------
+          Profile
+            of one transcript, read in place. Same accessors as
+            TiledSecondaryStructure.
+    */
+
+    public static final class Profile {
+
+        private final ByteBuffer mapped;
+        private final int offset;
+        private final int length;
+        private volatile ProfileIndex index; // range queries, built on the first one
+
+        private Profile( ByteBuffer mapped, int offset, int length ) {
+            this.mapped = mapped;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int length() { return this.length; }
+
+        // canonical base pair probability of nucleotide i, NaN if no tile covers it
+        public double getBasePairProbability( int i ) {
+            if( i < 0 || i >= this.length ) throw new IndexOutOfBoundsException( "position " + i + " in a profile of length " + this.length );
+            int q = this.mapped.get( this.offset + i ) & 0xFF;
+            return q == UNCOVERED ? Double.NaN : q / SCALE;
+        }
+
+        public double getReactivity( int i ) { return 1 - this.getBasePairProbability( i ); }
+
+        // the range queries on the profile, see ProfileIndex
+        public ProfileIndex getIndex() {
+            ProfileIndex result = this.index;
+            if( result == null ) this.index = result = new ProfileIndex( this.getBasePairProbabilities() );
+            return result;
+        }
+
+        // accessibility of [begin, end]: 1 - the smallest base pair probability (0 if no position is covered)
+        public double getAccessibility( int begin, int end ) {
+            if( end - begin >= SCAN_LIMIT ) return this.getIndex().getAccessibility( begin, end );
+            if( begin < 0 || end >= this.length ) throw new IndexOutOfBoundsException( "range [" + begin + ", " + end + "] in a profile of length " + this.length );
+            int min = UNCOVERED; // the uncovered positions are above any probability
+            for( int i = begin; i <= end; i++ ) min = Math.min( min, this.mapped.get( this.offset + i ) & 0xFF );
+            return min == UNCOVERED ? 0.0 : 1 - min / SCALE;
+        }
+
+        public double[] getBasePairProbabilities() {
+            double[] res = new double[this.length];
+            for( int i = 0; i < this.length; i++ ) res[i] = this.getBasePairProbability( i );
+            return res;
+        }
+    }
+
+    // an entry of the index
+    private record Entry( int offset, int length ) {}
+
+    private final Path path;
+    private final MappedByteBuffer mapped;
+    private final Map<String,Entry> index = new HashMap<>();
+    private final Map<String,Profile> profiles = new ConcurrentHashMap<>(); // the profiles queried, with their ProfileIndex
+
+    public AccessibilityStore( Path path ) throws IOException {
+        this.path = path;
+        try( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) ) {
+            long size = channel.size();
+            if( size > Integer.MAX_VALUE ) throw new IOException( path + " is larger than 2GB, split the store" );
+            this.mapped = channel.map( FileChannel.MapMode.READ_ONLY, 0, size ); // stays valid once the channel is closed
+        }
+        if( this.mapped.capacity() < HEADER || this.mapped.getLong( 0 ) != MAGIC ) throw new IOException( path + " is not an accessibility store" );
+        ByteBuffer in = this.mapped.duplicate();
+        in.position( (int)this.mapped.getLong( 8 ) );
+        int n = in.getInt();
+        for( int k = 0; k < n; k++ ) {
+            byte[] id = new byte[in.getInt()];
+            in.get( id );
+            this.index.put( new String( id, StandardCharsets.UTF_8 ), new Entry( (int)in.getLong(), in.getInt() ) );
+        }
+    }
+
+    public Path getPath() { return this.path; }
+    public int  size()    { return this.index.size(); }
+
+    public boolean contains( String id ) { return this.index.containsKey( id ); }
+
+    // the profile of transcript id, null if not in the store; the same Profile for the same id
+    public Profile get( String id ) {
+        Entry entry = this.index.get( id );
+        if( entry == null ) return null;
+        return this.profiles.computeIfAbsent( id, k -> new Profile( this.mapped, entry.offset(), entry.length() ) );
+    }
+
+    public static int quantize( double probability ) {
+        if( Double.isNaN( probability ) ) return UNCOVERED;
+        return (int)Math.round( SCALE * Math.min( 1.0, Math.max( 0.0, probability ) ) );
+    }
+
+    /** -------------------------------------------
+          Writer
+            appends the profiles one after the other, then the index on
+            close(). The store is written in a temporary file that replaces
+            path when complete.
+    */
+
+    public static final class Writer implements AutoCloseable {
+
+        private final Path path;
+        private final Path tmp;
+        private final FileChannel channel;
+        private final Map<String,Entry> index = new LinkedHashMap<>();
+        private long offset = 0;
+
+        public Writer( Path path ) throws IOException {
+            this.path = path;
+            this.tmp = path.resolveSibling( path.getFileName() + ".tmp" );
+            this.channel = FileChannel.open( this.tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE );
+            this.write( ByteBuffer.allocate( HEADER ).putLong( MAGIC ).putLong( 0 ).flip() ); // index offset written on close
+        }
+
+        public int size() { return this.index.size(); }
+
+        // append the canonical base pair probabilities of transcript id (a repeated id replaces the previous one)
+        public void put( String id, double[] probabilities ) throws IOException {
+            ByteBuffer profile = ByteBuffer.allocate( probabilities.length );
+            for( double p : probabilities ) profile.put( (byte)quantize( p ) );
+            if( this.offset + probabilities.length > Integer.MAX_VALUE ) throw new IOException( this.path + " would be larger than 2GB, split the store" );
+            this.index.put( id, new Entry( (int)this.offset, probabilities.length ) );
+            this.write( profile.flip() );
+        }
+
+        @Override
+        public void close() throws IOException {
+            long indexOffset = this.offset;
+            int length = 4;
+            for( String id : this.index.keySet() ) length += 4 + id.getBytes( StandardCharsets.UTF_8 ).length + 8 + 4;
+            ByteBuffer out = ByteBuffer.allocate( length ).putInt( this.index.size() );
+            for( Map.Entry<String,Entry> entry : this.index.entrySet() ) {
+                byte[] id = entry.getKey().getBytes( StandardCharsets.UTF_8 );
+                out.putInt( id.length ).put( id ).putLong( entry.getValue().offset() ).putInt( entry.getValue().length() );
+            }
+            this.write( out.flip() );
+            ByteBuffer header = ByteBuffer.allocate( 8 ).putLong( indexOffset ).flip();
+            while( header.hasRemaining() ) this.channel.write( header, 8 + header.position() );
+            this.channel.force( true );
+            this.channel.close();
+            Files.move( this.tmp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+
+        private void write( ByteBuffer buffer ) throws IOException {
+            while( buffer.hasRemaining() ) this.offset += this.channel.write( buffer, this.offset );
+        }
+    }
+
+    // batch job: the profiles of all the transcripts of a Gencode PCT fasta file, by transcript id (ENST)
+    public static void main( String[] args ) throws IOException {
+        if( args.length != 2 ) Utils.stop( "usage: AccessibilityStore <gencode pc_transcripts.fa> <store path>", 1 );
+        GencodePCTranscript transcripts = new GencodePCTranscript( args[0] );
+        long start = System.currentTimeMillis();
+        try( Writer writer = new Writer( Paths.get( args[1] ) ) ) {
+            for( ProteinCodingTranscript transcript : transcripts ) {
+                // the transcript id is the first field of the Gencode header, kept as the "gene id" by GencodePCTranscript.setHeader
+                TiledSecondaryStructure tiled = new TiledSecondaryStructure( transcript.getStringSequence() );
+                writer.put( transcript.getGeneId(), tiled.getBasePairProbabilities() );
+                if( writer.size() % 100 == 0 )
+                    System.out.println( writer.size() + "/" + transcripts.size() + " transcripts, " + ( System.currentTimeMillis() - start ) / 1000 + " s" );
+            }
+        }
+        System.out.println( transcripts.size() + " transcripts written to " + args[1] + " in " + ( System.currentTimeMillis() - start ) / 1000 + " s" );
+    }
+}
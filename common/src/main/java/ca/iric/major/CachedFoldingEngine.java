@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.LinkedHashMap;
+
+import java.io.IOException;
+
+/** -------------------------------------------
+      CachedFoldingEngine
+        decorates an engine with the FoldCache (and the FoldStore behind it).
+        Results are content-addressed by the engine name and the request; empty
+        results are cached too, so that a threshold escalation replayed from the
+        cache never reaches the backend.
+*/
+
+public class CachedFoldingEngine implements FoldingEngine {
+
+    private final FoldingEngine engine;
+    private final FoldCache cache;
+
+    public CachedFoldingEngine( FoldingEngine engine, FoldCache cache ) {
+        this.engine = engine;
+        this.cache = cache;
+    }
+
+    public FoldingEngine getEngine() { return this.engine; }
+    public FoldCache     getCache()  { return this.cache; }
+
+    @Override
+    public String getName() { return this.engine.getName(); }
+
+    @Override
+    public FoldResult fold( FoldRequest request ) throws IOException, InterruptedException {
+        String key = this.engine.getName() + "|" + request.key();
+        FoldResult result = this.cache.get( key );
+        FoldMetrics.getInstance().cacheLookup( result != null );
+        if( result == null ) {
+            result = this.engine.fold( request );
+            this.cache.put( key, result );
+        }
+        return result;
+    }
+
+    // answer the hits from the cache and send the distinct misses to the engine as one batch
+    @Override
+    public List<FoldResult> foldAll( List<FoldRequest> requests ) throws IOException, InterruptedException {
+        FoldResult[] results = new FoldResult[requests.size()];
+        Map<String,List<Integer>> misses = new LinkedHashMap<>(); // key -> positions in requests
+        List<FoldRequest> toFold = new ArrayList<>();
+        for( int i = 0; i < requests.size(); i++ ) {
+            String key = this.engine.getName() + "|" + requests.get( i ).key();
+            List<Integer> positions = misses.get( key );
+            if( positions != null ) positions.add( i ); // same fold already pending
+            else if( ( results[i] = this.cache.get( key ) ) == null ) {
+                FoldMetrics.getInstance().cacheLookup( false );
+                positions = new ArrayList<>();
+                positions.add( i );
+                misses.put( key, positions );
+                toFold.add( requests.get( i ) );
+            }
+            else FoldMetrics.getInstance().cacheLookup( true );
+        }
+        if( !toFold.isEmpty() ) {
+            List<FoldResult> folded = this.engine.foldAll( toFold );
+            int k = 0;
+            for( Map.Entry<String,List<Integer>> miss : misses.entrySet() ) {
+                FoldResult result = folded.get( k++ );
+                this.cache.put( miss.getKey(), result );
+                for( int i : miss.getValue() ) results[i] = result;
+            }
+        }
+        return Arrays.asList( results );
+    }
+}
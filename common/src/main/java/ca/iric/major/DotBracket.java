@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.Arrays;
+
+/** -------------------------------------------
+      DotBracket
+        is the dot-bracket parser shared by Duplex, SecondaryStructure,
+        MiRISCDuplex, Guide and Site. One pass turns a dot bracket into primitive
+        pair tables indexed by the positions in the string:
+          partner(i)  the position paired with i, -1 if none
+          symbol(i)   the symbol at i
+        The three pair types ( ), < > and { } close on a single stack (the mcff
+        convention); parseParentheses() pairs ( ) only and leaves < > { } as
+        unpaired symbols, as in the abstract shapes. Spaces are the duplex gap
+        ("strand  antiStrand"), and a range can be declared as a gap too (the
+        loop of an mcff cis-duplex).
+
+        The tables are reused from one parse to the next: a parser is not
+        thread-safe, local() gives one per thread. Copy what must be kept.
+*/
+
+public final class DotBracket {
+
+    public static final String OPENING = "(<{";
+    public static final String CLOSING = ")>}";
+    public static final char UNPAIRED = '.';
+    public static final char GAP = ' ';
+
+    private static final ThreadLocal<DotBracket> LOCAL = ThreadLocal.withInitial( DotBracket::new );
+
+    // the parser of the current thread
+    public static DotBracket local() { return LOCAL.get(); }
+
+    private CharSequence dotb = "";
+    private int length = 0;
+    private int[] partner = new int[64];
+    private int[] stack = new int[64];
+    private int numberOfPairs = 0;
+    private int unmatched = 0; // closing symbols without opening, plus opening symbols left open
+    private int gapFrom = 0; // declared gap range [gapFrom, gapTo)
+    private int gapTo = 0;
+
+    // parse dotb, all pair types
+    public DotBracket parse( CharSequence dotb ) {
+        return this.parse( dotb, dotb.length(), 0, 0, true );
+    }
+
+    // parse dotb, ( ) pairs only
+    public DotBracket parseParentheses( CharSequence dotb ) {
+        return this.parse( dotb, dotb.length(), 0, 0, false );
+    }
+
+    // parse dotb up to end, all pair types; [gapFrom, gapTo) is skipped as a gap
+    public DotBracket parse( CharSequence dotb, int end, int gapFrom, int gapTo ) {
+        return this.parse( dotb, end, gapFrom, gapTo, true );
+    }
+
+    private DotBracket parse( CharSequence dotb, int end, int gapFrom, int gapTo, boolean allTypes ) {
+        this.dotb = dotb;
+        this.length = end;
+        this.gapFrom = gapFrom;
+        this.gapTo = gapTo;
+        if( this.partner.length < end ) {
+            this.partner = new int[Math.max( end, 2 * this.partner.length )];
+            this.stack = new int[this.partner.length];
+        }
+        Arrays.fill( this.partner, 0, end, -1 );
+        int top = 0;
+        this.numberOfPairs = 0;
+        this.unmatched = 0;
+        for( int i = 0; i < end; i++ ) {
+            if( i == gapFrom && gapTo > gapFrom ) { // jump the declared gap
+                i = gapTo - 1;
+                continue;
+            }
+            char c = dotb.charAt( i );
+            if( allTypes ? isOpening( c ) : c == '(' ) this.stack[top++] = i;
+            else if( allTypes ? isClosing( c ) : c == ')' ) {
+                if( top == 0 ) this.unmatched++;
+                else {
+                    int open = this.stack[--top];
+                    this.partner[open] = i;
+                    this.partner[i] = open;
+                    this.numberOfPairs++;
+                }
+            }
+        }
+        this.unmatched += top;
+        return this;
+    }
+
+    // getters
+
+    public int          length()            { return this.length; }
+    public int          getNumberOfPairs()  { return this.numberOfPairs; }
+    public boolean      isBalanced()        { return this.unmatched == 0; }
+    public CharSequence getDotBracket()     { return this.dotb; }
+    public char         symbol( int i )     { return this.dotb.charAt( i ); }
+    public int          partner( int i )    { return this.partner[i]; }
+    public boolean      isPaired( int i )   { return this.partner[i] >= 0; }
+    public boolean      isUnpaired( int i ) { return this.dotb.charAt( i ) == UNPAIRED; }
+    public boolean      isGap( int i )      { return ( i >= this.gapFrom && i < this.gapTo ) || this.dotb.charAt( i ) == GAP; }
+
+    // the pair type of i, given by its closing symbol: ')', '>', '}', or 0 if unpaired
+    public char pairType( int i ) {
+        int j = this.partner[i];
+        if( j < 0 ) return 0;
+        return this.dotb.charAt( Math.max( i, j ) );
+    }
+
+    // symbols
+
+    public static boolean isOpening( char c ) { return c == '(' || c == '<' || c == '{'; }
+    public static boolean isClosing( char c ) { return c == ')' || c == '>' || c == '}'; }
+
+    // start of the duplex gap ("strand  antiStrand"), -1 if none
+    public static int gapStart( CharSequence dotb ) {
+        for( int i = 0; i < dotb.length(); i++ )
+            if( dotb.charAt( i ) == GAP ) return i;
+        return -1;
+    }
+
+    // end (exclusive) of the duplex gap starting at gapStart
+    public static int gapEnd( CharSequence dotb, int gapStart ) {
+        int i = gapStart;
+        while( i < dotb.length() && dotb.charAt( i ) == GAP ) i++;
+        return i;
+    }
+
+    // number of symbols c in dotb from from to to (exclusive)
+    public static int count( CharSequence dotb, int from, int to, char c ) {
+        int n = 0;
+        for( int i = from; i < to; i++ )
+            if( dotb.charAt( i ) == c ) n++;
+        return n;
+    }
+
+    // true if dotb has run unpaired positions in a row from from to to (exclusive)
+    public static boolean hasUnpairedRun( CharSequence dotb, int from, int to, int run ) {
+        int consecutive = 0;
+        for( int i = from; i < to; i++ )
+            if( dotb.charAt( i ) == UNPAIRED ) {
+                if( ++consecutive >= run ) return true;
+            }
+            else consecutive = 0;
+        return false;
+    }
+}
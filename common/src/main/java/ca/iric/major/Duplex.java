@@ -13,22 +13,15 @@ package ca.iric.major.common;
 * @since       1.0
 */
 
-import java.lang.StringBuffer;
-
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Set;
 import java.util.HashSet;
-import java.util.Stack;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.Arrays;
-import java.util.Collections;
 
-import java.lang.Runtime;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.File;
 
@@ -41,8 +34,10 @@ import java.io.File;
         String state = ""; // dot-bracket of the duplex, initially empty
         String strand; // sequence of the strand
 	String antiStrand; // sequence of the anti strand
-	Map<Integer,Integer> index; // index for the strand
-	Map<Integer,Integer> basePairs; // base pairs
+	int[] partners; // base pairs, antiStrand -> strand partner
+	byte[] basePairTypes; // bp types: ), >, or }
+        The pair tables are primitive arrays and bitmasks; the Map views of
+        getIndex() and getBasePairs() are built on demand.
 */
 
 public class Duplex {
@@ -78,9 +73,17 @@ public class Duplex {
     protected String mask;
     protected boolean unbalancedMask;
     protected int e;
-    protected Map<Integer,Integer> index;
-    protected Map<Integer,Integer> basePairs;
-    protected Map<Integer,Character> basePairTypes;
+    protected String kind = "duplex";           // fold type in FoldMetrics, ex) duplex.seed
+    private Map<String,FoldResult> prefetched = Map.of(); // results folded ahead (see FoldBatcher.prefetch()), by request key
+    // pair tables over the antiStrand, built by buildIndex()
+    protected int[] partners;                   // antiStrand j -> strand partner i, -1 if unpaired
+    protected int[] pairedRank;                 // g-th paired nt of the antiStrand -> its index j
+    protected byte[] basePairTypes;             // antiStrand j -> ')', '>', '}', or 0 if unpaired
+    protected long[] canonicalMask;             // bit j set if j forms a canonical ( ) pair
+    protected long[] guMask;                    // bit j set if j forms a GU { } pair
+    protected int numberOfBasePairs;
+    private Map<Integer,Integer> index;         // map views, built on demand
+    private Map<Integer,Integer> basePairs;
 
     // getters
 
@@ -92,13 +95,32 @@ public class Duplex {
     public char    getStrand( int i )              { return this.strand.charAt( i ); }
     public String  strandSubstring( int i, int j ) { return this.strand.substring( i, j ); }
     public String  getAntiStrand()                 { return this.antiStrand; }
-    public Integer getIndex( int i )               { return this.index.get( i ); }
+    public Integer getIndex( int i )               { return i >= 0 && i < this.numberOfBasePairs ? this.pairedRank[i] : null; }
     public String  getMask()                       { return this.mask; }
     public Integer getE()                          { return this.e; }
-    public Map<Integer,Integer> getIndex()         { return this.index; }
-    public Map<Integer,Integer> getBasePairs()     { return this.basePairs; }
 
-    // buildIndex creates the bps map (this.basePairs), antistrand index (this.index),
+    // antiStrand index { paired rank:antiStrand_i }
+    public Map<Integer,Integer> getIndex() {
+	if( this.index == null ) {
+	    Map<Integer,Integer> map = new HashMap<>();
+	    for( int g = 0; g < this.numberOfBasePairs; g++ ) map.put( g, this.pairedRank[g] );
+	    this.index = map;
+	}
+	return this.index;
+    }
+
+    // base pairs { antiStrand_i:strand_i }
+    public Map<Integer,Integer> getBasePairs() {
+	if( this.basePairs == null ) {
+	    Map<Integer,Integer> map = new HashMap<>();
+	    for( int j = 0; j < this.partners.length; j++ )
+		if( this.partners[j] >= 0 ) map.put( j, this.partners[j] );
+	    this.basePairs = map;
+	}
+	return this.basePairs;
+    }
+
+    // buildIndex creates the pair tables (this.partners, this.basePairTypes, the masks), antistrand index (this.pairedRank),
     //   replaces the <> by {} for the GU bps and remove energy at the end of this.state
     //
     //  assumes mcff dotb line with energy at the end in this.state
@@ -114,209 +136,171 @@ public class Duplex {
     //	        .....((((((((((........)))))))))) -24.384 ()
     //
     public void buildIndex() {
-	String strandDotb = this.state.substring( 0, this.strand.length() );
-	String antiStrandDotb = this.state.substring( this.strand.length() + LOOPMASK.length(), this.strand.length() + LOOPMASK.length() + this.antiStrand.length() );
-	String initialDotb = strandDotb + "  " + antiStrandDotb;
-
-	// initialize the strandState
-	this.strandState = "";
-	// for( int k = strandDotb.length() - 1; k >= 0; k-- ) // insert the terminal dots
-	//     if( strandDotb.charAt( k ) == '.' ) this.strandState += Utilities.ssingle;
-	//     else break;
-	// System.out.println( "init value for this.strandState: " + this.strandState + "; added " + this.strandState.length() + " dots" );
-
-	// initialize the antiStrandState
-	this.antiStrandState = "";
-	Stack<Integer> s = new Stack<>(); // list of parentheses
-	this.index = new HashMap<>(); // antiStrand index { antiStrand_i:strand_i }
-	this.basePairs = new HashMap<>(); // result
-	this.basePairTypes = new HashMap<>(); // result; bp types: ), >, or }
-
-	// if( strandDotb.length() != this.strand.length() ) {
-	//     System.out.println( "state : " + this.state );
-	//     System.out.println( "strand: " + this.strand );
-	//     System.out.println( "stndDB: " + strandDotb );
-	//     System.out.println( "antiSd: " + this.antiStrand );
-	//     System.out.println( "antiDB: " + antiStrandDotb );
-	//     System.out.println( "mask  : " + this.mask );
-	//     System.out.println( "state : " + this.state );
-	//     Util.stop( "strand and strand dotb don't match: " + strandDotb + "[" + strandDotb.length() + "] strand: " + this.strand + "[" + this.strand.length() + "]", 0 );
-	// }
-	
-	// iterate on each symbol in dotb, keep its index (j)
-	// suck the strand 5' opening bps
-	int j = 0;
-	for( int indexC = 0; indexC < strandDotb.length(); indexC++ ) {
-	    char c = strandDotb.charAt( indexC );
-	    // push 5' bp parenthesis
-	    if( SecondaryStructure.parent5.indexOf( c ) != -1 ) s.push( j );
-	    else
-		// only the '.' is allowed
-		if( c != SecondaryStructure.csingle ) Utils.stop( "Illegal symbol in dot bracket [" + strandDotb + "]", 12 );
-	    j += 1;
-	}
-	// suck the antiStrand 3' closing bps; build the antiStrand index,
+	int strandLength = this.strand.length();
+	int antiStrandLength = this.antiStrand.length();
+	int antiStrandStart = strandLength + LOOPMASK.length();
+
+	this.partners = new int[antiStrandLength];
+	Arrays.fill( this.partners, -1 );
+	this.pairedRank = new int[antiStrandLength];
+	this.basePairTypes = new byte[antiStrandLength];
+	this.canonicalMask = new long[( antiStrandLength + 63 ) >>> 6];
+	this.guMask = new long[( antiStrandLength + 63 ) >>> 6];
+	this.index = null;
+	this.basePairs = null;
+
+	// parse strand and antiStrand as one structure, the loop being the gap
+	DotBracket dotb = DotBracket.local().parse( this.state, antiStrandStart + antiStrandLength, strandLength, antiStrandStart );
+	// the strand holds the 5' opening bps, only the '.' is allowed otherwise
+	for( int i = 0; i < strandLength; i++ )
+	    if( dotb.symbol( i ) != SecondaryStructure.csingle && !DotBracket.isOpening( dotb.symbol( i ) ) )
+		Utils.stop( "Illegal symbol in dot bracket [" + this.state.substring( 0, strandLength ) + "]", 12 );
+	// the antiStrand holds the 3' closing bps
+	for( int j = 0; j < antiStrandLength; j++ )
+	    if( dotb.symbol( antiStrandStart + j ) != SecondaryStructure.csingle && !DotBracket.isClosing( dotb.symbol( antiStrandStart + j ) ) )
+		Utils.stop( "Illegal symbol in dot bracket [" + this.initialDotb() + "]", 12 );
+	// if no opening parenthesis, or opening left => error
+	if( !dotb.isBalanced() ) Utils.stop( "Unbalanced dot bracket [" + this.initialDotb() + "]", 13 );
+
+	// build the antiStrand index, the pair tables,
 	// and the new dot brackets: <> replaced by {} for GUs
-	int previousI = j; int g = 0; int i = strandDotb.length();
-	j = 0;
-	for( int indexC = 0; indexC < antiStrandDotb.length(); indexC++ ) {
-	    char c = antiStrandDotb.charAt( indexC );
-	    if( SecondaryStructure.parent3.indexOf( c ) != -1 ) {
-		// if no opening parenthesis => error
-		if( s.isEmpty() ) Utils.stop( "Unbalanced dot bracket [" + initialDotb + "]", 13 );
-		else {
-		    // get 5' partner and store the bp; c is the symbol in antiStrand
-		    // j is the index of nt in antiStrand; i = s.pop() the index of the partner in strand
-		    // antiStrand.charAt(j) is the base in the antiStrand
-		    // strand.charAt(i) is the base of the strand partner; strandDotb.charAt(i) is the strand symbol
-		    i = s.pop();
-		    // deal with the single stranded symbol
-		    for( int k = 0; k < previousI - i - 1; k++ )
-			this.strandState += SecondaryStructure.ssingle; // ssingle is the String "."
-		    this.basePairs.put( j, i ); // put 5':3' pair
-		    //this.basePairs.put( i, j ); // put 3':5' pair
-		    this.index.put( g, j );
-		    // if GUPair, change symbols in dotb
-		    if( StringSequence.guBps.contains( "" + this.strand.charAt( i ) + this.antiStrand.charAt( j ) ) ) {
-			this.strandState += SecondaryStructure.sgu5;
-			this.antiStrandState += SecondaryStructure.sgu3;
-			this.basePairTypes.put( j, SecondaryStructure.cgu3 );
-		    }
-		    else {
-			this.strandState += strandDotb.charAt( i );
-			this.antiStrandState += c;
-			this.basePairTypes.put( j, c );
-		    }
-		}
+	char[] strandState = new char[strandLength];
+	Arrays.fill( strandState, SecondaryStructure.csingle );
+	char[] antiStrandState = new char[antiStrandLength];
+	int g = 0;
+	for( int j = 0; j < antiStrandLength; j++ ) {
+	    // j is the index of nt in antiStrand; i the index of the partner in strand
+	    int i = dotb.partner( antiStrandStart + j );
+	    if( i < 0 ) {
+		antiStrandState[j] = SecondaryStructure.csingle;
+		continue;
+	    }
+	    this.partners[j] = i; // put 5':3' pair
+	    this.pairedRank[g++] = j;
+	    // if GUPair, change symbols in dotb
+	    if( isGUPair( this.strand.charAt( i ), this.antiStrand.charAt( j ) ) ) {
+		strandState[i] = SecondaryStructure.sgu5.charAt( 0 );
+		antiStrandState[j] = SecondaryStructure.cgu3;
 	    }
 	    else {
-		if( c != SecondaryStructure.csingle ) Utils.stop( "Illegal symbol in dot bracket [" + initialDotb + "]", 12 );
-		this.antiStrandState += SecondaryStructure.ssingle;
-		g -= 1;
+		strandState[i] = dotb.symbol( i );
+		antiStrandState[j] = dotb.symbol( antiStrandStart + j );
 	    }
-	    previousI = i;
-	    g += 1;
-	    j += 1;
+	    this.basePairTypes[j] = (byte)antiStrandState[j];
+	    if( antiStrandState[j] == SecondaryStructure.ccanonical3 ) this.canonicalMask[j >>> 6] |= 1L << j;
+	    else if( antiStrandState[j] == SecondaryStructure.cgu3 ) this.guMask[j >>> 6] |= 1L << j;
 	}
-	// add the loop symbols at the beginning
-	for( int k = 0; k < previousI; k++ ) this.strandState += SecondaryStructure.ssingle;
-	// reverse the strandState
-	this.strandState = new StringBuffer( this.strandState ).reverse().toString();
-	// if stack is empty, it balances => correct 2D structure
-	if( s.isEmpty() ) {
-	    if( initialDotb.length() != ( this.strandState.length() + 2 + this.antiStrandState.length() ) )
-		Utils.stop( "Something went wrong with the building of the new dotb " + initialDotb + " " + this.strandState + "  " + this.antiStrandState, 14 );
-	}
-	else Utils.stop( "Unbalanced dot bracket [" + initialDotb + "]", 13 );
+	this.numberOfBasePairs = g;
+	this.strandState = new String( strandState );
+	this.antiStrandState = new String( antiStrandState );
 	this.state = this.strandState + "  " + this.antiStrandState;
     }
 
+    // strand and antiStrand dotbs of the mcff state, for the error messages
+    private String initialDotb() {
+	int antiStrandStart = this.strand.length() + LOOPMASK.length();
+	return this.state.substring( 0, this.strand.length() ) + "  " + this.state.substring( antiStrandStart, antiStrandStart + this.antiStrand.length() );
+    }
+
+    // same as StringSequence.guBps.contains( "" + a + b )
+    private static boolean isGUPair( char a, char b ) {
+	return ( a == 'G' && b == 'U' ) || ( a == 'U' && b == 'G' );
+    }
+
+    // true if all bits of mask from start to end (inclusive) are set; true if start > end
+    private static boolean allSet( long[] mask, int start, int end ) {
+	for( int i = start; i <= end; i++ )
+	    if( ( mask[i >>> 6] & ( 1L << i ) ) == 0 ) return false;
+	return true;
+    }
+
+    private static boolean isSet( long[] mask, int i ) {
+	return i >= 0 && ( i >>> 6 ) < mask.length && ( mask[i >>> 6] & ( 1L << i ) ) != 0;
+    }
+
+    // strand partner of antiStrand i, -1 if unpaired (or out of the antiStrand)
+    public int partner( int i ) {
+	return i >= 0 && i < this.partners.length ? this.partners[i] : -1;
+    }
+
     // i is the nt in the antistrand/guide
     public Integer getPartner( int i ) {
-    	return this.basePairs.get( i );
+	int partner = this.partner( i );
+	return partner < 0 ? null : partner;
     }
 
-    public Integer getBasePairPartner( int i ) { return this.basePairs.get( i ); }
+    public Integer getBasePairPartner( int i ) { return this.getPartner( i ); }
 
     public Character getBasePairType( int i ) {
-	return this.basePairTypes.get( i );
+	return this.partner( i ) < 0 ? null : (char)this.basePairTypes[i];
     }
 
     public boolean isCanonical( int i ) {
-	Character bp = '?';
-	try {
-	    bp = this.basePairTypes.get( i );
-	} catch( NullPointerException e ) {
-	    System.out.println( "isCanonical: basePairTypes map is null, i = " + i );
-	    System.exit( 1 );
-	}
-	return bp == null ? false : bp == SecondaryStructure.ccanonical3;
+	return isSet( this.canonicalMask, i );
     }
 
     public boolean isNonCanonical( int i ) {
-	Character bp = this.basePairTypes.get( i );
-	return bp == null ? false : bp == SecondaryStructure.cnonCanonical3;
+	return this.partner( i ) >= 0 && this.basePairTypes[i] == SecondaryStructure.cnonCanonical3;
     }
 
     public boolean isGU( int i ) {
-	Character bp = this.basePairTypes.get( i );
-	return bp == null ? false : bp == SecondaryStructure.cgu3;
+	return isSet( this.guMask, i );
     }
 
     public boolean isCanonicalGU( int i ) {
-	//System.out.print( "isCanonicalGU( " + i + " ) = " );
-	Character bp = this.basePairTypes.get( i );
-	//System.out.println( ""+bp );
-	return bp == null ? false : bp == SecondaryStructure.ccanonical3 || bp == SecondaryStructure.cgu3;
+	return isSet( this.canonicalMask, i ) || isSet( this.guMask, i );
     }
 
     public boolean isPaired( int i ) {
-	//System.out.print( "isPaired( " + i + " ) = " );
-	Character bp = this.basePairTypes.get( i );
-	//System.out.println( ""+bp );
-	return bp == null ? false : true;
+	return this.partner( i ) >= 0;
     }
 
     public int getNumberOfCanonical( int start, int end ) {
 	int count = 0;
-	for( int i = start; i <= end; i++ )
-	    if( isCanonical( i ) ) count++;
+	for( int i = Math.max( 0, start ); i <= end && i < this.partners.length; i++ )
+	    if( ( this.canonicalMask[i >>> 6] & ( 1L << i ) ) != 0 ) count++;
 	return count;
     }
 
+    // start and end paired, on a helix without bulge from start to end
+    private boolean isHelix( int start, int end, int bulge ) {
+	int startPartner = this.partner( start );
+	int endPartner = this.partner( end );
+	return startPartner >= 0 && endPartner >= 0 && startPartner - endPartner - bulge == end - start;
+    }
+
     public boolean isPaired( int start, int end ) {
-	Integer startPartner = this.getBasePairPartner( start );
-	Integer endPartner = this.getBasePairPartner( end );
-	//System.out.println( start+":"+startPartner + " " + end+":"+endPartner );
-	if( startPartner == null || endPartner == null ) return false;
-	if( startPartner - endPartner == end - start )
-	    for( int i = start; i <= end; i++ ) {
-		if( !isPaired( i ) ) return false;
-	    }
-	else return false;
+	if( !this.isHelix( start, end, 0 ) ) return false;
+	for( int i = start; i <= end; i++ )
+	    if( this.partners[i] < 0 ) return false;
 	return true;
     }
 
     public boolean isCanonicallyPaired( int start, int end ) {
-	Integer startPartner = this.getBasePairPartner( start );
-	Integer endPartner = this.getBasePairPartner( end );
-	//System.out.println( start+":"+startPartner + " " + end+":"+endPartner );
-	if( startPartner == null || endPartner == null ) return false;
-	if( startPartner - endPartner == end - start )
-	    for( int i = start; i <= end; i++ ) {
-		if( !isCanonical( i ) ) return false;
-	    }
-	else return false;
-	return true;
+	return this.isHelix( start, end, 0 ) && allSet( this.canonicalMask, start, end );
     }
 
     public boolean isCanonicallyPairedGU( int start, int end ) {
-	Integer startPartner = this.getBasePairPartner( start );
-	Integer endPartner = this.getBasePairPartner( end );
-	//System.out.println( start+":"+startPartner + " " + end+":"+endPartner );
-	if( startPartner == null || endPartner == null ) return false;
-	if( startPartner - endPartner == end - start )
-	    for( int i = start; i <= end; i++ ) {
-		if( !isCanonicalGU( i ) ) return false;
-	    }
-	else return false;
+	if( !this.isHelix( start, end, 0 ) ) return false;
+	for( int i = start; i <= end; i++ )
+	    if( !this.isCanonicalGU( i ) ) return false;
 	return true;
     }
 
-    public boolean isCanonicallyPairedWithMax1GU( int start, int end ) {
-	Integer startPartner = this.getBasePairPartner( start );
-	Integer endPartner = this.getBasePairPartner( end );
+    // number of GU pairs from start to end, -1 if one of them is not canonical or GU
+    private int countGUs( int start, int end ) {
 	int countGU = 0;
-	//System.out.println( start+":"+startPartner + " " + end+":"+endPartner );
-	if( startPartner == null || endPartner == null ) return false;
-	if( startPartner - endPartner == end - start )
-	    for( int i = start; i <= end; i++ ) {
-		if( !isCanonicalGU( i ) ) return false;
-		if( isGU( i ) ) countGU++;
-	    }
-	else return false;
-	if( countGU > 1 ) return false;
-	return true;
+	for( int i = start; i <= end; i++ ) {
+	    if( isSet( this.guMask, i ) ) countGU++;
+	    else if( !isSet( this.canonicalMask, i ) ) return -1;
+	}
+	return countGU;
+    }
+
+    public boolean isCanonicallyPairedWithMax1GU( int start, int end ) {
+	if( !this.isHelix( start, end, 0 ) ) return false;
+	int countGU = this.countGUs( start, end );
+	return countGU >= 0 && countGU <= 1;
     }
 
     // return the index of last g before first bulge of 1 nt if another or longer bulge, gy otherwise
@@ -324,10 +308,10 @@ public class Duplex {
 	int gLast = gx;
 	boolean firstBulge = true;
 	for( int i = gx; i < gy; i++ ) {
-	    String res = this.bulgeOfAdjacentPaired( gLast, gLast + 1 );
-	    if( res.length() == 0 ) gLast++;
+	    int bulge = this.bulgeLengthOfAdjacentPaired( gLast, gLast + 1 );
+	    if( bulge == 0 ) gLast++;
 	    else
-		if( res.length() == 1 && firstBulge ) {
+		if( bulge == 1 && firstBulge ) {
 		    gLast++;
 		    firstBulge = false;
 		}
@@ -338,48 +322,42 @@ public class Duplex {
 	return gy;
     }
 
+    // length of bulgeOfAdjacentPaired( gx, gy ), without the substring
+    public int bulgeLengthOfAdjacentPaired( int gx, int gy ) {
+	if( gy - gx > 1 ) return 0; // they are not adjacent in the guide
+	int gxPartner = this.partner( gx );
+	int gyPartner = this.partner( gy );
+	if( gxPartner < 0 || gyPartner < 0 ) return 0; // one of the two is not paired
+	return gxPartner - gyPartner >= 2 ? gxPartner - gyPartner - 1 : 0;
+    }
+
     // assume gx == gy - 1
     public String bulgeOfAdjacentPaired( int gx, int gy ) {
-	if( gy - gx > 1 ) return ""; // they are not adjacent in the guide
-	Integer gxPartner = this.getBasePairPartner( gx );
-	Integer gyPartner = this.getBasePairPartner( gy );
-	if( gxPartner == null || gyPartner == null ) return ""; // one of the two is not paired
-	if( gxPartner - gyPartner >= 2 )
-	    return this.strand.substring( gyPartner+1, gxPartner );
-	return "";
+	int length = this.bulgeLengthOfAdjacentPaired( gx, gy );
+	if( length == 0 ) return "";
+	int gyPartner = this.partners[gy];
+	return this.strand.substring( gyPartner + 1, gyPartner + 1 + length );
     }
 
     public boolean isCanonicallyPairedWithMax1GU1Bulge( int start, int end ) {
-	Integer startPartner = this.getBasePairPartner( start );
-	Integer endPartner = this.getBasePairPartner( end );
-	int countGU = 0;
-	//System.out.println( start+":"+startPartner + " " + end+":"+endPartner );
-	if( startPartner == null || endPartner == null ) return false;
-	if( startPartner - endPartner - 1 == end - start )
-	    for( int i = start; i <= end; i++ ) {
-		if( !isCanonicalGU( i ) ) return false;
-		if( isGU( i ) ) countGU++;
-	    }
-	else return false;
-	if( countGU > 1 ) return false;
-	return true;
+	if( !this.isHelix( start, end, 1 ) ) return false;
+	int countGU = this.countGUs( start, end );
+	return countGU >= 0 && countGU <= 1;
     }
 
     public int getNumberOfBulgesInStrand() {
 	int n = 0; // initially 0 bulge
 	// find first paired nt in the duplex
 	int firstPairedNt = 0;
-	for( int i = 0; i < this.basePairs.size(); i++ )
-	    if( this.basePairs.containsKey( i ) ) break;
+	for( int i = 0; i < this.numberOfBasePairs; i++ )
+	    if( this.isPaired( i ) ) break;
 	    else firstPairedNt = i + 1;
-	int bpi = firstPairedNt;
-	int bpj = this.basePairs.get( bpi );
+	int bpj = this.getPartner( firstPairedNt );
 	for( int i = firstPairedNt + 1; i < this.antiStrand.length(); i++ )
-	    if( this.basePairs.containsKey( i ) ) {
-		int j = this.basePairs.get( i );
+	    if( this.isPaired( i ) ) {
+		int j = this.partners[i];
 		if( Math.abs( j - bpj ) > 1 ) n++;
 		bpj = j;
-		bpi = i;
 	    }
 	return n;
     }
@@ -388,12 +366,12 @@ public class Duplex {
 	int n = 0; // initially 0 bulge
 	// find first paired nt in the duplex
 	int firstPairedNt = 0;
-	for( int i = 0; i < this.basePairs.size(); i++ )
-	    if( this.basePairs.containsKey( i ) ) break;
+	for( int i = 0; i < this.numberOfBasePairs; i++ )
+	    if( this.isPaired( i ) ) break;
 	    else firstPairedNt = i + 1;
 	int bpi = firstPairedNt;
 	for( int i = firstPairedNt + 1; i < this.antiStrand.length(); i++ )
-	    if( this.basePairs.containsKey( i ) ) {
+	    if( this.isPaired( i ) ) {
 		if( Math.abs( i - bpi ) > 1 ) n++;
 		bpi = i;
 	    }
@@ -404,16 +382,16 @@ public class Duplex {
 	int firstPartner = -1;
 	int secondPartner = -1;
 	for( int i = first; i > 0; i-- ) {
-	    Integer partner = this.getPartner( i );
-	    if( partner != null && isPaired( i ) ) {
+	    int partner = this.partner( i );
+	    if( partner >= 0 ) {
 		firstPartner = partner;
 		break;
 	    }
 	}
 	//System.out.println( firstPartner );
 	for( int i = second; i < 17; i++ ) {
-	    Integer partner = this.getPartner( i );
-	    if( partner != null && isPaired( i ) ) {
+	    int partner = this.partner( i );
+	    if( partner >= 0 ) {
 		secondPartner = partner;
 		break;
 	    }
@@ -439,34 +417,50 @@ public class Duplex {
     }
 
     public Duplex( String strand, String antiStrand, String mask, int e, boolean maximizeDoubleHelix, boolean unbalancedMask ) {
+	this( strand, antiStrand, mask, e, maximizeDoubleHelix, unbalancedMask, "duplex" );
+    }
+
+    // kind: the fold type in FoldMetrics
+    public Duplex( String strand, String antiStrand, String mask, int e, boolean maximizeDoubleHelix, boolean unbalancedMask, String kind ) {
+	this( strand, antiStrand, mask, e, maximizeDoubleHelix, unbalancedMask, kind, Map.of() );
+    }
+
+    // prefetched: results already folded, by request key; a level of the ladder found there is not refolded
+    public Duplex( String strand, String antiStrand, String mask, int e, boolean maximizeDoubleHelix, boolean unbalancedMask, String kind, Map<String,FoldResult> prefetched ) {
 	this.setOS();
+	this.kind = kind;
+	this.prefetched = prefetched;
 	this.strand = strand;
 	this.antiStrand = antiStrand;
 	if( Duplex.os.contains( "win" ) ) this.mask = "\"" + mask + "\"";
 	else this.mask = "'" + mask + "'";
 	this.e = e;
 	this.maximizeDoubleHelix = maximizeDoubleHelix;
-	String mcff = "";
 	this.unbalancedMask = unbalancedMask;
-	String mcffMaskOption = " -m ";
-	if( this.unbalancedMask ) mcffMaskOption = " -um ";
-	if( this.fold() == 0 ) { // set this.state and this.freeEnergy; return 0 if okay, -1 otherwise
+	int status = this.fold();
+	this.prefetched = Map.of(); // the map is shared by the folds of a stage, do not hold on to it
+	if( status == 0 ) { // set this.state and this.freeEnergy; return 0 if okay, -1 otherwise
 	    this.buildIndex();
 	    //System.out.println( "bps: " + this.basePairs );
 	}
 	else {
-	    if( !this.mask.equals( "" ) ) {
-		mcff = "mcff -s " + this.strand + Duplex.LOOP + this.antiStrand +
-		mcffMaskOption + this.mask + " -t " + this.e;
-	    }
-	    else
-		mcff = "mcff -s " + this.strand + Duplex.LOOP + this.antiStrand +
-		" -t " + this.e;
-	    //Utils.debug( mcff );
+	    //Utils.debug( FoldRequest.duplex( this.strand, this.antiStrand, this.mask, this.e, this.unbalancedMask, this.maximizeDoubleHelix ).commandLine() );
 	    Utils.stop( "fold() is not okay", 15 );
 	}
     }
 
+    public Duplex( FoldRequest request ) {
+	this( request, "duplex" );
+    }
+
+    public Duplex( FoldRequest request, String kind ) {
+	this( request, kind, Map.of() );
+    }
+
+    public Duplex( FoldRequest request, String kind, Map<String,FoldResult> prefetched ) {
+	this( request.getStrand(), request.getAntiStrand(), request.getMask(), (int)request.getThreshold(), request.hasAlternatives(), request.isUnbalancedMask(), kind, prefetched );
+    }
+
     private static int countConsecutiveLeftParens( String s ) {
         int mid = s.length() / 2;
         int count = 0;
@@ -493,6 +487,15 @@ public class Duplex {
 
     // Forms the strand:antistrand duplex using mcff
     public int fold() {
+	try( FoldMetrics.Fold metrics = FoldMetrics.getInstance().start( this.kind ) ) {
+	    int status = this.climb();
+	    if( status == 0 ) metrics.completed();
+	    return status;
+	}
+    }
+
+    // the threshold ladder of fold()
+    private int climb() {
 	// lists to store dotb (states) and their energies
 	List<String> states = new LinkedList<>();
 	List<Double> energies = new LinkedList<>();
@@ -501,111 +504,31 @@ public class Duplex {
 	// ********** MC-FOLD **********
 	// *****************************
 
-	String mcff = "";
-	String commandLine = "";
-	int theEvalue = this.e;
-	double mfe = 0.0;
-	String mask = "";
-	String mcffMaskOption = " -m ";
-	if( this.unbalancedMask ) mcffMaskOption = " -um ";
+	// start at the memoized successful level of this threshold ladder, if any
+	String ladderKey = FoldRequest.duplex( this.strand, this.antiStrand, this.mask, this.e, this.unbalancedMask, this.maximizeDoubleHelix ).key();
+	int theEvalue = (int)FoldEscalation.getInstance().startLevel( ladderKey, this.e );
+	int levelsFolded = 0;
+	boolean failed = false; // a level threw, the ladder is not memoized
 	this.freeEnergy = 0.0;
 	while( this.freeEnergy == 0.0 && theEvalue < 11 ) {
-	    if( !this.mask.equals( "" ) ) {
-		mcff = "mcff -s " + this.strand + Duplex.LOOP + this.antiStrand +
-		    mcffMaskOption + this.mask +
-		    " -t " + theEvalue + " -alt";
-	    }
-	    else {
-	    mcff = "mcff -s " + this.strand + Duplex.LOOP + this.antiStrand +
-		" -t " + theEvalue + " -alt";
-	    }
-	    // save commandLine for further analyis (maybe)
-	    commandLine = mcff;
-
-	    String[] commands = new String[3];
-	    if( Duplex.os.contains( "win" ) ) {
-		commands[0] = "cmd.exe";
-		commands[1] = "/c";
-		commands[2] = mcff;
-	    }
-	    else {
-		commands[0] = "bash";
-		commands[1] = "-c";
-		commands[2] = mcff;
-	    }
-
+	    levelsFolded++;
+	    FoldRequest request = FoldRequest.duplex( this.strand, this.antiStrand, this.mask, theEvalue, this.unbalancedMask, this.maximizeDoubleHelix );
 	    try {
-		Process process = Runtime.getRuntime().exec( commands );
-
-		// Create a thread-safe list to store the output lines
-		List<String> outputLines = Collections.synchronizedList( new ArrayList<>() );
-
-		Thread inputThread = new Thread(() -> {
-			try( BufferedReader reader = new BufferedReader( new InputStreamReader( process.getInputStream() ) ) ) {
-			    String line;
-			    while( ( line = reader.readLine() ) != null ) {
-				outputLines.add( line ); // Add each line to the shared list
-			    }
-			} catch( IOException e ) {
-			    e.printStackTrace();
-			}
-		});
-		
-		inputThread.start();
-		inputThread.join(); // Wait for the thread to finish
-
-		// Consume the error stream
-		Thread errorThread = new Thread( () -> {
-			try( BufferedReader error = new BufferedReader( new InputStreamReader( process.getErrorStream() ) ) ) {
-			    error.lines().forEach( System.err::println );
-			} catch (IOException e) {
-			    e.printStackTrace();
-			}
-		});
-
-		errorThread.start();
-		errorThread.join();
-
-		// Wait for the process to complete
-		int exitCode = process.waitFor();
-		process.destroy();
-		
-		/*
-		  mcff output example:
-		  ....(<(((((....)))))>) -19.773 () 
-		  ..(..(<((((....))))>)) -16.308 () 
-		  ....<(<((((....))))>)> -15.482 () 
-		  .<<(...((((....)))))>> -15.290 () 
-		  ...
-		*/
-
-		//Utils.debug( mcff );
-		int stateId = 0;
-		// build state and energy lists and save the MFE; // skip 4 lines;
-		for( int lineNo = 0; lineNo < outputLines.size(); lineNo++ ) {
-		    //line = outputLines.get( lineNo );
-		    // mfe in element[1], minus the "-" sign (3-decimal precision)
-		    //System.out.println( outputLines.get( lineNo ) );
-		    Double energy;
-		    String[] parts = outputLines.get( lineNo ).split( "[+-]", 2 );
-		    String forEnergy = parts[1].split( " ", 2 )[0]; // get rid of the shape
-
-		    // Determine the sign
-		    if( outputLines.get( lineNo ).contains( "-" ) ) {
-			energy = -Double.parseDouble( forEnergy ); // Negate the value for "-"
-		    } else {
-			energy = Double.parseDouble( forEnergy );  // Keep the value positive for "+"
-		    }
-		    energies.add( energy );
-		    numberOfBPS.add( countLeftParens( parts[0].substring( 0, parts[0].length() - 1 ) ) );
-		    states.add( outputLines.get( lineNo ) );
-		    stateId++;
-		    if( !this.maximizeDoubleHelix ) break; // if we're not searching the space, we have the MFE in the first state
+		// fold with the configured engine (mcff by default), unless the level was prefetched
+		FoldResult folded = this.prefetched.get( request.key() );
+		if( folded == null ) folded = FoldingEngines.get().fold( request );
+		FoldMetrics.getInstance().level( folded );
+		// build state and energy lists; without maximizeDoubleHelix the engine returns the MFE only
+		for( int stateId = 0; stateId < folded.size(); stateId++ ) {
+		    energies.add( folded.getEnergy( stateId ) );
+		    numberOfBPS.add( countLeftParens( folded.getState( stateId ) ) );
+		    states.add( folded.getState( stateId ) );
 		}
-
 	    } catch( IOException exc ) {
+		failed = true;
 		exc.printStackTrace();
 	    } catch( InterruptedException exc ) {
+		failed = true;
 		exc.printStackTrace();
 	    }
 
@@ -635,6 +558,7 @@ public class Duplex {
 	    }
 	}
 	if( this.freeEnergy == 0.0 ) return -1;
+	FoldEscalation.getInstance().record( ladderKey, this.e, theEvalue, levelsFolded, failed );
 	return 0;
     }
     
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.List;
+import java.util.ArrayList;
+
+import java.io.IOException;
+
+/** -------------------------------------------
+      ExternalFoldingEngine
+        folds with the mcff binary, one process per fold, and parses its output
+        as it streams (McffOutputParser), killing mcff as soon as the request has
+        the states it needs. Subclasses only change how the command is run.
+
+        The folds run under the FoldWatchdog deadlines; a batch past its
+        deadline is folded again one request at a time, so that only the
+        pathological requests time out.
+*/
+
+public class ExternalFoldingEngine implements FoldingEngine {
+
+    private static final boolean WINDOWS = System.getProperty( "os.name" ).toLowerCase().contains( "win" );
+
+    @Override
+    public String getName() { return "mcff"; }
+
+    // run the mcff command line and return its stdout lines (blank ones included, they count in the MIRISC header); killed past timeoutMillis (0: no deadline)
+    protected List<String> run( String commandLine, long timeoutMillis ) throws IOException, InterruptedException {
+        return McffWorkerPool.runOnce( commandLine, WINDOWS, timeoutMillis );
+    }
+
+    // run the mcff command line and stream its output to the parser; the process is killed when the parser has enough
+    protected void stream( String commandLine, McffOutputParser parser, long timeoutMillis ) throws IOException, InterruptedException {
+        McffWorkerPool.runOnce( commandLine, WINDOWS, parser::accept, timeoutMillis );
+    }
+
+    // run a batch of mcff command lines, outputs in the order of the commands; the batch is killed past timeoutMillis
+    protected List<List<String>> runAll( List<String> commandLines, long timeoutMillis ) throws IOException, InterruptedException {
+        List<List<String>> outputs = new ArrayList<>( commandLines.size() );
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for( String commandLine : commandLines )
+            outputs.add( this.run( commandLine, timeoutMillis == 0 ? 0L : Math.max( 1L, deadline - System.currentTimeMillis() ) ) );
+        return outputs;
+    }
+
+    // cut the mcff output at the source when the number of lines needed is known: mcff ends on SIGPIPE (141, a success);
+    //   the exit status is mcff's, not head's, so that a failing mcff is not taken for an empty output
+    protected static String limitOutput( String commandLine, McffOutputParser parser ) {
+        int limit = parser.lineLimit();
+        if( limit == 0 || WINDOWS ) return commandLine;
+        return commandLine + " | head -n " + limit + "; s=${PIPESTATUS[0]}; exit $(( s == 141 ? 0 : s ))";
+    }
+
+    @Override
+    public FoldResult fold( FoldRequest request ) throws IOException, InterruptedException {
+        return FoldWatchdog.getInstance().fold( request, timeoutMillis -> {
+                McffOutputParser parser = new McffOutputParser( request );
+                this.stream( request.commandLine(), parser, timeoutMillis );
+                return parser.result();
+            } );
+    }
+
+    // the batch is refused if a request is quarantined; it runs within one fold deadline (the batches are of short
+    //   folds): a batch that times out or fails is folded again one request at a time, each with its deadline and retries
+    @Override
+    public List<FoldResult> foldAll( List<FoldRequest> requests ) throws IOException, InterruptedException {
+        FoldWatchdog watchdog = FoldWatchdog.getInstance();
+        for( FoldRequest request : requests ) watchdog.refuseQuarantined( request );
+        List<McffOutputParser> parsers = new ArrayList<>( requests.size() );
+        List<String> commandLines = new ArrayList<>( requests.size() );
+        for( FoldRequest request : requests ) {
+            McffOutputParser parser = new McffOutputParser( request );
+            parsers.add( parser );
+            commandLines.add( limitOutput( request.commandLine(), parser ) );
+        }
+        List<List<String>> outputs;
+        try {
+            outputs = this.runAll( commandLines, watchdog.getTimeoutMillis() );
+        } catch( FoldException | McffExitException e ) { // a slow or failing request in the batch: fold them one by one, each with its deadline
+            List<FoldResult> results = new ArrayList<>( requests.size() );
+            for( FoldRequest request : requests ) results.add( this.fold( request ) );
+            return results;
+        }
+        List<FoldResult> results = new ArrayList<>( requests.size() );
+        for( int i = 0; i < requests.size(); i++ ) {
+            for( String line : outputs.get( i ) )
+                if( !parsers.get( i ).accept( line ) ) break;
+            results.add( parsers.get( i ).result() );
+        }
+        return results;
+    }
+
+    // parse mcff output lines into dotbs and energies
+    public static FoldResult parse( FoldRequest request, List<String> outputLines ) {
+        McffOutputParser parser = new McffOutputParser( request );
+        for( String line : outputLines )
+            if( !parser.accept( line ) ) break;
+        return parser.result();
+    }
+
+    public static FoldResult toFoldResult( List<String> states, List<Double> energies, double threshold ) {
+        double[] e = new double[energies.size()];
+        for( int i = 0; i < e.length; i++ ) e[i] = energies.get( i );
+        return new FoldResult( states.toArray( new String[0] ), e, threshold );
+    }
+}
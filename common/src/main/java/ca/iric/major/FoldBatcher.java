@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** -------------------------------------------
+      FoldBatcher
+        is the batch fold API. Fold requests are submitted by thousands and
+        answered by futures; the requests are grouped in batches of $FOLD_BATCH
+        (default: 16) sent to FoldingEngine.foldAll(), so that a batch costs one
+        pooled-worker round-trip and one cache pass.
+
+        prefetch() folds a set of requests, each at the start level of its
+        threshold ladder (see FoldEscalation), waits for them and returns the
+        results by request key; the folds of Duplex, Guide, ... are given these
+        results and do not refold them, with or without the fold cache.
+*/
+
+public class FoldBatcher {
+
+    private static final String ENV_VAR_NAME = "FOLD_BATCH";
+    private static final int DEFAULT_BATCH = 16;
+    private static FoldBatcher instance = null;
+
+    public static synchronized FoldBatcher getInstance() {
+        if( instance == null ) {
+            int batchSize = DEFAULT_BATCH;
+            String envBatch = System.getenv( ENV_VAR_NAME );
+            if( Utils.isValidInt( envBatch ) ) batchSize = Math.max( 1, Integer.parseInt( envBatch.trim() ) );
+            instance = new FoldBatcher( FoldingEngines.get(), batchSize, Runtime.getRuntime().availableProcessors() );
+        }
+        return instance;
+    }
+
+    private final FoldingEngine engine;
+    private final int batchSize;
+    private final ExecutorService executor;
+
+    public FoldBatcher( FoldingEngine engine, int batchSize, int threads ) {
+        this.engine = engine;
+        this.batchSize = batchSize;
+        this.executor = Executors.newFixedThreadPool( threads, r -> {
+                Thread t = new Thread( r, "fold-batcher" );
+                t.setDaemon( true );
+                return t;
+            } );
+    }
+
+    public int getBatchSize() { return this.batchSize; }
+
+    // submit the requests; one future per request, in the order of the requests
+    public List<CompletableFuture<FoldResult>> submit( List<FoldRequest> requests ) {
+        List<CompletableFuture<FoldResult>> futures = new ArrayList<>( requests.size() );
+        for( int i = 0; i < requests.size(); i++ ) futures.add( new CompletableFuture<>() );
+        for( int from = 0; from < requests.size(); from += this.batchSize ) {
+            int to = Math.min( from + this.batchSize, requests.size() );
+            List<FoldRequest> batch = requests.subList( from, to );
+            List<CompletableFuture<FoldResult>> batchFutures = futures.subList( from, to );
+            this.executor.execute( () -> {
+                    try {
+                        List<FoldResult> results = this.engine.foldAll( batch );
+                        for( int i = 0; i < results.size(); i++ ) batchFutures.get( i ).complete( results.get( i ) );
+                    } catch( Exception e ) {
+                        for( CompletableFuture<FoldResult> f : batchFutures ) f.completeExceptionally( e );
+                    }
+                } );
+        }
+        return futures;
+    }
+
+    // fold the requests at the start levels of their ladders and wait for them; the results by request key
+    //   failed folds are left out, they are redone (and reported) by the regular fold path
+    public Map<String,FoldResult> prefetch( List<FoldRequest> requests ) {
+        Map<String,FoldResult> results = new HashMap<>();
+        if( requests.isEmpty() ) return results;
+        List<FoldRequest> started = new ArrayList<>( requests.size() );
+        for( FoldRequest request : requests )
+            started.add( request.withThreshold( FoldEscalation.getInstance().memoizedLevel( request.key(), request.getThreshold() ) ) );
+        List<CompletableFuture<FoldResult>> futures = this.submit( started );
+        CompletableFuture.allOf( futures.toArray( new CompletableFuture<?>[0] ) )
+            .exceptionally( e -> null )
+            .join();
+        for( int i = 0; i < started.size(); i++ )
+            if( !futures.get( i ).isCompletedExceptionally() ) results.put( started.get( i ).key(), futures.get( i ).join() );
+        return results;
+    }
+}
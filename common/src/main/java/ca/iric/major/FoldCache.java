@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** -------------------------------------------
+      FoldCache
+        is a bounded, concurrent, size-aware LRU cache of fold results keyed by
+        the fold inputs (content-addressed). It is split in segments, each one an
+        access-ordered LinkedHashMap under its own lock, so that parallel folds
+        rarely contend. A segment evicts its least recently used entries when the
+        sum of the entry weights exceeds its share of the budget.
+
+        The shared instance budget is read from $FOLD_CACHE_MB (default: 256);
+        FOLD_CACHE_MB=0 disables caching. When a FoldStore is configured
+        ($FOLD_STORE), it backs the cache: misses are looked up in the store and
+        new results are written through, so results survive across runs.
+*/
+
+public class FoldCache {
+
+    private static final String ENV_VAR_NAME = "FOLD_CACHE_MB";
+    private static final int DEFAULT_MB = 256;
+    private static final int SEGMENTS = 16; // power of 2
+    private static FoldCache instance = null;
+
+    public static synchronized FoldCache getInstance() {
+        if( instance == null ) {
+            long mb = DEFAULT_MB;
+            String envMb = System.getenv( ENV_VAR_NAME );
+            if( Utils.isValidInt( envMb ) ) mb = Math.max( 0, Integer.parseInt( envMb.trim() ) );
+            instance = new FoldCache( mb * 1024 * 1024, FoldStore.getInstance() );
+        }
+        return instance;
+    }
+
+    // one LRU segment
+    private static class Segment {
+        private final LinkedHashMap<String,FoldResult> map = new LinkedHashMap<>( 256, 0.75f, true ); // access order
+        private long weight = 0;
+    }
+
+    private final long maxWeight;
+    private final long segmentMaxWeight;
+    private final Segment[] segments;
+    private final FoldStore store; // second level, may be null
+    private final AtomicLong hits = new AtomicLong( 0 );
+    private final AtomicLong storeHits = new AtomicLong( 0 );
+    private final AtomicLong misses = new AtomicLong( 0 );
+    private final AtomicLong evictions = new AtomicLong( 0 );
+
+    public FoldCache( long maxWeight ) {
+        this( maxWeight, null );
+    }
+
+    public FoldCache( long maxWeight, FoldStore store ) {
+        this.maxWeight = maxWeight;
+        this.store = store;
+        this.segmentMaxWeight = maxWeight / SEGMENTS;
+        this.segments = new Segment[SEGMENTS];
+        for( int i = 0; i < SEGMENTS; i++ ) this.segments[i] = new Segment();
+    }
+
+    // getters
+
+    public boolean isEnabled()    { return this.maxWeight > 0 || this.store != null; }
+    public long    getMaxWeight() { return this.maxWeight; }
+    public long    getHits()      { return this.hits.get(); } // including store hits
+    public long    getStoreHits() { return this.storeHits.get(); }
+    public long    getMisses()    { return this.misses.get(); }
+    public long    getEvictions() { return this.evictions.get(); }
+
+    public double getHitRatio() {
+        long total = this.getHits() + this.getMisses();
+        return total == 0 ? 0.0 : (double)this.getHits() / total;
+    }
+
+    public long getWeight() {
+        long weight = 0;
+        for( Segment s : this.segments )
+            synchronized( s ) { weight += s.weight; }
+        return weight;
+    }
+
+    public int size() {
+        int size = 0;
+        for( Segment s : this.segments )
+            synchronized( s ) { size += s.map.size(); }
+        return size;
+    }
+
+    private Segment segmentFor( String key ) {
+        int h = key.hashCode();
+        h ^= ( h >>> 16 );
+        return this.segments[h & ( SEGMENTS - 1 )];
+    }
+
+    // return the cached result or null
+    public FoldResult get( String key ) {
+        if( !this.isEnabled() ) return null;
+        Segment s = this.segmentFor( key );
+        FoldResult result;
+        synchronized( s ) { result = s.map.get( key ); }
+        if( result == null && this.store != null ) {
+            result = this.store.get( key );
+            if( result != null ) {
+                this.storeHits.incrementAndGet();
+                this.putInMemory( key, result );
+            }
+        }
+        if( result == null ) this.misses.incrementAndGet();
+        else this.hits.incrementAndGet();
+        return result;
+    }
+
+    public void put( String key, FoldResult result ) {
+        if( this.store != null ) this.store.put( key, result );
+        this.putInMemory( key, result );
+    }
+
+    private void putInMemory( String key, FoldResult result ) {
+        if( this.maxWeight <= 0 ) return;
+        long weight = result.weight() + 40 + key.length();
+        if( weight > this.segmentMaxWeight ) return; // too big to be worth caching
+        Segment s = this.segmentFor( key );
+        synchronized( s ) {
+            FoldResult old = s.map.put( key, result );
+            if( old != null ) s.weight -= old.weight() + 40 + key.length();
+            s.weight += weight;
+            // evict least recently used entries
+            Iterator<Map.Entry<String,FoldResult>> it = s.map.entrySet().iterator();
+            while( s.weight > this.segmentMaxWeight && it.hasNext() ) {
+                Map.Entry<String,FoldResult> eldest = it.next();
+                s.weight -= eldest.getValue().weight() + 40 + eldest.getKey().length();
+                it.remove();
+                this.evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public void clear() {
+        for( Segment s : this.segments )
+            synchronized( s ) {
+                s.map.clear();
+                s.weight = 0;
+            }
+    }
+
+    @Override
+    public String toString() {
+        return "fold cache: " + this.size() + " entries (" + ( this.getWeight() / 1024 ) + " kB), " +
+            this.getHits() + " hits (" + this.getStoreHits() + " from store), " + this.getMisses() + " misses, " + this.getEvictions() + " evictions, " +
+            String.format( "%.1f", 100 * this.getHitRatio() ) + "% hit ratio";
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** -------------------------------------------
+      FoldEscalation
+        memoizes the threshold ladders of the folds. Duplex, SecondaryStructure
+        and MiRISCDuplex raise their -t/-e threshold until the fold gives states
+        (or, with a shape, states of that shape). The first successful level of a
+        ladder is remembered, keyed by the fold request at the start level, and
+        the next fold of the same inputs starts directly at that level: the levels
+        below are known to fail, so the result is the same without the extra runs.
+        A ladder where a level failed with an error (ex: an mcff crash or I/O
+        error, caught by the caller) is not remembered: that level may give states
+        the next time.
+
+        It also counts how often escalation happens.
+*/
+
+public class FoldEscalation {
+
+    private static final int MAX_LADDERS = 1 << 20; // the memo is dropped when it grows beyond
+    private static FoldEscalation instance = null;
+
+    public static synchronized FoldEscalation getInstance() {
+        if( instance == null ) instance = new FoldEscalation();
+        return instance;
+    }
+
+    private final Map<String,Double> ladders = new ConcurrentHashMap<>(); // ladder key -> first successful level
+    private final AtomicLong folds = new AtomicLong( 0 ); // ladders climbed
+    private final AtomicLong escalated = new AtomicLong( 0 ); // ladders that needed more than their start level
+    private final AtomicLong levels = new AtomicLong( 0 ); // levels folded above the start levels
+    private final AtomicLong skipped = new AtomicLong( 0 ); // ladders started at a memoized level
+
+    // getters
+
+    public long getFolds()     { return this.folds.get(); }
+    public long getEscalated() { return this.escalated.get(); }
+    public long getLevels()    { return this.levels.get(); }
+    public long getSkipped()   { return this.skipped.get(); }
+
+    // level to start the ladder at: the memoized successful level, or start
+    public double startLevel( String ladderKey, double start ) {
+        double level = this.memoizedLevel( ladderKey, start );
+        if( level > start ) this.skipped.incrementAndGet();
+        return level;
+    }
+
+    // startLevel() without counting, for the requests folded ahead of their ladder (see FoldBatcher)
+    public double memoizedLevel( String ladderKey, double start ) {
+        Double level = this.ladders.get( ladderKey );
+        return level == null || level <= start ? start : level;
+    }
+
+    // record the successful level (reached) of a ladder starting at start, and the number of levels folded
+    //   failed: a level of the ladder threw instead of giving no states, reached is then not memoized
+    public void record( String ladderKey, double start, double reached, int levelsFolded, boolean failed ) {
+        this.folds.incrementAndGet();
+        if( levelsFolded > 1 ) this.levels.addAndGet( levelsFolded - 1 );
+        if( reached > start ) {
+            this.escalated.incrementAndGet();
+            if( failed ) return;
+            if( this.ladders.size() >= MAX_LADDERS ) this.ladders.clear();
+            this.ladders.put( ladderKey, reached );
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "fold escalation: " + this.getEscalated() + " of " + this.getFolds() + " folds escalated, " +
+            this.getLevels() + " extra levels folded, " + this.getSkipped() + " ladders started at a memoized level";
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+/** -------------------------------------------
+      FoldException
+        is thrown when a fold cannot complete: mcff ran past its deadline
+        (the process is killed) or the sequence is quarantined by the
+        FoldWatchdog. It is unchecked, so that it goes through the fold
+        ladders of Duplex, SecondaryStructure and MiRISCDuplex (which handle
+        the IOException of the engines) up to the caller, that drops the
+        guide instead of stopping the design.
+*/
+
+public class FoldException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient FoldRequest request; // not serializable, null once deserialized
+    private final boolean quarantined;
+
+    // a timed-out mcff run
+    public FoldException( String message ) {
+        this( message, null, false );
+    }
+
+    public FoldException( String message, FoldRequest request, boolean quarantined ) {
+        super( message );
+        this.request = request;
+        this.quarantined = quarantined;
+    }
+
+    // getters
+
+    public FoldRequest getRequest()   { return this.request; } // null if thrown below the engine
+    public boolean     isQuarantined() { return this.quarantined; }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/** -------------------------------------------
+      FoldMetrics
+        records where the fold time goes, per fold type: duplex.seed,
+        duplex.supp, duplex.full (the stages of Guide.fold()), duplex (the
+        other duplexes), secondaryStructure and miriscDuplex. A fold is timed
+        from the start to the end of its threshold ladder; for each type:
+          calls, failures   folds done, folds that threw (FoldException, ...)
+          latency           wall-time histogram of the folds, HDR style: 8
+                            sub-buckets per power of 2 of microseconds (at most
+                            12.5% error), with the usual percentiles
+          levels            engine calls; escalated counts the folds that needed
+                            more than one level
+          states            states returned by the engine
+          cache             FoldCache hits and misses of the engine calls
+          share             part of the fold time spent in this type, the budget
+                            of each stage of the design
+        The cache lookups of the batches prefetched by FoldBatcher, made outside
+        of any fold, are counted under prefetch.
+
+        A fold opens a Fold on its thread (start(type), closed at the end of the
+        ladder); the engine calls of the thread are attributed to it.
+
+        The metrics can be queried live (get, toJson). With $FOLD_METRICS set to
+        a path, the JSON is written there every $FOLD_METRICS_PERIOD seconds
+        (default 60) and at the end of the run.
+*/
+
+public class FoldMetrics {
+
+    private static final String ENV_VAR_NAME = "FOLD_METRICS";
+    private static final String PERIOD_VAR_NAME = "FOLD_METRICS_PERIOD";
+    private static final int DEFAULT_PERIOD = 60; // seconds
+    private static final String PREFETCH = "prefetch";
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static FoldMetrics instance = null;
+
+    public static synchronized FoldMetrics getInstance() {
+        if( instance == null ) {
+            instance = new FoldMetrics();
+            String path = System.getenv( ENV_VAR_NAME );
+            if( path != null && !path.isBlank() ) {
+                int period = DEFAULT_PERIOD;
+                String envPeriod = System.getenv( PERIOD_VAR_NAME );
+                if( Utils.isValidInt( envPeriod ) ) period = Math.max( 1, Integer.parseInt( envPeriod.trim() ) );
+                instance.dumpTo( Paths.get( path.trim() ), period );
+            }
+        }
+        return instance;
+    }
+
+    /** -------------------------------------------
+          Histogram
+            of latencies in microseconds: values below 16 are exact, then 8
+            buckets per power of 2.
+    */
+
+    public static final class Histogram {
+
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int EXACT = 2 * SUB_BUCKETS; // values below are their own bucket
+
+        private final AtomicLongArray counts = new AtomicLongArray( EXACT + ( 64 - SUB_BITS - 1 ) * SUB_BUCKETS );
+        private final AtomicLong count = new AtomicLong( 0 );
+        private final AtomicLong total = new AtomicLong( 0 );
+        private final AtomicLong max = new AtomicLong( 0 );
+
+        private static int bucket( long value ) {
+            if( value < EXACT ) return (int)Math.max( 0, value );
+            int exponent = 63 - Long.numberOfLeadingZeros( value ); // >= SUB_BITS + 1
+            int sub = (int)( value >>> ( exponent - SUB_BITS ) ) & ( SUB_BUCKETS - 1 );
+            return EXACT + ( exponent - SUB_BITS - 1 ) * SUB_BUCKETS + sub;
+        }
+
+        // largest value of bucket
+        private static long highest( int bucket ) {
+            if( bucket < EXACT ) return bucket;
+            int exponent = ( bucket - EXACT ) / SUB_BUCKETS + SUB_BITS + 1;
+            int sub = ( bucket - EXACT ) % SUB_BUCKETS;
+            return ( (long)( SUB_BUCKETS + sub + 1 ) << ( exponent - SUB_BITS ) ) - 1;
+        }
+
+        public void record( long micros ) {
+            this.counts.incrementAndGet( bucket( micros ) );
+            this.count.incrementAndGet();
+            this.total.addAndGet( micros );
+            this.max.accumulateAndGet( micros, Math::max );
+        }
+
+        public long getCount() { return this.count.get(); }
+        public long getTotal() { return this.total.get(); } // microseconds
+        public long getMax()   { return this.max.get(); }
+
+        public double getMean() {
+            long n = this.getCount();
+            return n == 0 ? 0.0 : (double)this.getTotal() / n;
+        }
+
+        // value at quantile q (0 < q <= 1), within the precision of the buckets
+        public long getValueAtQuantile( double q ) {
+            long n = this.getCount();
+            if( n == 0 ) return 0;
+            long rank = Math.max( 1, (long)Math.ceil( q * n ) );
+            long seen = 0;
+            for( int b = 0; b < this.counts.length(); b++ ) {
+                seen += this.counts.get( b );
+                if( seen >= rank ) return Math.min( highest( b ), this.getMax() );
+            }
+            return this.getMax();
+        }
+    }
+
+    /** -------------------------------------------
+          Stats
+            of one fold type.
+    */
+
+    public static final class Stats {
+
+        private final String type;
+        private final Histogram latency = new Histogram();
+        private final AtomicLong calls = new AtomicLong( 0 );
+        private final AtomicLong failures = new AtomicLong( 0 );
+        private final AtomicLong levels = new AtomicLong( 0 );
+        private final AtomicLong escalated = new AtomicLong( 0 );
+        private final AtomicLong states = new AtomicLong( 0 );
+        private final AtomicLong cacheHits = new AtomicLong( 0 );
+        private final AtomicLong cacheMisses = new AtomicLong( 0 );
+
+        private Stats( String type ) {
+            this.type = type;
+        }
+
+        // getters
+
+        public String    getType()        { return this.type; }
+        public Histogram getLatency()     { return this.latency; }
+        public long      getCalls()       { return this.calls.get(); }
+        public long      getFailures()    { return this.failures.get(); }
+        public long      getLevels()      { return this.levels.get(); }
+        public long      getEscalated()   { return this.escalated.get(); }
+        public long      getStates()      { return this.states.get(); }
+        public long      getCacheHits()   { return this.cacheHits.get(); }
+        public long      getCacheMisses() { return this.cacheMisses.get(); }
+
+        public double getCacheHitRatio() {
+            long lookups = this.getCacheHits() + this.getCacheMisses();
+            return lookups == 0 ? 0.0 : (double)this.getCacheHits() / lookups;
+        }
+    }
+
+    /** -------------------------------------------
+          Fold
+            in progress on the current thread, from start() to close().
+    */
+
+    public final class Fold implements AutoCloseable {
+
+        private final Stats stats;
+        private final Fold previous; // enclosing fold of the thread, if any
+        private final long start = System.nanoTime();
+        private int levels = 0;
+        private long states = 0;
+        private int cacheHits = 0;
+        private int cacheMisses = 0;
+        private boolean completed = false;
+
+        private Fold( Stats stats, Fold previous ) {
+            this.stats = stats;
+            this.previous = previous;
+        }
+
+        // the ladder reached its end (the fold did not throw)
+        public void completed() { this.completed = true; }
+
+        @Override
+        public void close() {
+            Stats s = this.stats;
+            s.latency.record( ( System.nanoTime() - this.start ) / 1000 );
+            s.calls.incrementAndGet();
+            if( !this.completed ) s.failures.incrementAndGet();
+            s.levels.addAndGet( this.levels );
+            if( this.levels > 1 ) s.escalated.incrementAndGet();
+            s.states.addAndGet( this.states );
+            s.cacheHits.addAndGet( this.cacheHits );
+            s.cacheMisses.addAndGet( this.cacheMisses );
+            if( this.previous == null ) FoldMetrics.this.current.remove();
+            else FoldMetrics.this.current.set( this.previous );
+        }
+    }
+
+    private final Map<String,Stats> stats = new ConcurrentHashMap<>();
+    private final ThreadLocal<Fold> current = new ThreadLocal<>();
+    private final long startTime = System.currentTimeMillis();
+
+    public FoldMetrics() {
+    }
+
+    // the stats of type, created on the first fold
+    public Stats get( String type ) {
+        return this.stats.computeIfAbsent( type, Stats::new );
+    }
+
+    // start a fold of type on the current thread; close it when its ladder ends
+    public Fold start( String type ) {
+        Fold fold = new Fold( this.get( type ), this.current.get() );
+        this.current.set( fold );
+        return fold;
+    }
+
+    // a level of the fold of the current thread returned result
+    public void level( FoldResult result ) {
+        Fold fold = this.current.get();
+        if( fold == null ) return;
+        fold.levels++;
+        fold.states += result.size();
+    }
+
+    // a FoldCache lookup of an engine call
+    public void cacheLookup( boolean hit ) {
+        Fold fold = this.current.get();
+        if( fold != null ) {
+            if( hit ) fold.cacheHits++;
+            else fold.cacheMisses++;
+        }
+        else if( hit ) this.get( PREFETCH ).cacheHits.incrementAndGet();
+        else this.get( PREFETCH ).cacheMisses.incrementAndGet();
+    }
+
+    // the metrics, by type in alphabetical order
+    public Map<String,Object> snapshot() {
+        long foldTime = this.stats.values().stream().mapToLong( s -> s.latency.getTotal() ).sum();
+        Map<String,Object> types = new LinkedHashMap<>();
+        this.stats.keySet().stream().sorted().forEach( type -> {
+                Stats s = this.stats.get( type );
+                Histogram h = s.getLatency();
+                Map<String,Object> latency = new LinkedHashMap<>();
+                latency.put( "totalSeconds", h.getTotal() / 1e6 );
+                latency.put( "meanMicros", h.getMean() );
+                latency.put( "p50Micros", h.getValueAtQuantile( 0.50 ) );
+                latency.put( "p90Micros", h.getValueAtQuantile( 0.90 ) );
+                latency.put( "p99Micros", h.getValueAtQuantile( 0.99 ) );
+                latency.put( "p999Micros", h.getValueAtQuantile( 0.999 ) );
+                latency.put( "maxMicros", h.getMax() );
+                Map<String,Object> entry = new LinkedHashMap<>();
+                entry.put( "calls", s.getCalls() );
+                entry.put( "failures", s.getFailures() );
+                entry.put( "latency", latency );
+                entry.put( "share", foldTime == 0 ? 0.0 : (double)h.getTotal() / foldTime );
+                entry.put( "levels", s.getLevels() );
+                entry.put( "escalated", s.getEscalated() );
+                entry.put( "states", s.getStates() );
+                entry.put( "cacheHits", s.getCacheHits() );
+                entry.put( "cacheMisses", s.getCacheMisses() );
+                entry.put( "cacheHitRatio", s.getCacheHitRatio() );
+                types.put( type, entry );
+            } );
+        Map<String,Object> result = new LinkedHashMap<>();
+        result.put( "elapsedSeconds", ( System.currentTimeMillis() - this.startTime ) / 1000.0 );
+        result.put( "foldSeconds", foldTime / 1e6 );
+        result.put( "types", types );
+        return result;
+    }
+
+    public String toJson() {
+        try {
+            return mapper.writerWithDefaultPrettyPrinter().writeValueAsString( this.snapshot() );
+        } catch( IOException e ) { // maps of numbers and strings
+            throw new IllegalStateException( e );
+        }
+    }
+
+    // write the JSON to path (through a temporary file, so that a reader never sees it partly written)
+    public void write( Path path ) throws IOException {
+        Path tmp = path.resolveSibling( path.getFileName() + ".tmp" );
+        Files.writeString( tmp, this.toJson() );
+        Files.move( tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    // write the JSON to path every period seconds and at the end of the run
+    private void dumpTo( Path path, int period ) {
+        Runnable dump = () -> {
+            try {
+                this.write( path );
+            } catch( IOException e ) {
+                System.err.println( "FoldMetrics: cannot write " + path + " (" + e.getMessage() + ")" );
+            }
+        };
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor( r -> {
+                Thread t = new Thread( r, "fold-metrics" );
+                t.setDaemon( true );
+                return t;
+            } );
+        dumper.scheduleAtFixedRate( dump, period, period, TimeUnit.SECONDS );
+        Runtime.getRuntime().addShutdownHook( new Thread( dump ) );
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder( "fold metrics:" );
+        this.stats.keySet().stream().sorted().forEach( type -> {
+                Stats s = this.stats.get( type );
+                Histogram h = s.getLatency();
+                out.append( "\n   " ).append( type ).append( ": " ).append( s.getCalls() ).append( " folds, " )
+                    .append( String.format( "%.1f s, p50 %d us, p99 %d us, ", h.getTotal() / 1e6, h.getValueAtQuantile( 0.5 ), h.getValueAtQuantile( 0.99 ) ) )
+                    .append( s.getEscalated() ).append( " escalated, " ).append( s.getStates() ).append( " states, " )
+                    .append( String.format( "%.1f%% cache hits", 100 * s.getCacheHitRatio() ) );
+            } );
+        return out.toString();
+    }
+}
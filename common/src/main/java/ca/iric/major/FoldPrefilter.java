@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** -------------------------------------------
+      FoldPrefilter
+        is a cascade of cheap tests run on a guide before its folds, to drop
+        the guides that cannot bind their MRE (Guide.bind(), required by the
+        filters of GuideMap):
+          tier 1  complementarity, no fold. The MRE is packed in one bit mask
+                  per nucleotide (read 3'->5', facing the guide), and the masks
+                  of the nucleotides each guide nucleotide pairs with (WC or GU)
+                  are combined bit-parallel. A seed needs 4 consecutive pairs
+                  of g2-g8 in helix (consecutive in the MRE) or 6 pairs of
+                  g2-g8 in order (bit-parallel LCS); a supp needs 4 consecutive
+                  pairs of g13-g17 in helix. A guide with neither cannot bind:
+                  the tier is exact, it never drops a guide that would pass.
+          tier 2  the tight seed fold only (the first fold of the guide, kept
+                  for the full fold): a guide whose tight seed has no 4mer grip
+                  and that cannot bind by the supp is dropped. Heuristic: the
+                  full fold may still pair the seed elsewhere.
+        Only the survivors get the full constrained fold.
+
+        $PREFILTER sets the last tier run: 0 none, 1 complementarity (default),
+        2 complementarity and seed fold. Each tier counts its passes and rejects.
+*/
+
+public class FoldPrefilter {
+
+    private static final String ENV_VAR_NAME = "PREFILTER";
+    private static final int DEFAULT_TIERS = 1;
+    private static final int MAX_LENGTH = 64; // of the MREs packed, longer ones pass tier 1
+    private static FoldPrefilter instance = null;
+
+    public static synchronized FoldPrefilter getInstance() {
+        if( instance == null ) {
+            int tiers = DEFAULT_TIERS;
+            String envTiers = System.getenv( ENV_VAR_NAME );
+            if( Utils.isValidInt( envTiers ) ) tiers = Math.max( 0, Math.min( 2, Integer.parseInt( envTiers.trim() ) ) );
+            instance = new FoldPrefilter( tiers );
+        }
+        return instance;
+    }
+
+    private final int tiers;
+    private final AtomicLong[] passed = { new AtomicLong( 0 ), new AtomicLong( 0 ) };
+    private final AtomicLong[] rejected = { new AtomicLong( 0 ), new AtomicLong( 0 ) };
+
+    public FoldPrefilter( int tiers ) {
+        this.tiers = tiers;
+    }
+
+    // getters
+
+    public int  getTiers()             { return this.tiers; }
+    public long getPassed( int tier )   { return this.passed[tier - 1].get(); }
+    public long getRejected( int tier ) { return this.rejected[tier - 1].get(); }
+
+    // false if guide cannot bind its MRE; tier 2 folds the tight seed of guide
+    public boolean accept( Guide guide ) {
+        if( this.tiers < 1 || guide.isFolded() ) return true;
+        long[] masks = pairingMasks( guide.foldTarget() );
+        String sequence = guide.getSequence();
+        boolean suppMayBind = masks == null || suppMayBind( masks, sequence );
+        if( !suppMayBind && !seedMayBind( masks, sequence ) ) return this.count( 1, false );
+        this.count( 1, true );
+        if( this.tiers < 2 || suppMayBind ) return true;
+        guide.foldSeed();
+        return this.count( 2, guide.hasTightSeedGrip() );
+    }
+
+    private boolean count( int tier, boolean pass ) {
+        ( pass ? this.passed : this.rejected )[tier - 1].incrementAndGet();
+        return pass;
+    }
+
+    // tier 1
+
+    // code of a nucleotide, -1 if not ACGU (T is U)
+    private static int code( char nt ) {
+        switch( nt ) {
+        case 'A': return 0;
+        case 'C': return 1;
+        case 'G': return 2;
+        case 'U': case 'T': return 3;
+        default: return -1;
+        }
+    }
+
+    // masks[c]: bit r set if the nucleotide of target at n-1-r (target read 3'->5') pairs (WC or GU) with the guide
+    //   nucleotide of code c; null if target is too long to be packed
+    static long[] pairingMasks( CharSequence target ) {
+        int n = target.length();
+        if( n > MAX_LENGTH ) return null;
+        long[] packed = new long[4]; // one mask per nucleotide
+        for( int r = 0; r < n; r++ ) {
+            int c = code( target.charAt( n - 1 - r ) );
+            if( c >= 0 ) packed[c] |= 1L << r;
+        }
+        return new long[] {
+            packed[3],              // A-U
+            packed[2],              // C-G
+            packed[1] | packed[3],  // G-C, G-U
+            packed[0] | packed[2]   // U-A, U-G
+        };
+    }
+
+    private static long mask( long[] masks, char nt ) {
+        int c = code( nt );
+        return c < 0 ? 0L : masks[c];
+    }
+
+    // 4 consecutive nucleotides of guide from start pair with 4 consecutive nucleotides of the target
+    private static boolean hasHelix( long[] masks, String guide, int start ) {
+        long helix = -1L;
+        for( int k = 0; k < 4; k++ ) helix &= mask( masks, guide.charAt( start + k ) ) >>> k;
+        return helix != 0;
+    }
+
+    // length of the longest sequence of guide nucleotides from start to end (exclusive) pairing in order with the target
+    private static int pairedInOrder( long[] masks, String guide, int start, int end ) {
+        long v = -1L; // bit-parallel LCS (Hyyrö), 0 bits count the matches
+        for( int i = start; i < end; i++ ) {
+            long m = mask( masks, guide.charAt( i ) );
+            v = ( v + ( v & m ) ) | ( v & ~m );
+        }
+        return Long.bitCount( ~v );
+    }
+
+    static boolean seedMayBind( long[] masks, String guide ) {
+        for( int start = Guide.G2; start + 3 <= Guide.G8; start++ )
+            if( hasHelix( masks, guide, start ) ) return true;
+        return pairedInOrder( masks, guide, Guide.G2, Guide.G8 + 1 ) >= 6;
+    }
+
+    static boolean suppMayBind( long[] masks, String guide ) {
+        if( guide.length() <= Guide.G13 + 3 ) return false;
+        return hasHelix( masks, guide, Guide.G13 ) || ( guide.length() > Guide.G13 + 4 && hasHelix( masks, guide, Guide.G13 + 1 ) );
+    }
+
+    @Override
+    public String toString() {
+        return "fold prefilter (" + this.tiers + " tiers): complementarity " + this.getPassed( 1 ) + " passed, " + this.getRejected( 1 ) + " rejected; " +
+            "seed fold " + this.getPassed( 2 ) + " passed, " + this.getRejected( 2 ) + " rejected";
+    }
+}
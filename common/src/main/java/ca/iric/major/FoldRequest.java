@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+/** -------------------------------------------
+      FoldRequest
+        describes one fold to a FoldingEngine, independently of the backend:
+          DUPLEX    strand + Duplex.LOOP + antiStrand, mcff -s ... [-m|-um mask] -t e -alt
+          ENSEMBLE  single strand, all states, mcff -s ... -ns [-m mask] -t e [flexibility]
+          MIRISC    target and guide, mcff -s target -sd guide -m mask -e e -v -alt
+        The mask is kept unquoted; quoting is the business of the engines that
+        run a command line. The response of a fold is a FoldResult.
+
+        A request may limit the number of states it needs (maxStates, counting
+        only the states of a given abstract shape when shape is set), so that the
+        engines can stop the fold as soon as they have them. A DUPLEX request
+        without alternatives needs the first (MFE) state only.
+*/
+
+public final class FoldRequest {
+
+    public enum Mode { DUPLEX, ENSEMBLE, MIRISC }
+
+    private static final boolean WINDOWS = System.getProperty( "os.name" ).toLowerCase().contains( "win" );
+
+    private final Mode mode;
+    private final String strand; // strand, single strand or target
+    private final String antiStrand; // anti strand or guide, empty for ENSEMBLE
+    private final String mask; // unquoted, may be empty
+    private final double threshold; // -t or -e value
+    private final boolean unbalancedMask; // DUPLEX: -um instead of -m
+    private final boolean alternatives; // DUPLEX: keep all the -alt states, otherwise the first one only
+    private final String flexibility; // ENSEMBLE: flexibility options in Nr format, may be empty
+    private final int maxStates; // number of states needed, 0 for all
+    private final String shape; // abstract shape of the states counted by maxStates, empty for any
+
+    private FoldRequest( Mode mode, String strand, String antiStrand, String mask, double threshold, boolean unbalancedMask, boolean alternatives, String flexibility ) {
+        this( mode, strand, antiStrand, mask, threshold, unbalancedMask, alternatives, flexibility, 0, "" );
+    }
+
+    private FoldRequest( Mode mode, String strand, String antiStrand, String mask, double threshold, boolean unbalancedMask, boolean alternatives, String flexibility, int maxStates, String shape ) {
+        this.mode = mode;
+        this.strand = strand;
+        this.antiStrand = antiStrand;
+        this.mask = unquote( mask == null ? "" : mask );
+        this.threshold = threshold;
+        this.unbalancedMask = unbalancedMask;
+        this.alternatives = alternatives;
+        this.flexibility = flexibility == null ? "" : flexibility;
+        this.maxStates = ( mode == Mode.DUPLEX && !alternatives ) ? 1 : Math.max( 0, maxStates );
+        this.shape = shape == null ? "" : shape;
+    }
+
+    public static FoldRequest duplex( String strand, String antiStrand, String mask, int t, boolean unbalancedMask, boolean alternatives ) {
+        return new FoldRequest( Mode.DUPLEX, strand, antiStrand, mask, t, unbalancedMask, alternatives, "" );
+    }
+
+    public static FoldRequest ensemble( String strand, String mask, double t, String flexibility ) {
+        return new FoldRequest( Mode.ENSEMBLE, strand, "", mask, t, false, true, flexibility );
+    }
+
+    public static FoldRequest mirisc( String target, String guide, String mask, int e ) {
+        return new FoldRequest( Mode.MIRISC, target, guide, mask, e, false, true, "" );
+    }
+
+    // getters
+
+    public Mode    getMode()          { return this.mode; }
+    public String  getStrand()        { return this.strand; }
+    public String  getAntiStrand()    { return this.antiStrand; }
+    public String  getMask()          { return this.mask; }
+    public double  getThreshold()     { return this.threshold; }
+    public boolean isUnbalancedMask() { return this.unbalancedMask; }
+    public boolean hasAlternatives()  { return this.alternatives; }
+    public String  getFlexibility()   { return this.flexibility; }
+    public int     getMaxStates()     { return this.maxStates; }
+    public String  getShape()         { return this.shape; }
+
+    // return the same request at another threshold
+    public FoldRequest withThreshold( double threshold ) {
+        return new FoldRequest( this.mode, this.strand, this.antiStrand, this.mask, threshold, this.unbalancedMask, this.alternatives, this.flexibility, this.maxStates, this.shape );
+    }
+
+    // return the same request needing maxStates states (of the given abstract shape if not empty)
+    public FoldRequest withMaxStates( int maxStates, String shape ) {
+        return new FoldRequest( this.mode, this.strand, this.antiStrand, this.mask, this.threshold, this.unbalancedMask, this.alternatives, this.flexibility, maxStates, shape );
+    }
+
+    public static String unquote( String mask ) {
+        if( mask.length() >= 2 && ( mask.charAt( 0 ) == '\'' || mask.charAt( 0 ) == '"' ) ) return mask.substring( 1, mask.length() - 1 );
+        return mask;
+    }
+
+    private String quotedMask() {
+        return WINDOWS ? "\"" + this.mask + "\"" : "'" + this.mask + "'";
+    }
+
+    // the mcff command line of this request
+    public String commandLine() {
+        switch( this.mode ) {
+        case DUPLEX:
+            return "mcff -s " + this.strand + Duplex.LOOP + this.antiStrand +
+                ( this.mask.isEmpty() ? "" : ( this.unbalancedMask ? " -um " : " -m " ) + this.quotedMask() ) +
+                " -t " + (int)this.threshold + " -alt";
+        case ENSEMBLE:
+            return "mcff -s " + this.strand + " -ns " +
+                ( this.mask.isEmpty() ? "" : " -m " + this.quotedMask() ) +
+                " -t " + this.threshold + this.flexibility;
+        default:
+            return "mcff -s " + this.strand + " -sd " + this.antiStrand + " -m " + this.quotedMask() +
+                " -e " + (int)this.threshold + " -v -alt 2> /dev/null";
+        }
+    }
+
+    // content address of the request, used by the caches
+    public String key() {
+        return this.mode + "|" + this.strand + "|" + this.antiStrand + "|" + this.mask + "|" + this.threshold + "|" +
+            this.unbalancedMask + "|" + this.alternatives + "|" + this.flexibility + "|" + this.maxStates + "|" + this.shape;
+    }
+
+    @Override
+    public String toString() { return this.commandLine(); }
+}
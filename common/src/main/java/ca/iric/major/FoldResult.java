@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+/** -------------------------------------------
+      FoldResult
+        is the parsed outcome of a fold: the dot-brackets and their energies
+        as returned by mcff, and the -t/-e value at which they were obtained.
+        Instances are immutable; they are shared by the fold caches.
+*/
+
+public final class FoldResult {
+
+    private final String[] states; // dot-brackets
+    private final double[] energies; // mcff energies, same order as states
+    private final double e; // threshold used to obtain the states
+
+    public FoldResult( String[] states, double[] energies, double e ) {
+        if( states.length != energies.length )
+            throw new IllegalArgumentException( "FoldResult needs one energy per state: " + states.length + " states, " + energies.length + " energies" );
+        this.states = states;
+        this.energies = energies;
+        this.e = e;
+    }
+
+    public int    size()                 { return this.states.length; }
+    public String getState( int i )      { return this.states[i]; }
+    public double getEnergy( int i )     { return this.energies[i]; }
+    public double getE()                 { return this.e; }
+
+    // approximate memory footprint in bytes, used by the size-aware caches
+    public long weight() {
+        long weight = 48 + 8L * this.energies.length; // object headers, arrays and energies
+        for( String s : this.states ) weight += 40 + s.length(); // compact Latin-1 strings
+        return weight;
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.codec.digest.MurmurHash3;
+
+/** -------------------------------------------
+      FoldStore
+        is a persistent, append-only store of fold results shared across runs.
+        Records are keyed by a 64-bit hash of the fold inputs (the FoldCache key:
+        fold type, sequences, mask, threshold and mode); the full key is stored
+        with the record so that hash collisions are detected.
+
+        Record layout (big-endian):
+          int    length of the rest of the record (written last, 0 while incomplete)
+          long   hash of the key
+          int    key length, key bytes (UTF-8)
+          double e
+          int    number of states, then for each: int length, dotb bytes, double energy
+
+        Appends are serialized within the JVM by synchronization and across
+        processes by an exclusive FileLock. The length of a record is written
+        after its body, so concurrent readers never see a partial record. An
+        append only writes: the records appended by other processes are indexed
+        from their headers, and the index is updated at once, but the mapping is
+        not extended. Reads are lock-free, through a read-only mapping of the
+        file (a volatile snapshot) and a concurrent index; the file is mapped
+        again only when a read needs a record beyond the mapping, and scanned
+        again only when a read misses while the file has grown. compact()
+        rewrites the live records in a temporary file that atomically replaces
+        the store; run it when nothing else is using the store, in this run or
+        others (ex: java ca.iric.major.common.FoldStore <path> compact).
+
+        The shared store is enabled by setting $FOLD_STORE to the store path.
+*/
+
+public class FoldStore {
+
+    private static final String ENV_VAR_NAME = "FOLD_STORE";
+    private static final long MAGIC = 0x524e58464f4c4431L; // RNXFOLD1
+    private static final int HEADER = 8;
+    private static FoldStore instance = null;
+    private static boolean initialized = false;
+
+    // return the shared store, null if $FOLD_STORE is not set or the store cannot be opened
+    public static synchronized FoldStore getInstance() {
+        if( !initialized ) {
+            initialized = true;
+            String path = System.getenv( ENV_VAR_NAME );
+            if( path != null && !path.isBlank() ) {
+                try {
+                    instance = new FoldStore( Paths.get( path.trim() ) );
+                    Runtime.getRuntime().addShutdownHook( new Thread( instance::close ) );
+                } catch( IOException e ) {
+                    System.err.println( "FoldStore: cannot open " + path + ", running without store (" + e.getMessage() + ")" );
+                }
+            }
+        }
+        return instance;
+    }
+
+    // a read-only mapping of [0, end)
+    private record View( MappedByteBuffer mapped, long end ) {}
+
+    private final Path path;
+    private volatile FileChannel channel;
+    private volatile View view; // lock-free reads
+    private volatile long scanned; // end of the last complete record indexed, written under the monitor
+    private final Map<Long,Long> index = new ConcurrentHashMap<>(); // key hash -> record offset (latest wins)
+
+    public FoldStore( Path path ) throws IOException {
+        this.path = path;
+        this.open();
+    }
+
+    public Path getPath() { return this.path; }
+
+    public int size() { return this.index.size(); }
+
+    private synchronized void open() throws IOException {
+        this.channel = FileChannel.open( this.path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+        FileLock lock = this.channel.lock();
+        try {
+            if( this.channel.size() == 0 ) {
+                ByteBuffer header = ByteBuffer.allocate( HEADER ).putLong( MAGIC );
+                header.flip();
+                this.channel.write( header, 0 );
+            }
+        } finally {
+            lock.release();
+        }
+        ByteBuffer header = ByteBuffer.allocate( HEADER );
+        this.channel.read( header, 0 );
+        header.flip();
+        if( header.remaining() < HEADER || header.getLong() != MAGIC ) throw new IOException( this.path + " is not a fold store" );
+        this.index.clear();
+        this.scanned = HEADER;
+        this.view = new View( null, 0 );
+        this.scan();
+        this.remap();
+    }
+
+    // index the records appended since the last scan (by another process), reading their headers only;
+    //   stop at the first incomplete record
+    private synchronized void scan() throws IOException {
+        long size = this.channel.size();
+        long offset = this.scanned;
+        ByteBuffer header = ByteBuffer.allocate( 12 ); // length and hash
+        while( offset + header.capacity() <= size ) {
+            header.clear();
+            while( header.hasRemaining() && this.channel.read( header, offset + header.position() ) > 0 );
+            if( header.hasRemaining() ) break;
+            int length = header.getInt( 0 );
+            if( length <= 0 || offset + 4 + length > size ) break; // incomplete record: stop here
+            this.index.put( header.getLong( 4 ), offset );
+            offset += 4 + length;
+        }
+        this.scanned = offset;
+    }
+
+    // map [0, scanned) again; return the new view
+    private synchronized View remap() throws IOException {
+        View current = this.view;
+        if( current.end >= this.scanned ) return current;
+        if( this.scanned > Integer.MAX_VALUE ) throw new IOException( this.path + " is larger than 2GB, compact or split the store" );
+        View remapped = new View( this.channel.map( FileChannel.MapMode.READ_ONLY, 0, this.scanned ), this.scanned );
+        this.view = remapped;
+        return remapped;
+    }
+
+    public static long hash( String key ) {
+        return MurmurHash3.hash128x64( key.getBytes( StandardCharsets.UTF_8 ) )[0];
+    }
+
+    // return the stored result for key or null; lock-free unless the file must be scanned or mapped again
+    public FoldResult get( String key ) {
+        try {
+            long h = hash( key );
+            Long offset = this.index.get( h );
+            if( offset == null ) {
+                if( this.channel.size() <= this.scanned ) return null;
+                this.scan(); // appended by another run?
+                offset = this.index.get( h );
+                if( offset == null ) return null;
+            }
+            View view = this.view;
+            if( offset >= view.end() ) view = this.remap(); // appended since the last mapping
+            return read( view.mapped(), offset, key );
+        } catch( IOException e ) {
+            System.err.println( "FoldStore: cannot read " + this.path + " (" + e.getMessage() + ")" );
+            return null;
+        }
+    }
+
+    // decode the record at offset; null if it belongs to another key (hash collision)
+    private static FoldResult read( MappedByteBuffer mapped, long offset, String key ) {
+        ByteBuffer record = mapped.duplicate();
+        record.position( (int)offset + 12 ); // skip length and hash
+        byte[] keyBytes = new byte[record.getInt()];
+        record.get( keyBytes );
+        if( !key.equals( new String( keyBytes, StandardCharsets.UTF_8 ) ) ) return null;
+        double e = record.getDouble();
+        int n = record.getInt();
+        String[] states = new String[n];
+        double[] energies = new double[n];
+        for( int i = 0; i < n; i++ ) {
+            byte[] state = new byte[record.getInt()];
+            record.get( state );
+            states[i] = new String( state, StandardCharsets.US_ASCII );
+            energies[i] = record.getDouble();
+        }
+        return new FoldResult( states, energies, e );
+    }
+
+    private static ByteBuffer encode( String key, FoldResult result ) {
+        byte[] keyBytes = key.getBytes( StandardCharsets.UTF_8 );
+        int length = 8 + 4 + keyBytes.length + 8 + 4;
+        for( int i = 0; i < result.size(); i++ ) length += 4 + result.getState( i ).length() + 8;
+        ByteBuffer record = ByteBuffer.allocate( 4 + length );
+        record.putInt( 0 ); // length is written once the body is on disk
+        record.putLong( hash( key ) );
+        record.putInt( keyBytes.length ).put( keyBytes );
+        record.putDouble( result.getE() );
+        record.putInt( result.size() );
+        for( int i = 0; i < result.size(); i++ ) {
+            byte[] state = result.getState( i ).getBytes( StandardCharsets.US_ASCII );
+            record.putInt( state.length ).put( state ).putDouble( result.getEnergy( i ) );
+        }
+        record.flip();
+        return record;
+    }
+
+    // append the result of key
+    public synchronized void put( String key, FoldResult result ) {
+        try {
+            ByteBuffer record = encode( key, result );
+            int length = record.remaining() - 4;
+            FileLock lock = this.channel.lock();
+            try {
+                this.scan(); // index what other runs appended
+                // holding the lock, an incomplete tail can only be left by a writer that died: drop it
+                if( this.channel.size() > this.scanned ) this.channel.truncate( this.scanned );
+                long offset = this.scanned;
+                while( record.hasRemaining() ) this.channel.write( record, offset + record.position() );
+                ByteBuffer len = ByteBuffer.allocate( 4 ).putInt( length );
+                len.flip();
+                this.channel.write( len, offset ); // publish the record
+                this.index.put( hash( key ), offset ); // mapped when read
+                this.scanned = offset + 4 + length;
+            } finally {
+                lock.release();
+            }
+        } catch( IOException e ) {
+            System.err.println( "FoldStore: cannot write " + this.path + " (" + e.getMessage() + ")" );
+        }
+    }
+
+    // rewrite the store with only the latest record of each key
+    public synchronized void compact() throws IOException {
+        this.scan();
+        View view = this.remap();
+        Path tmp = this.path.resolveSibling( this.path.getFileName() + ".compact" );
+        FileLock lock = this.channel.lock();
+        try( FileChannel out = FileChannel.open( tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE ) ) {
+            ByteBuffer header = ByteBuffer.allocate( HEADER ).putLong( MAGIC );
+            header.flip();
+            out.write( header );
+            Map<Long,Long> live = new TreeMap<>();
+            for( Map.Entry<Long,Long> entry : this.index.entrySet() ) live.put( entry.getValue(), entry.getKey() ); // in file order
+            for( long offset : live.keySet() ) {
+                int length = view.mapped().getInt( (int)offset );
+                ByteBuffer record = view.mapped().duplicate();
+                record.position( (int)offset ).limit( (int)offset + 4 + length );
+                while( record.hasRemaining() ) out.write( record );
+            }
+            out.force( true );
+            Files.move( tmp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        } finally {
+            lock.release();
+        }
+        this.channel.close();
+        this.open();
+    }
+
+    public synchronized void close() {
+        try {
+            if( this.channel.isOpen() ) this.channel.close();
+        } catch( IOException e ) {
+            // nothing to save, every record is written when put
+        }
+    }
+
+    public static void main( String[] args ) throws IOException {
+        if( args.length != 2 || !args[1].equals( "compact" ) ) Utils.stop( "usage: FoldStore <path> compact", 1 );
+        FoldStore store = new FoldStore( Paths.get( args[0] ) );
+        long before = Files.size( store.getPath() );
+        store.compact();
+        System.out.println( store.size() + " fold results, " + before + " -> " + Files.size( store.getPath() ) + " bytes" );
+        store.close();
+    }
+}
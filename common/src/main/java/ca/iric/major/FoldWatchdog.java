@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import java.io.IOException;
+
+/** -------------------------------------------
+      FoldWatchdog
+        bounds the time spent in mcff, so that one pathological sequence does
+        not stall a design:
+          deadline    each mcff run is watched; past its deadline, the process
+                      and its children are killed (a pool worker is replaced)
+                      and the run throws a FoldException
+          retries     a timed-out fold is retried with a doubled deadline, at
+                      most $FOLD_RETRIES times (default 1)
+          quarantine  a sequence whose folds gave up $FOLD_QUARANTINE times
+                      (default 2, a single give-up may be a loaded machine) is
+                      quarantined, and logged: its next folds, single or
+                      batched, throw at once, so the threshold ladders above a
+                      slow level end quickly
+
+        The deadline is $FOLD_TIMEOUT seconds per fold (default 120);
+        FOLD_TIMEOUT=0 disables the watchdog. Sequences are keyed by the
+        strands of the requests, whatever the threshold.
+*/
+
+public class FoldWatchdog {
+
+    private static final String TIMEOUT_VAR_NAME = "FOLD_TIMEOUT";
+    private static final String RETRIES_VAR_NAME = "FOLD_RETRIES";
+    private static final String QUARANTINE_VAR_NAME = "FOLD_QUARANTINE";
+    private static final int DEFAULT_TIMEOUT = 120; // seconds
+    private static final int DEFAULT_RETRIES = 1;
+    private static final int DEFAULT_QUARANTINE = 2;
+    private static FoldWatchdog instance = null;
+
+    public static synchronized FoldWatchdog getInstance() {
+        if( instance == null ) {
+            int timeout = DEFAULT_TIMEOUT;
+            int retries = DEFAULT_RETRIES;
+            int quarantine = DEFAULT_QUARANTINE;
+            String envTimeout = System.getenv( TIMEOUT_VAR_NAME );
+            if( Utils.isValidInt( envTimeout ) ) timeout = Math.max( 0, Integer.parseInt( envTimeout.trim() ) );
+            String envRetries = System.getenv( RETRIES_VAR_NAME );
+            if( Utils.isValidInt( envRetries ) ) retries = Math.max( 0, Integer.parseInt( envRetries.trim() ) );
+            String envQuarantine = System.getenv( QUARANTINE_VAR_NAME );
+            if( Utils.isValidInt( envQuarantine ) ) quarantine = Math.max( 1, Integer.parseInt( envQuarantine.trim() ) );
+            instance = new FoldWatchdog( 1000L * timeout, retries, quarantine );
+        }
+        return instance;
+    }
+
+    // one attempt of a fold, run within timeoutMillis (0: no deadline)
+    @FunctionalInterface
+    public interface Attempt {
+        FoldResult fold( long timeoutMillis ) throws IOException, InterruptedException;
+    }
+
+    /** -------------------------------------------
+          Deadline
+            of one watched process; close() when the run is over.
+    */
+
+    public static final class Deadline implements AutoCloseable {
+
+        private final ScheduledFuture<?> kill;
+        private volatile boolean expired = false;
+
+        private Deadline( ScheduledExecutorService killer, Process process, long timeoutMillis ) {
+            this.kill = timeoutMillis <= 0 ? null : killer.schedule( () -> {
+                    this.expired = true;
+                    process.descendants().forEach( ProcessHandle::destroyForcibly );
+                    process.destroyForcibly();
+                }, timeoutMillis, TimeUnit.MILLISECONDS );
+        }
+
+        // true if the process was killed by the watchdog
+        public boolean isExpired() { return this.expired; }
+
+        @Override
+        public void close() {
+            if( this.kill != null ) this.kill.cancel( false );
+        }
+    }
+
+    private final long timeoutMillis;
+    private final int retries;
+    private final int quarantineAfter;
+    private final ScheduledExecutorService killer;
+    private final Map<String,Integer> strikes = new ConcurrentHashMap<>(); // sequence -> folds given up
+    private final AtomicLong timeouts = new AtomicLong( 0 ); // mcff runs killed
+    private final AtomicLong retried = new AtomicLong( 0 ); // attempts after a timeout
+    private final AtomicLong givenUp = new AtomicLong( 0 ); // folds that timed out on all their attempts
+    private final AtomicLong refused = new AtomicLong( 0 ); // folds of quarantined sequences
+
+    public FoldWatchdog( long timeoutMillis, int retries, int quarantineAfter ) {
+        this.timeoutMillis = timeoutMillis;
+        this.retries = retries;
+        this.quarantineAfter = quarantineAfter;
+        this.killer = Executors.newSingleThreadScheduledExecutor( r -> {
+                Thread t = new Thread( r, "fold-watchdog" );
+                t.setDaemon( true );
+                return t;
+            } );
+    }
+
+    // getters
+
+    public boolean isEnabled()        { return this.timeoutMillis > 0; }
+    public long    getTimeoutMillis() { return this.timeoutMillis; }
+    public long    getTimeouts()      { return this.timeouts.get(); }
+    public long    getRetried()       { return this.retried.get(); }
+    public long    getGivenUp()       { return this.givenUp.get(); }
+    public long    getRefused()       { return this.refused.get(); }
+
+    public int getQuarantined() {
+        return (int)this.strikes.values().stream().filter( n -> n >= this.quarantineAfter ).count();
+    }
+
+    public boolean isQuarantined( FoldRequest request ) {
+        Integer n = this.strikes.get( sequenceKey( request ) );
+        return n != null && n >= this.quarantineAfter;
+    }
+
+    // watch process: kill it past timeoutMillis (0: never)
+    public Deadline watch( Process process, long timeoutMillis ) {
+        return new Deadline( this.killer, process, timeoutMillis );
+    }
+
+    // throw the FoldException of a quarantined request, before it is folded (ex: in a batch)
+    public void refuseQuarantined( FoldRequest request ) {
+        if( !this.isEnabled() || !this.isQuarantined( request ) ) return;
+        this.refused.incrementAndGet();
+        throw new FoldException( "quarantined sequence, not folded: " + request.commandLine(), request, true );
+    }
+
+    // run the attempts of the fold of request: retried on timeout with a doubled deadline, within the retry budget
+    public FoldResult fold( FoldRequest request, Attempt attempt ) throws IOException, InterruptedException {
+        if( !this.isEnabled() ) return attempt.fold( 0 );
+        String sequence = sequenceKey( request );
+        this.refuseQuarantined( request );
+        long timeout = this.timeoutMillis;
+        for( int k = 0; ; k++ ) {
+            try {
+                return attempt.fold( timeout );
+            } catch( FoldException e ) {
+                this.timeouts.incrementAndGet();
+                if( k == this.retries ) break;
+                this.retried.incrementAndGet();
+                timeout *= 2;
+            }
+        }
+        this.givenUp.incrementAndGet();
+        int n = this.strikes.merge( sequence, 1, Integer::sum );
+        System.err.println( "FoldWatchdog: fold given up after " + ( this.retries + 1 ) + " timeouts: " + request.commandLine() );
+        if( n == this.quarantineAfter )
+            System.err.println( "FoldWatchdog: sequence quarantined after " + n + " folds given up, its next folds are refused: " + sequence );
+        throw new FoldException( "fold timed out " + ( this.retries + 1 ) + " times: " + request.commandLine(), request, n >= this.quarantineAfter );
+    }
+
+    private static String sequenceKey( FoldRequest request ) {
+        return request.getMode() + "|" + request.getStrand() + "|" + request.getAntiStrand();
+    }
+
+    @Override
+    public String toString() {
+        if( !this.isEnabled() ) return "fold watchdog: disabled";
+        return "fold watchdog (" + this.timeoutMillis / 1000 + " s): " + this.getTimeouts() + " mcff runs killed, " + this.getRetried() + " retries, " +
+            this.getGivenUp() + " folds given up, " + this.getQuarantined() + " sequences quarantined, " + this.getRefused() + " folds refused";
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.List;
+import java.util.ArrayList;
+
+import java.io.IOException;
+
+/** -------------------------------------------
+      FoldingEngine
+        is the backend used by Duplex, SecondaryStructure and MiRISCDuplex to fold.
+        An engine answers a FoldRequest with the states and energies found at the
+        requested threshold, in mcff order; an empty FoldResult means no state was
+        found (the callers then escalate the threshold).
+
+        The engine in use is given by FoldingEngines.get(). Additional engines can
+        be provided through ServiceLoader (META-INF/services/ca.iric.major.common.FoldingEngine)
+        and selected by name with $FOLDING_ENGINE.
+*/
+
+public interface FoldingEngine {
+
+    // name used to select the engine and to separate the cached results of different engines
+    String getName();
+
+    FoldResult fold( FoldRequest request ) throws IOException, InterruptedException;
+
+    // fold a batch of requests, results in the order of the requests;
+    //   engines override it when they can amortize the per-fold overhead
+    default List<FoldResult> foldAll( List<FoldRequest> requests ) throws IOException, InterruptedException {
+        List<FoldResult> results = new ArrayList<>( requests.size() );
+        for( FoldRequest request : requests ) results.add( this.fold( request ) );
+        return results;
+    }
+}
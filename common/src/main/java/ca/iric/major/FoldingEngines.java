@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.ServiceLoader;
+
+/** -------------------------------------------
+      FoldingEngines
+        selects the FoldingEngine from $FOLDING_ENGINE:
+          pooled  mcff on long-lived workers (default)
+          mcff    mcff, one process per fold
+          other   the ServiceLoader provided engine with that name
+        The engine is wrapped by the FoldCache unless caching is disabled.
+*/
+
+public class FoldingEngines {
+
+    private static final String ENV_VAR_NAME = "FOLDING_ENGINE";
+    private static FoldingEngine instance = null;
+
+    public static synchronized FoldingEngine get() {
+        if( instance == null ) {
+            String name = System.getenv( ENV_VAR_NAME );
+            if( name == null || name.isBlank() ) name = "pooled";
+            FoldingEngine engine = byName( name.trim() );
+            if( engine == null ) Utils.stop( "Unknown folding engine: " + name, 1 );
+            if( FoldCache.getInstance().isEnabled() ) engine = new CachedFoldingEngine( engine, FoldCache.getInstance() );
+            instance = engine;
+        }
+        return instance;
+    }
+
+    // install an engine programmatically (ex: a test harness or an embedding application)
+    public static synchronized void set( FoldingEngine engine ) { instance = engine; }
+
+    public static FoldingEngine byName( String name ) {
+        switch( name.toLowerCase() ) {
+        case "pooled": return new PooledFoldingEngine();
+        case "mcff":   return new ExternalFoldingEngine();
+        default:
+            for( FoldingEngine engine : ServiceLoader.load( FoldingEngine.class ) )
+                if( engine.getName().equalsIgnoreCase( name ) ) return engine;
+            return null;
+        }
+    }
+}
@@ -14,11 +14,16 @@ package ca.iric.major.common;
 */
 
 import java.lang.IllegalArgumentException;
+import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -40,6 +45,9 @@ public class Guide implements Comparable<Guide> {
     public static final int G16 = 15; // g16 index
     public static final int G17 = 16; // g17 index
 
+    private static final int BIPARTITE_FRONTIER = 22; // t23 (one further than the nt facing g8)
+    private static final int MAX_BRIDGE_END = 5; // start of chamber 2 when searching the bridge's end
+
     public static final Set<String> surrounded = Set.of( "((", "({", "{(", " (", "( " );
  
     private class Triplet {
@@ -197,6 +205,8 @@ public class Guide implements Comparable<Guide> {
     private Duplex suppDuplex;                  // miniduplex from supp initiation site
     private Duplex duplex;                      // duplex for this guide on target
     private boolean folded = false;             // folded status
+    private int foldStage = 0;                  // last fold stage done: 0 none, 1 seed, 2 supp, 3 full
+    private int bridgeEnd;                      // bridge's end in the MRE, determined by the seed stage
     private boolean hasSupp;                    // whether we have a grip for the supp or not - affect fold()
     private boolean earlyTargetBulge = false;   // there is a bulge in the target between g1 and g2
     private boolean hasMoreThanOneSeedBulge = false;
@@ -747,8 +757,7 @@ public class Guide implements Comparable<Guide> {
 	    for( int i = gFirstAdjusted; i <= gLastAdjusted; i++ ) {
 		if( i < gLastAdjusted ) { // check for bulge first
 		    // check for a bulge in target
-		    String bulge = this.duplex.bulgeOfAdjacentPaired( i, i+1 );
-		    if( bulge.length() > 0 ) { // there is a singel-nt bulge (no other possibilities)
+		    if( this.duplex.bulgeLengthOfAdjacentPaired( i, i+1 ) > 0 ) { // there is a singel-nt bulge (no other possibilities)
 			bulgeInTarget = true;
 			postfix += "b" + "(" + (i+1) + "." + (i+2) + ")"; // bulge
 			sitePostfix += "b" + this.MRE.charAt( this.duplex.getBasePairPartner( i ) - 1 ) + "(" + (i+1) + "." + (i+3) + ")";
@@ -816,8 +825,7 @@ public class Guide implements Comparable<Guide> {
 		else if( this.duplex.isGU( i ) ) postfix += "w" + (i+1); // wobble
 		// check for a bulge in target
 		if( i < this.supplementary.getGLast() ) {
-		    String bulge = this.duplex.bulgeOfAdjacentPaired( i, i+1 );
-		    if( bulge.length() > 0 ) // there is a bulge
+		    if( this.duplex.bulgeLengthOfAdjacentPaired( i, i+1 ) > 0 ) // there is a bulge
 			postfix += "b" + "(" + (i+1) + "." + (i+2) + ")"; // bulge
 		}
 	    }
@@ -832,99 +840,294 @@ public class Guide implements Comparable<Guide> {
 	    this.Kd /= ( 0.25 * -this.seedDuplex.getFreeEnergy() + 0.75 * -this.suppDuplex.getFreeEnergy() );
     }
 
+    // Guide folding runs in three stages, each one depending on the previous one:
+    //   1. seed: tight seed folding and, without supp grip, the search of the bridge's end
+    //   2. supp: tight supp folding
+    //   3. full: folding of the full duplex constrained by the seed and supp folds
+    // The xxxFoldRequests() return the first fold requests of a stage (after the previous
+    // stages are folded), so that GuideMap can submit them in batches before folding the stage.
+    // The tight seed fold does not depend on the supp folds (bridge's end and tight supp): foldAsync()
+    // runs the two in parallel, and the full fold after both.
+
+    // the sub-folds wait on the fold engine: a bounded pool of platform threads, as many as the mcff workers
+    //   (more would only queue on the workers); created on the first fold (holder class), sized by the engine
+    //   selected then: the mcff workers are only started if the engine runs on them, other engines get as many
+    //   threads as cores
+    private static class SubFolds {
+	static final ExecutorService executor = Executors.newFixedThreadPool( threads(), r -> {
+		Thread t = new Thread( r, "guide-sub-fold" );
+		t.setDaemon( true );
+		return t;
+	    } );
+
+	private static int threads() {
+	    FoldingEngine engine = FoldingEngines.get();
+	    if( engine instanceof CachedFoldingEngine cached ) engine = cached.getEngine();
+	    int workers = engine instanceof PooledFoldingEngine ? McffWorkerPool.getInstance().getSize() : 0;
+	    return workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+	}
+    }
+
     public void fold() {
-	if( !this.folded ) {
-	    if( this.CT != null )
-		this.MRE = this.CT.getSequence().getSequence( this.t1, this.tlast+1 );
-	    // fold the bipartite guide
-
-	    // A1 and nucleotide at t1
-	    this.A1 = this.MRE.charAt( this.MRE.length() - 1 ) == 'A'; // nucleotide at tlast is A?
-	    this.t1Nucleotide = this.MRE.charAt( this.MRE.length() - 1 ); // nucleotide at t1
-
-	    // make the guide sections
-	    String seed = this.sequence.substring( 0, 8 ); // g2-g8 (indexed 1 to 7; include g1 for folding)
-	    String boxA = this.sequence.substring( 8, 11 ); // g9-g11 (indexed 8 to 10)
-	    String supp = this.sequence.substring( 12, 17 ); // g13-g17 (indexed 12 to 16)
-	    String boxD = this.sequence.substring( 17, this.getLength() ); // g18-
-
-	    // tight seed folding
-	    int bipartiteFrontier = 22; // t23 (one further than the nt facing g8)
-	    String part1 = this.MRE.substring( bipartiteFrontier, this.MRE.length() ); // seed pairing potential
-	    String mask1 = "p".repeat( part1.length() - 1 ) + Duplex.LOOPMASK + ")" + "q".repeat( seed.length() - 2 ); // remove g1 and t1
-	    this.seedDuplex = new Duplex( part1.substring( 0, part1.length() - 1 ), seed.substring( 1, seed.length() ), mask1, 2, false, true );
-	    //Utils.debug( this.seedDuplex + "\n seed: " + seed );
-
-	    // determine bridge's end
-	    int bridgeEnd = 30;
-	    if( this.hasSupp ) bridgeEnd = this.g13 - this.t1; // g13 position in 31mer
-	    else {
-		int maxBridgeEnd = 5;
-		String halfPart = this.MRE.substring( maxBridgeEnd, bipartiteFrontier );
-		String halfMask = "p".repeat( halfPart.length() ) + Duplex.LOOPMASK + ")" + "q".repeat( supp.length() - 1 );
-		this.suppDuplex = new Duplex( halfPart, supp, halfMask, 2, false, true ); // fold chamber 2 (unbalanced)
-		//Utils.debug( "suppDuplex:\n" + this.suppDuplex );
-		bridgeEnd = this.suppDuplex.getPartner( 0 ) + maxBridgeEnd;
-		//Utils.debug( "bridgeEnd: " + bridgeEnd );
-	    }
+	try {
+	    this.foldAsync().join();
+	} catch( CompletionException e ) { // rethrow what the sub-fold threw
+	    if( e.getCause() instanceof RuntimeException cause ) throw cause;
+	    if( e.getCause() instanceof Error cause ) throw cause;
+	    throw e;
+	}
+    }
 
-	    // tight supp folding
-	    //Utils.debug( "bridgeEnd: " + bridgeEnd + ", bipartiteFrontier: " + bipartiteFrontier + ", g13: " + ( this.g13 - this.t1 ) );
-	    String part2 = "";
-	    if( this.hasSupp ) part2 = this.MRE.substring( bridgeEnd - supp.length() + 1, bridgeEnd + 1 );
-	    else part2 = this.MRE.substring( bridgeEnd - supp.length(), bridgeEnd + 1 );
-	    String mask2 = "p".repeat( part2.length() ) + Duplex.LOOPMASK + "q".repeat( supp.length() );
-	    this.suppDuplex = new Duplex( part2, supp.substring( 0, supp.length() ), mask2, 2, false, false );
-	    
+    // fold(); false if a fold could not complete (timed out or quarantined, see FoldWatchdog), the guide then stays unfolded
+    public boolean tryFold() {
+	try {
+	    this.fold();
+	} catch( FoldException e ) {
+	    return false;
+	}
+	return this.folded;
+    }
+
+    // fold the guide, the seed and supp sub-folds in parallel; complete with this guide once folded
+    public CompletableFuture<Guide> foldAsync() {
+	if( this.folded ) return CompletableFuture.completedFuture( this );
+	if( this.foldStage >= 1 ) // the seed is folded (staged folding), the rest is sequential
+	    return CompletableFuture.supplyAsync( () -> {
+		    this.foldSupp();
+		    this.foldFull();
+		    return this;
+		}, SubFolds.executor );
+	this.prepareSeed();
+	CompletableFuture<Duplex> seed = CompletableFuture.supplyAsync( () -> new Duplex( this.seedFoldRequest(), "duplex.seed" ), SubFolds.executor );
+	CompletableFuture<Duplex> supp = CompletableFuture.supplyAsync( () -> {
+		this.foldBridge( Map.of() );
+		return new Duplex( this.suppFoldRequest(), "duplex.supp" );
+	    }, SubFolds.executor );
+	return seed.thenCombine( supp, ( seedDuplex, suppDuplex ) -> {
+		this.seedDuplex = seedDuplex;
+		this.suppDuplex = suppDuplex;
+		this.checkParts();
+		this.foldStage = 2;
+		return this;
+	    } ).thenApplyAsync( guide -> {
+		    this.foldFull();
+		    return this;
+		}, SubFolds.executor );
+    }
+
+    // tight seed folding
+    private FoldRequest seedFoldRequest() {
+	String seed = this.sequence.substring( 0, 8 ); // g2-g8 (indexed 1 to 7; include g1 for folding)
+	String part1 = this.MRE.substring( BIPARTITE_FRONTIER, this.MRE.length() ); // seed pairing potential
+	String mask1 = "p".repeat( part1.length() - 1 ) + Duplex.LOOPMASK + ")" + "q".repeat( seed.length() - 2 ); // remove g1 and t1
+	return FoldRequest.duplex( part1.substring( 0, part1.length() - 1 ), seed.substring( 1, seed.length() ), mask1, 2, true, false );
+    }
+
+    // supp folding in chamber 2, only without supp grip, to find the bridge's end
+    private FoldRequest halfSuppFoldRequest() {
+	String supp = this.sequence.substring( 12, 17 ); // g13-g17 (indexed 12 to 16)
+	String halfPart = this.MRE.substring( MAX_BRIDGE_END, BIPARTITE_FRONTIER );
+	String halfMask = "p".repeat( halfPart.length() ) + Duplex.LOOPMASK + ")" + "q".repeat( supp.length() - 1 );
+	return FoldRequest.duplex( halfPart, supp, halfMask, 2, true, false ); // fold chamber 2 (unbalanced)
+    }
+
+    // tight supp folding
+    private FoldRequest suppFoldRequest() {
+	String supp = this.sequence.substring( 12, 17 ); // g13-g17 (indexed 12 to 16)
+	String part2 = "";
+	if( this.hasSupp ) part2 = this.MRE.substring( this.bridgeEnd - supp.length() + 1, this.bridgeEnd + 1 );
+	else part2 = this.MRE.substring( this.bridgeEnd - supp.length(), this.bridgeEnd + 1 );
+	String mask2 = "p".repeat( part2.length() ) + Duplex.LOOPMASK + "q".repeat( supp.length() );
+	return FoldRequest.duplex( part2, supp.substring( 0, supp.length() ), mask2, 2, false, false );
+    }
+
+    // full duplex folding using the parts' folding results as constraints
+    private FoldRequest fullFoldRequest() {
+	// make the masks for bipartite folding
+	String mask3 = "";
+	if( this.hasSupp ) mask3 = "p".repeat( this.bridgeEnd - 4 ); // 4 = 5 - 1, where 5 is the length of the supp region
+	else mask3 = "p".repeat( this.bridgeEnd - 5 ); // 5 is the length of the supp region
+	mask3 +=
+	    this.suppDuplex.getStrandState().replace( '.', 'p' ).replaceAll( "[{<]", "(" ) +  // keep all base pairs from tight supp folding
+	    "p".repeat( BIPARTITE_FRONTIER - this.bridgeEnd - 1 ) + // allow bridge to pair with boxA
+	    this.seedDuplex.getStrandState().replace( '.', 'p' ).replaceAll( "[{<]", "(" ) + // keep all base pairs from tight seed folding
+	    "." + Duplex.LOOPMASK + "." + // . and . are for t1 and g1, respectively, and the LOOPMASK for the loop (needed for cis folding)
+	    this.seedDuplex.getAntiStrandState().replace( '.', 'q' ).replaceAll( "[}>]", ")" ) +
+	    "qqqq" + // allow boxA + g12 to pair
+	    this.suppDuplex.getAntiStrandState().replace( '.', 'q' ).replaceAll( "[}>]", ")" ) +
+	    "q".repeat( this.getLength() - 17 );  // allow boxD to pair
+	return FoldRequest.duplex( this.MRE, this.sequence, mask3, 2, false, false );
+    }
+
+    public List<FoldRequest> seedFoldRequests() {
+	List<FoldRequest> requests = new ArrayList<>();
+	if( this.folded || this.foldStage >= 1 ) return requests;
+	if( this.CT != null )
+	    this.MRE = this.CT.getSequence().getSequence( this.t1, this.tlast+1 );
+	requests.add( this.seedFoldRequest() );
+	if( !this.hasSupp ) requests.add( this.halfSuppFoldRequest() );
+	return requests;
+    }
+
+    public List<FoldRequest> suppFoldRequests() {
+	List<FoldRequest> requests = new ArrayList<>();
+	if( !this.folded && this.foldStage == 1 ) requests.add( this.suppFoldRequest() );
+	return requests;
+    }
+
+    public List<FoldRequest> fullFoldRequests() {
+	List<FoldRequest> requests = new ArrayList<>();
+	if( !this.folded && this.foldStage == 2 ) requests.add( this.fullFoldRequest() );
+	return requests;
+    }
+
+    // stage 1
+    public void foldSeed() {
+	this.foldSeed( Map.of() );
+    }
+
+    // prefetched: the results of seedFoldRequests() folded ahead, by request key (see FoldBatcher.prefetch())
+    public void foldSeed( Map<String,FoldResult> prefetched ) {
+	if( this.folded || this.foldStage >= 1 ) return;
+	this.prepareSeed();
+
+	// tight seed folding
+	this.seedDuplex = new Duplex( this.seedFoldRequest(), "duplex.seed", prefetched );
+	//Utils.debug( this.seedDuplex + "\n seed: " + seed );
+
+	this.foldBridge( prefetched );
+	this.foldStage = 1;
+    }
+
+    private void prepareSeed() {
+	if( this.CT != null )
+	    this.MRE = this.CT.getSequence().getSequence( this.t1, this.tlast+1 );
+	// fold the bipartite guide
+
+	// A1 and nucleotide at t1
+	this.A1 = this.MRE.charAt( this.MRE.length() - 1 ) == 'A'; // nucleotide at tlast is A?
+	this.t1Nucleotide = this.MRE.charAt( this.MRE.length() - 1 ); // nucleotide at t1
+    }
+
+    // determine bridge's end, folding chamber 2 without supp grip
+    private void foldBridge( Map<String,FoldResult> prefetched ) {
+	this.bridgeEnd = 30;
+	if( this.hasSupp ) this.bridgeEnd = this.g13 - this.t1; // g13 position in 31mer
+	else {
+	    this.suppDuplex = new Duplex( this.halfSuppFoldRequest(), "duplex.supp", prefetched ); // fold chamber 2 (unbalanced)
 	    //Utils.debug( "suppDuplex:\n" + this.suppDuplex );
+	    this.bridgeEnd = this.suppDuplex.getPartner( 0 ) + MAX_BRIDGE_END;
+	    //Utils.debug( "bridgeEnd: " + bridgeEnd );
+	}
+    }
 
-	    if( this.seedDuplex.getStrandState() == null || this.suppDuplex.getStrandState() == null ) { // one of mcff results wrong
-		System.out.println( "something went wrong with folding, suppDuplex or seedDuplex is null!" );
-		System.exit( 0 );
-	    }
+    // stage 2
+    public void foldSupp() {
+	this.foldSupp( Map.of() );
+    }
 
-	    // make the masks for bipartite folding
-
-	    String mask3 = "";
-	    if( this.hasSupp ) mask3 = "p".repeat( bridgeEnd - 4 ); // 4 = 5 - 1, where 5 is the length of the supp region
-	    else mask3 = "p".repeat( bridgeEnd - 5 ); // 5 is the length of the supp region
-	    mask3 +=
-		this.suppDuplex.getStrandState().replace( '.', 'p' ).replaceAll( "[{<]", "(" ) +  // keep all base pairs from tight supp folding
-		"p".repeat( bipartiteFrontier - bridgeEnd - 1 ) + // allow bridge to pair with boxA
-		this.seedDuplex.getStrandState().replace( '.', 'p' ).replaceAll( "[{<]", "(" ) + // keep all base pairs from tight seed folding
-		"." + Duplex.LOOPMASK + "." + // . and . are for t1 and g1, respectively, and the LOOPMASK for the loop (needed for cis folding)
-		this.seedDuplex.getAntiStrandState().replace( '.', 'q' ).replaceAll( "[}>]", ")" ) +
-		"qqqq" + // allow boxA + g12 to pair
-		this.suppDuplex.getAntiStrandState().replace( '.', 'q' ).replaceAll( "[}>]", ")" ) +
-		"q".repeat( this.getLength() - 17 );  // allow boxD to pair
-
-	    // fold full duplex using the parts' folding results as constraints
-	    
-	    // Global folding based on bipartite mask;
-	    this.duplex = new Duplex( this.MRE, this.sequence, mask3, 2, false, false ); // uncomment for bipartite folding
+    public void foldSupp( Map<String,FoldResult> prefetched ) {
+	if( this.folded || this.foldStage != 1 ) return;
+	// tight supp folding
+	//Utils.debug( "bridgeEnd: " + bridgeEnd + ", bipartiteFrontier: " + bipartiteFrontier + ", g13: " + ( this.g13 - this.t1 ) );
+	this.suppDuplex = new Duplex( this.suppFoldRequest(), "duplex.supp", prefetched );
+	//Utils.debug( "suppDuplex:\n" + this.suppDuplex );
 
-	    // Analyze duplex structure, make sure that if there are bulges in the seed and supp they are at most 1 nt long
-	    if( this.duplex == null ) Utils.stop( "in Guide.fold, null duplex: " + this.id + " " + this.sequence, 0 );
+	this.checkParts();
+	this.foldStage = 2;
+    }
 
-	    // check if bulge between g1 and g2
-	    if( this.duplex.getStrandState().charAt( 29 ) == '.' ) { // bulge in the target between g1 and g2
-		this.earlyTargetBulge = true;
-	    }
+    private void checkParts() {
+	if( this.seedDuplex.getStrandState() == null || this.suppDuplex.getStrandState() == null ) { // one of mcff results wrong
+	    System.out.println( "something went wrong with folding, suppDuplex or seedDuplex is null!" );
+	    System.exit( 0 );
+	}
+    }
 
-	    // determine seed and supplementary types of the duplex
-	    this.determineSeedSuppTypes();
+    // stage 3
+    public void foldFull() {
+	this.foldFull( Map.of() );
+    }
 
-	    // adjust the bridge length that may have changed during folding
-	    this.adjustBridgeLength();
+    public void foldFull( Map<String,FoldResult> prefetched ) {
+	if( this.folded || this.foldStage != 2 ) return;
+	// Global folding based on bipartite mask;
+	this.duplex = new Duplex( this.fullFoldRequest(), "duplex.full", prefetched ); // uncomment for bipartite folding
+	this.analyzeDuplex();
+    }
 
-	    // generate pretty print version of the duplex
-	    this.prettyGuidePrint();
-	    //System.out.println( this.toString() ); // stop for debugging
-	    //System.exit( 0 );
+    // the inputs of the fold (MRE, guide, bridge's end given by the supp grip):
+    //   the guides with the same fold key fold the same, see GuideMap.foldAndFilter()
+    public String foldKey() {
+	return this.foldTarget() + "|" + this.sequence + "|" + ( this.hasSupp ? this.g13 - this.t1 : -1 );
+    }
 
-	    // indicate this duplex as folded
-	    this.folded = true;
+    // the MRE to fold, before folding
+    public String foldTarget() {
+	return this.CT != null ? this.CT.getSequence().getSequence( this.t1, this.tlast+1 ) : this.MRE;
+    }
+
+    // after foldSeed(): the tight seed fold pairs a 4mer of g2-g8 in helix, or 6 nts of g2-g8 (see FoldPrefilter)
+    public boolean hasTightSeedGrip() {
+	int last = Guide.G8 - Guide.G2; // the tight seed duplex starts at g2
+	for( int i = 0; i + 3 <= last; i++ )
+	    if( this.seedDuplex.isCanonicallyPairedGU( i, i + 3 ) ) return true;
+	return this.seedDuplex.getNumberOfCanonical( 0, last ) >= 6;
+    }
+
+    // fold as other, a folded guide with the same fold key: share its duplexes, analyze them for this guide
+    public void foldLike( Guide other ) {
+	if( this.folded ) return;
+	if( !other.folded ) throw new IllegalArgumentException( "in Guide.foldLike, guide " + other.id + " is not folded" );
+	this.prepareSeed();
+	this.seedDuplex = other.seedDuplex;
+	this.suppDuplex = other.suppDuplex;
+	this.bridgeEnd = other.bridgeEnd;
+	this.duplex = other.duplex;
+	this.analyzeDuplex();
+    }
+
+    // stage 3, once the duplex is folded
+    private void analyzeDuplex() {
+	// Analyze duplex structure, make sure that if there are bulges in the seed and supp they are at most 1 nt long
+	if( this.duplex == null ) Utils.stop( "in Guide.fold, null duplex: " + this.id + " " + this.sequence, 0 );
+
+	// check if bulge between g1 and g2
+	if( this.duplex.getStrandState().charAt( 29 ) == '.' ) { // bulge in the target between g1 and g2
+	    this.earlyTargetBulge = true;
 	}
+
+	// determine seed and supplementary types of the duplex
+	this.determineSeedSuppTypes();
+
+	// adjust the bridge length that may have changed during folding
+	this.adjustBridgeLength();
+
+	// generate pretty print version of the duplex
+	this.prettyGuidePrint();
+	//System.out.println( this.toString() ); // stop for debugging
+	//System.exit( 0 );
+
+	// indicate this duplex as folded
+	this.folded = true;
+	this.foldStage = 3;
+
+	// seed and supp accessibility from the precomputed profile of the target, if there is a store
+	this.annotateAccessibility( AccessibilityStore.getInstance() );
+    }
+
+    // once folded, the seed (target nts facing g2-g8) and supp (the target of the tight supp fold) accessibility,
+    //   read from the profile of the target in store: no folding; false, the accessibility left as set by the
+    //   callers, if there is no store (see $ACCESSIBILITY_STORE) or the target is not in it
+    public boolean annotateAccessibility( AccessibilityStore store ) {
+	if( store == null || this.CT == null || !this.folded ) return false;
+	AccessibilityStore.Profile profile = store.get( this.CTId );
+	if( profile == null && this.CT instanceof ProteinCodingTranscript pct ) profile = store.get( pct.getGeneId() ); // the ENST of the Gencode header
+	if( profile == null || this.tlast >= profile.length() ) return false;
+	int suppEnd = this.t1 + this.bridgeEnd;
+	this.seedAccessibility = profile.getAccessibility( this.tlast - 7, this.tlast - 1 );
+	this.suppAccessibility = profile.getAccessibility( suppEnd - ( this.hasSupp ? 4 : 5 ), suppEnd ); // as suppFoldRequest()
+	return true;
     }
 
     public boolean hasSameLocation( Guide other ) {
@@ -955,18 +1158,22 @@ public class Guide implements Comparable<Guide> {
 	return this.duplex.getAntiStrandState().substring( 1, 8 ).contains( "))))" ); // 4 consecutive seed nts form canonical bps
     }
     
+    // guide positions (starting at 1) printed in lowercase: g1, g9-g12 and g18-g26
+    private static boolean isLowerCasePosition( int g ) {
+	return g == 1 || ( g >= 9 && g <= 12 ) || ( g >= 18 && g <= 26 );
+    }
+
     private Triplet prettyGuidePrint() {
 	
 	String target = this.duplex.getStrand();
 	String guide = this.duplex.getAntiStrand();
 	String dotbLeft = this.duplex.getStrandState();
 	String dotbRight = this.duplex.getAntiStrandState();
-	String space = " ";
-	String newline = "\n";
+	char space = ' ';
 
-	String alignedTarget = "";
-	String bars = "";
-	String alignedGuide = "";
+	StringBuilder alignedTarget = new StringBuilder( target.length() + guide.length() );
+	StringBuilder bars = new StringBuilder( target.length() + guide.length() );
+	StringBuilder alignedGuide = new StringBuilder( target.length() + guide.length() );
 
 	/*
 	  target: AUAAAACACCCAGCUAGGACCAUUACUGCCA
@@ -993,55 +1200,32 @@ public class Guide implements Comparable<Guide> {
 	// j index in right side (guide)
 	int j = dotbRight.length() - 1;
 	int i = 0;
-	// these positions in lowercase
-	Integer lowerCasePos[] = { 1, 9, 10, 11, 12, 18, 19, 20, 21, 22, 23, 24, 25, 26 }; // guide positions in this list starts at 1.
-	Set<Integer> lowerCasePositions = new HashSet<>( Arrays.asList( lowerCasePos ) );
-	int g = guide.length();
+	int g = guide.length(); // guide position, starting at 1
 	while( i < target.length() - 1 ) { // process all positions but t1
-	    if( dotbLeft.charAt( i ) == '.' ) { // exposed nt in target
-		alignedTarget += Character.toLowerCase( target.charAt( i++ ) );
-		bars += space; // insert space in the bp bar
-		alignedGuide += "-"; // insert - in the guide
+	    char left = dotbLeft.charAt( i );
+	    if( left == DotBracket.UNPAIRED ) { // exposed nt in target
+		alignedTarget.append( Character.toLowerCase( target.charAt( i++ ) ) );
+		bars.append( space ); // insert space in the bp bar
+		alignedGuide.append( '-' ); // insert - in the guide
 	    }
-	    else if( SecondaryStructure.bp5.contains( Character.toString( dotbLeft.charAt( i ) ) ) ) {
-		if( dotbRight.charAt( j ) == '.' ) {
-		    alignedTarget += "-";
-		    bars += space;
-		    if( lowerCasePositions.contains( g ) )
-			alignedGuide += Character.toLowerCase( guide.charAt( j-- ) );
-		    else alignedGuide += guide.charAt( j-- );
-		    g--;
-		}
-		else if( dotbLeft.charAt( i ) == '(' ) {
-		    alignedTarget += Character.toLowerCase( target.charAt( i++ ) );
-		    //if( isNotIsolatedWCPair( dotbLeft, i-1 ) ) bars += "|"; // we have a pair
-		    //else bars += " "; // no show of isolated base pairs
-		    bars += "|"; // we have a pair
-		    if( lowerCasePositions.contains( g ) )
-			alignedGuide += Character.toLowerCase( guide.charAt( j-- ) );
-		    else alignedGuide += guide.charAt( j-- );
-		    g--;
+	    else if( DotBracket.isOpening( left ) ) {
+		if( dotbRight.charAt( j ) == DotBracket.UNPAIRED ) {
+		    alignedTarget.append( '-' );
+		    bars.append( space );
 		}
 		else {
-		    //String pair = "" + target.charAt( i ) + guide.charAt( j );
-		    //if( SecondaryStructure.guBps.contains( pair ) )
-		    if( dotbLeft.charAt( i ) == '{' )
-			//if( isNotIsolatedWobblePair( dotbLeft, i ) ) bars += "!"; // we have a pair
-			//else bars += " "; // no show of isolated base pairs
-			bars += "!"; // we have a Wobble pair
-		    else bars += ":"; // show non-canonical base pairs
-		    //else bars += " "; // show mismatches
-		    alignedTarget += Character.toLowerCase( target.charAt( i++ ) );
-		    if( lowerCasePositions.contains( g ) )
-			alignedGuide += Character.toLowerCase( guide.charAt( j-- ) );
-		    else alignedGuide += guide.charAt( j-- );
-		    g--;
+		    if( left == '(' ) bars.append( '|' ); // we have a pair
+		    else if( left == '{' ) bars.append( '!' ); // we have a Wobble pair
+		    else bars.append( ':' ); // show non-canonical base pairs
+		    alignedTarget.append( Character.toLowerCase( target.charAt( i++ ) ) );
 		}
+		alignedGuide.append( isLowerCasePosition( g ) ? Character.toLowerCase( guide.charAt( j-- ) ) : guide.charAt( j-- ) );
+		g--;
 	    }
 	}
-	this.alignedTarget = alignedTarget + (this.A1 ? target.charAt( target.length() - 1 ) : Character.toLowerCase( target.charAt( target.length() - 1 ) ) ); // add t1
-	this.alignedPairs = bars + " ";
-	this.alignedGuide = alignedGuide + Character.toLowerCase( guide.charAt( 0 ) ); // add g1
+	this.alignedTarget = alignedTarget.append( this.A1 ? target.charAt( target.length() - 1 ) : Character.toLowerCase( target.charAt( target.length() - 1 ) ) ).toString(); // add t1
+	this.alignedPairs = bars.append( space ).toString();
+	this.alignedGuide = alignedGuide.append( Character.toLowerCase( guide.charAt( 0 ) ) ).toString(); // add g1
 	return( new Triplet( this.alignedTarget, this.alignedPairs, this.alignedGuide ) );
     }
 
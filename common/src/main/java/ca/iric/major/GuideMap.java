@@ -27,6 +27,7 @@ import java.util.HashSet;
 import java.util.LinkedHashSet;
 
 import java.util.function.Predicate;
+import java.util.function.Consumer;
 
 import java.util.Arrays;
 import java.util.Collections;
@@ -116,8 +117,8 @@ public class GuideMap {
 			    int g2 = posA + kmerA.length() - 1;
 			    int g12 = posB + kmerB.length();
 			    Guide guide = new Guide( "", "design", pct, "", antisense, g2, g12, kmerA, kmerB, bridgeLen, t1, tlast, true );
-			    guide.fold();
-			    if( filter.test( guide ) ) {
+			    if( FoldPrefilter.getInstance().accept( guide ) ) guide.tryFold(); // no fold for the guides that cannot bind
+			    if( guide.isFolded() && filter.test( guide ) ) {
 				//nbAdded++;
 				targetedTranscripts.add( pct );
 				this.designs.computeIfAbsent( grip, k -> new HashSet<>()).add( antisense );
@@ -165,8 +166,7 @@ public class GuideMap {
 				int g2 = posA + kmerA.length() - 1;
 				int g12 = posB + kmerB.length();
 				Guide guide = new Guide( "", "design", pct, "", antisense, g2, g12, kmerA, kmerB, bridgeLen, t1, tlast, true );
-				guide.fold();
-				if( filter.test( guide ) ) {
+				if( guide.tryFold() && filter.test( guide ) ) {
 				    synchronized( targetedTranscripts ) {
 					targetedTranscripts.add( pct );
 				    }
@@ -211,6 +211,8 @@ public class GuideMap {
     private double gcPercentMax = 0.64;
     private int guideAdded = 0;
     private int guideRemoved = 0;
+    private int foldsShared = 0; // guides folded as another guide with the same fold inputs
+    private static final int MIN_GC_BATCH = 64; // fewer candidates have their GC contents checked one by one
 
     // Constructor
     // Build guides from grips of the required and optional transcripts (gripMap is not empty)
@@ -350,6 +352,13 @@ public class GuideMap {
 		    count++;
 	    }
 	System.out.println( "=> " + this.grips.size() + " grips (" + countDuplexes + " duplexes), " + count + " are unfolded" );
+	System.out.println( "=> " + this.foldsShared + " folds avoided by sharing the fold of a guide with the same fold inputs" );
+	System.out.println( "=> " + FoldPrefilter.getInstance() );
+	System.out.println( "=> " + FoldWatchdog.getInstance() );
+	System.out.println( "=> " + FoldMetrics.getInstance() );
+	System.out.println( "=> " + FoldCache.getInstance() );
+	System.out.println( "=> " + FoldEscalation.getInstance() );
+	System.out.println( "=> " + MotifMemo.getInstance() );
     }
     
     private void addGuide( Guide g ) {
@@ -487,7 +496,7 @@ public class GuideMap {
 	// Process guides in parallel
 	this.guideSet().parallelStream()
 	    .filter(g -> this.targets.contains(g.getCT())) // Consider only guides in targets
-	    .peek(Guide::fold) // Fold the duplex
+	    .peek(Guide::tryFold) // Fold the duplex
 	    .filter(this::checkCondition) // Apply the checkCondition
 	    .forEach(g -> validSequences.add(g.getSequence()));
 
@@ -539,7 +548,7 @@ public class GuideMap {
 
 			boolean foundAtLeastOneMRE = guidesByPCT.get(pct).stream()
 			    .filter(g -> g.getSequence().equals(sequence))
-			    .peek(Guide::fold)  // Fold the duplex
+			    .peek(Guide::tryFold)  // Fold the duplex
 			    .anyMatch(g -> checkCondition(g) && thisSequenceTranscripts.add(pct));
 
 			if (!foundAtLeastOneMRE) {
@@ -575,7 +584,7 @@ public class GuideMap {
 		    Guide g = gIterator.next();
 		    if( g.getSequence().equals( sequence ) ) { // only for the guides of the running sequence
 			// fold the duplex and check binding
-			g.fold();
+			g.tryFold();
 			if( checkCondition( g ) ) {
 			    thisSequenceTranscripts.add( g.getCT() );
 			    foundAtLeastOneMRE = true;
@@ -637,7 +646,8 @@ public class GuideMap {
 			int g2 = posSeed + seedPrefix.length() - 1;
 			int g12 = posSupp + suppPrefix.length();
 			Guide tmpGuide = new Guide( "tmp", "design", excludedTranscript, "", guideRNA, g2, g12, seedPrefix, suppPrefix, bridgeLen, t1, tlast, true );
-			tmpGuide.fold();
+			if( !FoldPrefilter.getInstance().accept( tmpGuide ) ) continue; // cannot bind, no fold
+			tmpGuide.tryFold();
 			if( checkCondition( tmpGuide ) ) return true;
 		    }
 		}
@@ -665,17 +675,8 @@ public class GuideMap {
 
     // accept between 30 and 64%
     private static boolean containsRightGCPercentage( String sirna, double gcMin, double gcMax ) {
-        // Count G and C nucleotides
-        int gcCount = 0;
-        for( char nucleotide : sirna.toCharArray() ) {
-            if( nucleotide == 'G' || nucleotide == 'C' ) {
-                gcCount++;
-            }
-        }
-        // Calculate the percentage of GC content
-	double gcPercentage = gcCount / (double) sirna.length();
-	// Return true if GC content is between gcPercentMin and gcPercentMax, inclusive
-        return  gcPercentage >= gcMin && gcPercentage <= gcMax;
+	// true if GC content is between gcPercentMin and gcPercentMax, inclusive
+	return NucleotideKernels.hasGCFraction( sirna, gcMin, gcMax );
     }
 
     // add guides for an optional transcript
@@ -941,16 +942,64 @@ public class GuideMap {
 	for( Guide g : this.guideSet() ) // counting number of unfolded guides
 	    if( !g.isFolded() ) count++;
 	System.out.print( count + " duplexes... " );
+	// the guides with the same fold inputs (cross-hybridized or extended under other ids) are folded once
+	Map<String,List<Guide>> groups = this.guideSet().stream()
+	    .filter( g -> !g.isFolded() )
+	    .collect( Collectors.groupingBy( Guide::foldKey, LinkedHashMap::new, Collectors.toList() ) );
+	// the groups that cannot bind are not folded (they fail checkCondition)
+	Set<Guide> unbinders = groups.values().parallelStream()
+	    .filter( group -> !FoldPrefilter.getInstance().accept( group.get( 0 ) ) )
+	    .flatMap( List::stream )
+	    .collect( Collectors.toSet() );
+	groups.values().removeIf( group -> unbinders.contains( group.get( 0 ) ) );
+	List<Guide> representatives = groups.values().stream().map( group -> group.get( 0 ) ).collect( Collectors.toList() );
+	System.out.print( representatives.size() + " distinct folds, " + unbinders.size() + " prefiltered... " );
+	this.foldInBatches( representatives );
+	// a fold that times out (see FoldWatchdog) drops its group instead of stopping the design
+	Set<Guide> unfoldable = groups.values().parallelStream()
+	    .filter( group -> !group.get( 0 ).tryFold() )
+	    .flatMap( List::stream )
+	    .collect( Collectors.toSet() );
+	groups.values().removeIf( group -> unfoldable.contains( group.get( 0 ) ) );
+	int shared = groups.values().stream().mapToInt( group -> group.size() - 1 ).sum();
+	groups.values().parallelStream().forEach( group -> {
+		for( int i = 1; i < group.size(); i++ ) group.get( i ).foldLike( group.get( 0 ) );
+	    } );
+	this.foldsShared += shared;
 	Set<Guide> failedGuides = this.guideSet().parallelStream()
-	    .peek( guide -> guide.fold() )
+	    .filter( guide -> !unbinders.contains( guide ) && !unfoldable.contains( guide ) )
+	    .peek( Guide::tryFold )
 	    .filter( guide -> !checkCondition( guide ) )
 	    .collect( Collectors.toSet() );
+	failedGuides.addAll( unbinders );
+	failedGuides.addAll( unfoldable );
 
 	failedGuides.forEach( this::removeGuide );
-	System.out.print( failedGuides.size() + " removed... " );
+	System.out.print( shared + " folds avoided, " + unfoldable.size() + " not folded in time, " + failedGuides.size() + " removed... " );
 	System.out.println( "done in " + ( ( System.currentTimeMillis() - startTime ) / 1000 ) + " seconds" );
     }
 
+    // fold the unfolded guides stage by stage (see Guide.fold()): the requests of a stage
+    //   are folded in batches, then the stage is folded from their results
+    private void foldInBatches( List<Guide> unfolded ) {
+	FoldBatcher batcher = FoldBatcher.getInstance();
+	Map<String,FoldResult> seeds = batcher.prefetch( unfolded.stream().flatMap( g -> g.seedFoldRequests().stream() ).collect( Collectors.toList() ) );
+	unfolded.parallelStream().forEach( g -> foldStage( g, guide -> guide.foldSeed( seeds ) ) );
+	Map<String,FoldResult> supps = batcher.prefetch( unfolded.stream().flatMap( g -> g.suppFoldRequests().stream() ).collect( Collectors.toList() ) );
+	unfolded.parallelStream().forEach( g -> foldStage( g, guide -> guide.foldSupp( supps ) ) );
+	Map<String,FoldResult> fulls = batcher.prefetch( unfolded.stream().flatMap( g -> g.fullFoldRequests().stream() ).collect( Collectors.toList() ) );
+	unfolded.parallelStream().forEach( g -> foldStage( g, guide -> guide.foldFull( fulls ) ) );
+    }
+
+    // fold a stage of guide; a stage that times out is left to Guide.tryFold(), that drops the guide
+    private static void foldStage( Guide guide, Consumer<Guide> stage ) {
+	try {
+	    stage.accept( guide );
+	} catch( FoldException e ) {
+	    // given up: the sequence is quarantined (by default) and the guide fails fast in tryFold()
+	}
+    }
+
     private boolean guideInRequired( Guide guide ) {
 	return this.targets.contains( guide.getCT() );
     }
@@ -966,10 +1015,14 @@ public class GuideMap {
 
     // check no U at the end, absence of exclusions, and accept best GC contents only
     private boolean checkSequence( String guide ) {
+	return checkSequenceExceptGC( guide ) && containsRightGCPercentage( guide, this.gcPercentMin, this.gcPercentMax );
+    }
+
+    // checkSequence without the GC content, for the candidates whose GC contents are screened in a batch
+    private boolean checkSequenceExceptGC( String guide ) {
 	return
 	    guide.charAt( guide.length() - 1 ) != 'U' &&
-	    !containsExclusions( guide, this.exclusions ) &&
-	    containsRightGCPercentage( guide, this.gcPercentMin, this.gcPercentMax );
+	    !containsExclusions( guide, this.exclusions );
     }
 
     private Set<String> generateAllExtensions( String sirna ) {
@@ -1061,13 +1114,19 @@ public class GuideMap {
 	    // extract part before the "]." and create guideIdRoot
 	    int index = guide.getId().lastIndexOf( "]." );
 	    String guideIdRoot = guide.getId().substring( 0, index + 2 );
-	    for( String kmer : kMers ) {
-		if( guide.getSequence().indexOf( kmer, k + 12 ) != k + 12 ) { // don't redo existing supp
-		    String newSequence = guide.getSequence( 0, k+12 ) + kmer + guide.getSequence( k + 12 + kmer.length(), guide.getLength() );
-		    if( checkSequence( newSequence ) ) {
-			Guide newDesign = guide.mutate( newSequence, guideIdRoot + guideReferenceNumber++ );
-			this.addGuide( newDesign );
-		    }
+	    List<String> newSequences = new ArrayList<>();
+	    for( String kmer : kMers )
+		if( guide.getSequence().indexOf( kmer, k + 12 ) != k + 12 ) // don't redo existing supp
+		    newSequences.add( guide.getSequence( 0, k+12 ) + kmer + guide.getSequence( k + 12 + kmer.length(), guide.getLength() ) );
+	    // with the Vector API, the GC contents of many candidates are screened all at once; otherwise one by one
+	    boolean[] rightGC = NucleotideKernels.isVectorized() && newSequences.size() >= MIN_GC_BATCH ?
+		new NucleotideKernels.Batch( newSequences ).hasGCFraction( this.gcPercentMin, this.gcPercentMax ) : null;
+	    for( int s = 0; s < newSequences.size(); s++ ) {
+		String newSequence = newSequences.get( s );
+		boolean checked = rightGC == null ? checkSequence( newSequence ) : rightGC[s] && checkSequenceExceptGC( newSequence );
+		if( checked ) {
+		    Guide newDesign = guide.mutate( newSequence, guideIdRoot + guideReferenceNumber++ );
+		    this.addGuide( newDesign );
 		}
 	    }
 	}
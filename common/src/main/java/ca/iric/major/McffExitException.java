@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.io.IOException;
+
+/** -------------------------------------------
+      McffExitException
+        is thrown when mcff ends with a non-zero exit status (a crash, a bad
+        option): its output is not an empty ensemble, and must not be taken
+        for one by the threshold ladders. The worker that ran it is sound.
+*/
+
+public class McffExitException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    public McffExitException( String commandLine, int status ) {
+        super( "mcff exited with status " + status + ": " + commandLine );
+        this.status = status;
+    }
+
+    public int getStatus() { return this.status; }
+}
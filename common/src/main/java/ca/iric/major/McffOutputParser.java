@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.List;
+import java.util.ArrayList;
+
+/** -------------------------------------------
+      McffOutputParser
+        is a streaming parser of the mcff output of one FoldRequest. Lines are
+        fed one at a time; accept() returns false as soon as the request has the
+        states it needs (FoldRequest.getMaxStates()), so that the caller can stop
+        reading and kill the fold. Lines are scanned by characters: no regex and
+        no split, one substring per state for the dot bracket. The lines must be
+        fed as mcff wrote them, blank ones included: the MIRISC header is counted
+        in lines and one of them is blank.
+
+        mcff output examples:
+          DUPLEX    ....(<(((((....)))))>) -19.773 ()
+          ENSEMBLE  (((((((((((((.((((..))))(((..)))))))))))))).))(((((....))))) -60.958
+          MIRISC    4 header lines, then
+                    <(.<<<<((<(<<....<...(....((((  )))))>.>>)>))>>>>)> -31.268
+*/
+
+public class McffOutputParser {
+
+    private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18 };
+
+    private final FoldRequest request;
+    private int headerLines; // lines to skip
+    private final int maxStates;
+    private final String shape;
+    private int counted = 0; // states counted toward maxStates
+    private boolean done = false;
+    private final List<String> states = new ArrayList<>();
+    private final List<Double> energies = new ArrayList<>();
+
+    public McffOutputParser( FoldRequest request ) {
+        this.request = request;
+        this.headerLines = request.getMode() == FoldRequest.Mode.MIRISC ? 4 : 0;
+        this.maxStates = request.getMaxStates();
+        this.shape = request.getShape();
+    }
+
+    // number of output lines that is enough for the request, 0 if unknown (all lines are needed
+    //   or the states are counted by shape); used to cut the mcff output at the source
+    public int lineLimit() {
+        if( this.maxStates == 0 || !this.shape.isEmpty() ) return 0;
+        return ( this.request.getMode() == FoldRequest.Mode.MIRISC ? 4 : 0 ) + this.maxStates;
+    }
+
+    public boolean isDone() { return this.done; }
+
+    // parse one line; return false when no more lines are needed
+    public boolean accept( String line ) {
+        if( this.done ) return false;
+        if( this.headerLines > 0 ) { // blank or not, like the 4 readLine() of MiRISCDuplex
+            this.headerLines--;
+            return true;
+        }
+        if( line.isEmpty() ) return true;
+        int n = line.length();
+        String state;
+        double energy;
+        if( this.request.getMode() == FoldRequest.Mode.ENSEMBLE ) { // <dotb> <energy>
+            int space = line.indexOf( ' ' );
+            state = line.substring( 0, space );
+            energy = parseNumber( line, space + 1 );
+        }
+        else { // <dotb> [+-]<energy> [shape]
+            int sign = 0;
+            while( sign < n && line.charAt( sign ) != '-' && line.charAt( sign ) != '+' ) sign++;
+            if( sign == n ) throw new NumberFormatException( "no energy in mcff line: " + line );
+            int end = sign;
+            while( end > 0 && line.charAt( end - 1 ) == ' ' ) end--; // keep inner spaces (target  guide)
+            state = this.request.getMode() == FoldRequest.Mode.DUPLEX ? line.substring( 0, end ).trim() : line.substring( 0, end );
+            energy = parseNumber( line, sign + 1 );
+            if( line.charAt( sign ) == '-' ) energy = -energy;
+        }
+        this.states.add( state );
+        this.energies.add( energy );
+        if( this.maxStates > 0 && ( this.shape.isEmpty() || this.shape.equals( MotifMemo.getInstance().get( state ).getShape() ) ) )
+            this.done = ++this.counted >= this.maxStates;
+        return !this.done;
+    }
+
+    public FoldResult result() {
+        return ExternalFoldingEngine.toFoldResult( this.states, this.energies, this.request.getThreshold() );
+    }
+
+    // parse the decimal number starting at from (optional sign), up to the first other char;
+    //   exact: the digits are accumulated in a long and divided once by a power of 10
+    static double parseNumber( String line, int from ) {
+        int n = line.length();
+        int i = from;
+        boolean negative = false;
+        if( i < n && ( line.charAt( i ) == '-' || line.charAt( i ) == '+' ) ) negative = line.charAt( i++ ) == '-';
+        long digits = 0;
+        int decimals = -1;
+        int count = 0;
+        for( ; i < n; i++ ) {
+            char c = line.charAt( i );
+            if( c >= '0' && c <= '9' ) {
+                if( count++ >= 18 ) return Double.parseDouble( line.substring( from, nextSpace( line, from ) ) ); // too long to be exact
+                digits = digits * 10 + ( c - '0' );
+                if( decimals >= 0 ) decimals++;
+            }
+            else if( c == '.' && decimals < 0 ) decimals = 0;
+            else break;
+        }
+        if( count == 0 ) throw new NumberFormatException( "no number at " + from + " in mcff line: " + line );
+        double value = decimals > 0 ? digits / POW10[decimals] : digits;
+        return negative ? -value : value;
+    }
+
+    private static int nextSpace( String line, int from ) {
+        int i = line.indexOf( ' ', from );
+        return i < 0 ? line.length() : i;
+    }
+}
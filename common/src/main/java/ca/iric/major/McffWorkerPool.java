@@ -0,0 +1,402 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.IOException;
+
+/** -------------------------------------------
+      McffWorkerPool
+        is a bounded pool of long-lived shell workers used to run mcff.
+        Each worker is a bash process reading mcff command lines on its stdin;
+        the output of a command is delimited on stdout by an end marker that
+        carries the exit status (a non-zero status throws a McffExitException).
+        Process creation from the JVM is therefore paid
+        once per worker instead of once per fold. A streamed run stops mcff (not
+        the worker) as soon as its consumer has enough.
+
+        The pool size is read from $MCFF_WORKERS (default: number of cores);
+        MCFF_WORKERS=0 disables the pool and folds with one process per call.
+        Workers are checked before each use and restarted when they crash; a
+        run on a worker that crashed is retried once on a new worker, except a
+        streamed run, whose consumer has already been fed.
+
+        A run may be given a deadline (FoldWatchdog): past it, the worker or the
+        process is killed with its children and the run throws a FoldException.
+*/
+
+public class McffWorkerPool {
+
+    private static final String ENV_VAR_NAME = "MCFF_WORKERS";
+    private static final String END = "__MCFF_END__";
+    private static McffWorkerPool instance = null;
+
+    public static synchronized McffWorkerPool getInstance() {
+        if( instance == null ) {
+            int size = Runtime.getRuntime().availableProcessors();
+            String envSize = System.getenv( ENV_VAR_NAME );
+            if( Utils.isValidInt( envSize ) ) size = Math.max( 0, Integer.parseInt( envSize.trim() ) );
+            instance = new McffWorkerPool( size );
+            Runtime.getRuntime().addShutdownHook( new Thread( instance::shutdown ) );
+        }
+        return instance;
+    }
+
+    // a run on a worker
+    @FunctionalInterface
+    private interface Task<T> {
+        T run( Worker worker ) throws IOException;
+    }
+
+    // a long-lived bash process
+    private static class Worker {
+        private final Process process;
+        private final BufferedWriter in;
+        private final BufferedReader out;
+
+        Worker() throws IOException {
+            ProcessBuilder pb = new ProcessBuilder( "bash" );
+            pb.redirectError( ProcessBuilder.Redirect.INHERIT ); // mcff messages go to our stderr
+            this.process = pb.start();
+            this.in = new BufferedWriter( new OutputStreamWriter( this.process.getOutputStream() ) );
+            this.out = new BufferedReader( new InputStreamReader( this.process.getInputStream() ) );
+            // the commands run in a subshell writing to stderr through fd 3, bash itself to /dev/null: a fold
+            //   stopped by stop() is not reported as killed
+            this.in.write( "exec 3>&2 2>/dev/null" );
+            this.in.newLine();
+        }
+
+        boolean isAlive() { return this.process.isAlive(); }
+
+        // send a command and collect its stdout lines up to the end marker, blank ones included
+        List<String> run( String commandLine ) throws IOException {
+            this.send( commandLine );
+            this.in.flush();
+            return this.receive( commandLine );
+        }
+
+        // send a command and stream its stdout lines to consumer while it accepts them; then the children
+        //   of the worker (mcff) are killed and the little output left is drained, the worker (bash) is kept
+        void run( String commandLine, Predicate<String> consumer ) throws IOException {
+            this.send( commandLine );
+            this.in.flush();
+            boolean accepting = true;
+            boolean blank = false; // a blank line held back: the last one before the marker is the extra echo
+            String line;
+            while( ( line = this.out.readLine() ) != null ) {
+                if( line.startsWith( END ) ) {
+                    if( accepting ) checkStatus( commandLine, line ); // stopped by us, its exit status does not count
+                    return;
+                }
+                if( !accepting ) continue;
+                if( blank && !consumer.test( "" ) ) accepting = false; // blank lines count (the MIRISC header has one)
+                blank = line.isEmpty();
+                if( accepting && !blank && !consumer.test( line ) ) accepting = false;
+                if( !accepting ) this.stop(); // enough: stop the fold
+            }
+            throw new IOException( "mcff worker died while running: " + commandLine );
+        }
+
+        // pipeline a batch: send all the commands, then collect their outputs in order
+        List<List<String>> runAll( List<String> commandLines ) throws IOException {
+            for( String commandLine : commandLines ) this.send( commandLine );
+            this.in.flush();
+            List<List<String>> outputs = new ArrayList<>( commandLines.size() );
+            McffExitException failed = null; // the first, thrown once all the outputs are read (the worker stays in sync)
+            for( String commandLine : commandLines )
+                try {
+                    outputs.add( this.receive( commandLine ) );
+                } catch( McffExitException e ) {
+                    if( failed == null ) failed = e;
+                    outputs.add( List.of() );
+                }
+            if( failed != null ) throw failed;
+            return outputs;
+        }
+
+        private void send( String commandLine ) throws IOException {
+            this.in.write( "( exec 2>&3; " + commandLine + " ); s=$?; echo; echo " + END + " $s" );
+            this.in.newLine();
+        }
+
+        private List<String> receive( String commandLine ) throws IOException {
+            List<String> lines = new ArrayList<>();
+            String line;
+            while( ( line = this.out.readLine() ) != null ) {
+                if( line.startsWith( END ) ) {
+                    checkStatus( commandLine, line );
+                    // the extra echo protects the marker from unterminated output: after a terminated one, it is a blank line
+                    if( !lines.isEmpty() && lines.get( lines.size() - 1 ).isEmpty() ) lines.remove( lines.size() - 1 );
+                    return lines;
+                }
+                lines.add( line );
+            }
+            throw new IOException( "mcff worker died while running: " + commandLine );
+        }
+
+        // the exit status carried by the end marker
+        private static void checkStatus( String commandLine, String marker ) throws McffExitException {
+            String status = marker.substring( END.length() ).trim();
+            if( Utils.isValidInt( status ) && Integer.parseInt( status ) != 0 ) throw new McffExitException( commandLine, Integer.parseInt( status ) );
+        }
+
+        // kill the running command: its subshell first (the one child bash reports, to /dev/null), then the rest
+        private void stop() {
+            List<ProcessHandle> command = this.process.descendants().toList();
+            this.process.children().forEach( ProcessHandle::destroyForcibly );
+            command.forEach( ProcessHandle::destroyForcibly );
+        }
+
+        // health check: the worker answers an empty command
+        boolean ping() {
+            try {
+                return this.isAlive() && this.run( "true" ).isEmpty();
+            } catch( IOException e ) {
+                return false;
+            }
+        }
+
+        void destroy() {
+            try {
+                this.in.close();
+            } catch( IOException e ) {
+                // the process is going away anyway
+            }
+            this.process.destroy();
+        }
+    }
+
+    private final int size;
+    private final BlockingQueue<Worker> idle;
+    private final AtomicInteger created = new AtomicInteger( 0 );
+    private final AtomicInteger restarts = new AtomicInteger( 0 );
+    private final boolean windows = System.getProperty( "os.name" ).toLowerCase().contains( "win" );
+    private volatile boolean closed = false;
+
+    public McffWorkerPool( int size ) {
+        this.size = size;
+        this.idle = new LinkedBlockingQueue<>();
+    }
+
+    public int getSize()     { return this.size; }
+    public int getCreated()  { return this.created.get(); }
+    public int getRestarts() { return this.restarts.get(); }
+
+    // run an mcff command line, ex) mcff -s GGGAAACCC -t 2, and return its stdout lines
+    public List<String> run( String commandLine ) throws IOException, InterruptedException {
+        return this.run( commandLine, 0L );
+    }
+
+    // same, killed past timeoutMillis (0: no deadline)
+    public List<String> run( String commandLine, long timeoutMillis ) throws IOException, InterruptedException {
+        if( this.size == 0 || this.windows || this.closed ) return runOnce( commandLine, this.windows, timeoutMillis );
+        return this.onWorker( commandLine, timeoutMillis, true, w -> w.run( commandLine ) );
+    }
+
+    // run an mcff command line and stream its stdout lines to consumer, while it returns true
+    //   not retried if the worker crashes: the consumer may have been fed, the IOException goes to the caller
+    public void run( String commandLine, Predicate<String> consumer ) throws IOException, InterruptedException {
+        this.run( commandLine, consumer, 0L );
+    }
+
+    // same, killed past timeoutMillis (0: no deadline)
+    public void run( String commandLine, Predicate<String> consumer, long timeoutMillis ) throws IOException, InterruptedException {
+        if( this.size == 0 || this.windows || this.closed ) {
+            runOnce( commandLine, this.windows, consumer, timeoutMillis );
+            return;
+        }
+        this.onWorker( commandLine, timeoutMillis, false, w -> {
+                w.run( commandLine, consumer );
+                return null;
+            } );
+    }
+
+    // run a batch of command lines on one worker (one round-trip); outputs are in the order of the commands
+    //   batches are meant to be small (tens of commands): the commands are written before any output is read
+    public List<List<String>> runAll( List<String> commandLines ) throws IOException, InterruptedException {
+        return this.runAll( commandLines, 0L );
+    }
+
+    // same, the whole batch killed past timeoutMillis (0: no deadline)
+    public List<List<String>> runAll( List<String> commandLines, long timeoutMillis ) throws IOException, InterruptedException {
+        if( this.size == 0 || this.windows || this.closed ) {
+            List<List<String>> outputs = new ArrayList<>( commandLines.size() );
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            for( String commandLine : commandLines )
+                outputs.add( runOnce( commandLine, this.windows, timeoutMillis == 0 ? 0L : Math.max( 1L, deadline - System.currentTimeMillis() ) ) );
+            return outputs;
+        }
+        return this.onWorker( commandLines.size() + " batched commands", timeoutMillis, true, w -> w.runAll( commandLines ) );
+    }
+
+    // run task on a borrowed worker, within timeoutMillis; retried once on a new worker if the worker crashes and retry
+    private <T> T onWorker( String commandLine, long timeoutMillis, boolean retry, Task<T> task ) throws IOException, InterruptedException {
+        Worker worker = this.borrow();
+        try {
+            return watched( worker, commandLine, timeoutMillis, task );
+        } catch( FoldException | McffExitException e ) { // killed (the dead worker is replaced on its next borrow), or mcff failed on a sound worker
+            throw e;
+        } catch( IOException e ) { // crashed worker: replace it and retry once
+            worker.destroy();
+            worker = null; // not released if it cannot be replaced
+            if( !retry ) { // the pool may grow again
+                this.created.decrementAndGet();
+                throw e;
+            }
+            worker = this.replace();
+            return watched( worker, commandLine, timeoutMillis, task );
+        } finally {
+            if( worker != null ) this.release( worker );
+        }
+    }
+
+    // a new worker in place of a destroyed one; if it cannot start, the pool may grow again
+    private Worker replace() throws IOException {
+        this.restarts.incrementAndGet();
+        try {
+            return new Worker();
+        } catch( IOException e ) {
+            this.created.decrementAndGet();
+            throw e;
+        }
+    }
+
+    // run task on worker; past timeoutMillis, the worker is killed and the run throws a FoldException
+    private static <T> T watched( Worker worker, String commandLine, long timeoutMillis, Task<T> task ) throws IOException {
+        FoldWatchdog.Deadline deadline = FoldWatchdog.getInstance().watch( worker.process, timeoutMillis );
+        try {
+            T result = task.run( worker );
+            if( deadline.isExpired() ) throw timedOut( commandLine, timeoutMillis ); // the children died first, bash may have answered
+            return result;
+        } catch( IOException e ) {
+            if( deadline.isExpired() ) throw timedOut( commandLine, timeoutMillis );
+            throw e;
+        } finally {
+            deadline.close();
+        }
+    }
+
+    private static FoldException timedOut( String commandLine, long timeoutMillis ) {
+        return new FoldException( "mcff killed after " + timeoutMillis + " ms: " + commandLine );
+    }
+
+    // check all idle workers, replace the ones not answering; return the number replaced
+    public int healthCheck() throws IOException {
+        List<Worker> checked = new ArrayList<>();
+        this.idle.drainTo( checked );
+        int replaced = 0;
+        try {
+            for( int i = 0; i < checked.size(); i++ )
+                if( !checked.get( i ).ping() ) {
+                    checked.get( i ).destroy();
+                    checked.set( i, null ); // not released if it cannot be replaced
+                    checked.set( i, this.replace() );
+                    replaced++;
+                }
+        } finally {
+            for( Worker worker : checked )
+                if( worker != null ) this.idle.offer( worker );
+        }
+        return replaced;
+    }
+
+    public void shutdown() {
+        this.closed = true;
+        List<Worker> workers = new ArrayList<>();
+        this.idle.drainTo( workers );
+        for( Worker w : workers ) w.destroy();
+    }
+
+    private Worker borrow() throws IOException, InterruptedException {
+        Worker worker = this.idle.poll();
+        if( worker == null ) {
+            if( this.created.incrementAndGet() <= this.size ) { // grow up to size
+                try {
+                    return new Worker();
+                } catch( IOException e ) {
+                    this.created.decrementAndGet();
+                    throw e;
+                }
+            }
+            this.created.decrementAndGet();
+            worker = this.idle.take(); // bounded: wait for a free worker
+        }
+        if( !worker.isAlive() ) {
+            worker.destroy();
+            worker = this.replace();
+        }
+        return worker;
+    }
+
+    private void release( Worker worker ) {
+        if( this.closed ) worker.destroy();
+        else this.idle.offer( worker );
+    }
+
+    // one process per call (used when the pool is disabled, and on Windows)
+    public static List<String> runOnce( String commandLine, boolean windows ) throws IOException, InterruptedException {
+        return runOnce( commandLine, windows, 0L );
+    }
+
+    public static List<String> runOnce( String commandLine, boolean windows, long timeoutMillis ) throws IOException, InterruptedException {
+        List<String> lines = new ArrayList<>();
+        runOnce( commandLine, windows, lines::add, timeoutMillis );
+        return lines;
+    }
+
+    // one process per call, its stdout lines streamed to consumer; the process is killed as soon as consumer returns false
+    //   stdout is read by the calling thread while stderr is pumped concurrently by a virtual thread:
+    //   no platform thread is created per fold, and a full stderr pipe cannot block mcff
+    public static void runOnce( String commandLine, boolean windows, Predicate<String> consumer ) throws IOException, InterruptedException {
+        runOnce( commandLine, windows, consumer, 0L );
+    }
+
+    // same, the process killed past timeoutMillis (0: no deadline), then a FoldException is thrown
+    public static void runOnce( String commandLine, boolean windows, Predicate<String> consumer, long timeoutMillis ) throws IOException, InterruptedException {
+        String[] commands = windows ? new String[] { "cmd.exe", "/c", commandLine } : new String[] { "bash", "-c", commandLine };
+        Process process = new ProcessBuilder( commands ).start();
+        Thread errorPump = Thread.ofVirtual().name( "mcff-stderr" ).start( () -> pumpError( process ) );
+        FoldWatchdog.Deadline deadline = FoldWatchdog.getInstance().watch( process, timeoutMillis );
+        boolean stopped = false; // killed by us, its exit status does not count
+        try( BufferedReader reader = new BufferedReader( new InputStreamReader( process.getInputStream() ) ) ) {
+            String line;
+            while( ( line = reader.readLine() ) != null )
+                if( !consumer.test( line ) ) { // enough: stop the fold
+                    stopped = true;
+                    process.descendants().forEach( ProcessHandle::destroyForcibly );
+                    process.destroyForcibly();
+                    break;
+                }
+        } catch( IOException e ) {
+            if( !deadline.isExpired() ) throw e;
+        } finally {
+            process.waitFor();
+            deadline.close();
+            errorPump.join();
+        }
+        if( deadline.isExpired() ) throw timedOut( commandLine, timeoutMillis );
+        if( !stopped && process.exitValue() != 0 ) throw new McffExitException( commandLine, process.exitValue() );
+    }
+
+    // forward the stderr lines of process to ours, one whole line at a time
+    private static void pumpError( Process process ) {
+        try( BufferedReader error = new BufferedReader( new InputStreamReader( process.getErrorStream() ) ) ) {
+            String line;
+            while( ( line = error.readLine() ) != null ) System.err.println( line );
+        } catch( IOException e ) {
+            // the process was killed: nothing more to forward
+        }
+    }
+}
@@ -9,10 +9,8 @@ import java.util.HashMap;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.Arrays;
+import java.util.Locale;
 
-import java.lang.Runtime;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.io.IOException;
 
 import java.util.LinkedList;
@@ -114,30 +112,26 @@ public class MiRISCDuplex {
     //
     public static String determineSeedType( Duplex duplex, boolean A1 ) {
 	//System.out.println( "determineSeedType( " + duplex.getState() + ", A1 = " + A1 + " )" );
-	// Split at ( " " ) gives: target brackets in [0]; a space in [1]; guide brackets in [2]
-	String[] splitDB = duplex.getState().split( " " );
-	String targetDotb = splitDB[0].substring( 0, splitDB[0].length() - 1 ); // ex: ..(((<(((((((<(((....(((((( (length = 27) <= remove A1
-	String guideDotb = splitDB[2].substring( 1, splitDB[2].length() );  // ex: )))))))))>)))))))>))) (length = 21) <= remove g1
+	// the duplex gap separates the target brackets from the guide brackets
+	String state = duplex.getState();
+	int gap = DotBracket.gapStart( state );
+	int targetEnd = gap - 1; // ex: ..(((<(((((((<(((....(((((( (length = 27) <= remove A1
+	int guideStart = DotBracket.gapEnd( state, gap ) + 1;  // ex: )))))))))>)))))))>))) (length = 21) <= remove g1
 
 	// tolerate one GU pair in the seed
 	// GU pair considered non-canonical and indicated by <>;
-	//   replace {} by () in both targetDotb and guideDotb
-	int guPos = guideDotb.indexOf( SecondaryStructure.cgu3 );
+	//   count the {} as () in both target and guide
+	int guPos = state.indexOf( SecondaryStructure.cgu3, guideStart ) - guideStart;
+	int targetGU = -1; // position of the GU pair in the target and in the guide, -1 if none
+	int guideGU = -1;
 	if( guPos > -1 && guPos <= seedLength ) {
-	    // get partner
-	    int partner = duplex.getPartner( guPos );
-	    // change the > by )
-	    guideDotb = guideDotb.substring( 0, guPos ) + SecondaryStructure.scanonical3 + guideDotb.substring( guPos + 1, guideDotb.length() );
-	    // change the < by (
-	    targetDotb = targetDotb.substring( 0, partner ) + SecondaryStructure.scanonical5 + targetDotb.substring( partner + 1,  targetDotb.length() );
+	    targetGU = duplex.getPartner( guPos );
+	    guideGU = guideStart + guPos;
 	}
 
-	// get the 7 first symbols from each Dotb (g2-g8 in guide)
-     	String targetSeed = targetDotb.substring( targetDotb.length() - seedLength, targetDotb.length() ); // ex: .((((((
-     	String guideSeed = guideDotb.substring( 0, seedLength ); // ex: )))))))
-
-	int numberOfBPsInTarget = count( targetSeed, '(' );
-	int numberOfBPsInSeed = count( guideSeed, ')' );
+	// get the 7 first symbols from each dotb (g2-g8 in guide)
+	int numberOfBPsInTarget = countPairs( state, targetEnd - seedLength, targetEnd, '(', targetGU ); // ex: .((((((
+	int numberOfBPsInSeed = countPairs( state, guideStart, guideStart + seedLength, ')', guideGU ); // ex: )))))))
 	// if there are less than 6 bps, there is no seed
 	if( numberOfBPsInSeed < 6 ) {
 	    //System.out.println( "0-noncanonical" );
@@ -157,19 +151,17 @@ public class MiRISCDuplex {
 	if( numberOfBPsInSeed == 7 && numberOfBPsInTarget == 6 ) {
 	    // here, the seed is canonical, but there may be a bulge in the target
 	    // check special case with 1 bulge in the target (but not in the first 4 positions in the target)
-	    int bulgePos = targetSeed.indexOf( SecondaryStructure.ssingle );
+	    int bulgePos = state.indexOf( SecondaryStructure.csingle, targetEnd - seedLength );
+	    bulgePos = bulgePos < 0 || bulgePos >= targetEnd ? -1 : bulgePos - ( targetEnd - seedLength );
 	    if( bulgePos > 0 && bulgePos < 3 ) {
 		//System.out.println( "1-bulge" );
 		return( "1-bulge" );
 	    }
 	}
 
-	// get the 6 first symbols from each Dotb (g2-g7 in guide)
-     	targetSeed = targetDotb.substring( targetDotb.length() - seedLength + 1, targetDotb.length() ); // ex: .(((((
-     	guideSeed = guideDotb.substring( 0, seedLength - 1 ); // ex: ))))))
-
-	numberOfBPsInTarget = count( targetSeed, '(' );
-	numberOfBPsInSeed = count( guideSeed, ')' );
+	// get the 6 first symbols from each dotb (g2-g7 in guide)
+	numberOfBPsInTarget = countPairs( state, targetEnd - seedLength + 1, targetEnd, '(', targetGU ); // ex: .(((((
+	numberOfBPsInSeed = countPairs( state, guideStart, guideStart + seedLength - 1, ')', guideGU ); // ex: ))))))
 
 	// if there are 6 bps, treat the 7mer-A1 and 6mer types
 	if( numberOfBPsInTarget == 6 && numberOfBPsInSeed == 6 )
@@ -184,11 +176,8 @@ public class MiRISCDuplex {
 
 	// check Offset 6mer type
 	// get the 6 offset symbols (g3-g8 in guide)
-        targetSeed = targetDotb.substring( targetDotb.length() - seedLength, targetDotb.length() - 1 );
-     	guideSeed = guideDotb.substring( 1, seedLength );
-
-	numberOfBPsInTarget = count( targetSeed, '(' );
-	numberOfBPsInSeed = count( guideSeed, ')' );
+	numberOfBPsInTarget = countPairs( state, targetEnd - seedLength, targetEnd - 1, '(', targetGU );
+	numberOfBPsInSeed = countPairs( state, guideStart + 1, guideStart + seedLength, ')', guideGU );
 
 	// if there are 6 bps => Offset 6mer type
 	if( numberOfBPsInTarget == 6 && numberOfBPsInSeed == 6 ) {
@@ -200,6 +189,32 @@ public class MiRISCDuplex {
 	return( "unknown" );
     }
 
+    // number of symbols c in state from from to to (exclusive), the tolerated GU at gu counting as c
+    private static int countPairs( String state, int from, int to, char c, int gu ) {
+	int n = DotBracket.count( state, from, to, c );
+	if( gu >= from && gu < to && state.charAt( gu ) != c ) n++;
+	return n;
+    }
+
+    // fold request of the target and guide at -e value e
+    private FoldRequest miriscRequest( int e ) {
+	return miriscRequest( this.getTarget(), this.guide, this.kmerBridge, e );
+    }
+
+    // same, static: used by the constructor before the duplex is built
+    private static FoldRequest miriscRequest( String thisTarget, Guide guide, int kmerBridge, int e ) {
+	String thisGuide = guide.getSequence();
+	// create miRISC mask
+	String mask =
+	    "x".repeat( thisTarget.length() - kmerBridge - 13 ) +
+	    "(((((" +
+	    "x".repeat( kmerBridge ) +
+	    "xxx((((x..x))))xxxxxx)))))xxx" +
+	    "x".repeat( thisGuide.length() - 19 );
+	// fold target including last nt; and guide from g1
+	return FoldRequest.mirisc( thisTarget.substring( 0, thisTarget.length() ), thisGuide.substring( 0, guide.getLength() ), mask, e );
+    }
+
     public void fold( int e ) {
 	// lists to store dotb (states) and their energies
 	LinkedList<String> states = new LinkedList<>();
@@ -212,66 +227,34 @@ public class MiRISCDuplex {
 	// ********** MC-FOLD **********
 	// *****************************
 
-	// create miRISC mask
-	String mask =
-	    "'" +
-	    "x".repeat( thisTarget.length() - this.kmerBridge - 13 ) +
-	    "(((((" +
-	    "x".repeat( this.kmerBridge ) +
-	    "xxx((((x..x))))xxxxxx)))))xxx" +
-	    "x".repeat( thisGuide.length() - 19 ) +
-	    "'";
-
-	// fold target including last nt; and guide from g1
-	String mcff = "mcff -s " + thisTarget.substring( 0, thisTarget.length() ) +
-	    " -sd " +
-	    thisGuide.substring( 0, this.getGuideLength() )  +
-	    " -m " + mask +
-	    " -e " + e +
-	    " -v -alt 2> /dev/null";
+	FoldRequest request = this.miriscRequest( e );
 	// save commandLine for further analyis (maybe)
-	this.commandLine = mcff;
-	//System.out.println( mcff );
-	String[] commands = { "bash", "-c", mcff };
+	this.commandLine = request.commandLine();
+	//System.out.println( this.commandLine );
 	double mfe = 0.0;
 	int mfeState = -1;
 	String dotb = "";
 	String seed = "";
 	try {
-	    Process process = Runtime.getRuntime().exec( commands );
-	    BufferedReader reader =
-		new BufferedReader( new InputStreamReader( process.getInputStream() ) );
-	    /*
-	      mcff output example:
-	      Explored
-	      >(null)
-	      GCCGGAGAGUUGGUCUCUCCCCUUCUACUGAACAGUGUCUUAGCUGGUUGU
-	      mfe(-32.27481), th(-30.81095) (INFO: Duplex mode solutions are not sorted.)
-	      <(.<<<<((<(<<....<...(....((((  )))))>.>>)>))>>>>)> -31.268
-	      ...
-	     */
-	    // skip 4 lines;
-	    String line;
-	    line = reader.readLine();
-	    line = reader.readLine();
-	    line = reader.readLine();
-	    line = reader.readLine();
-	    int stateId = 0;
-	    // build state and energy lists and save the MFE
-	    while( ( line = reader.readLine() ) != null ) {
-		// mfe in element[1], minus the "-" sign (3-decimal precision)
-		double energy = -Double.parseDouble( line.split( "-", 2 )[1] );
+	    // fold with the configured engine (mcff by default)
+	    FoldResult folded = FoldingEngines.get().fold( request );
+	    FoldMetrics.getInstance().level( folded );
+	    // build state and energy lists and save the MFE; states are kept as mcff lines: <dotb> -<energy>
+	    for( int stateId = 0; stateId < folded.size(); stateId++ ) {
+		double energy = folded.getEnergy( stateId );
 		// in search of the MFE
 		if( energy < mfe ) {
 		    mfe = energy;
 		    mfeState = stateId;
 		}
 		energies.add( energy );
-		states.add( line );
-		stateId++;
+		states.add( folded.getState( stateId ) + " " + String.format( Locale.ROOT, "%.3f", energy ) );
 	    }
-	    reader.close();
-	} catch (IOException exc ) {
+	} catch( IOException exc ) {
+	    this.foldFailed = true;
+	    exc.printStackTrace();
+	} catch( InterruptedException exc ) {
+	    this.foldFailed = true;
 	    exc.printStackTrace();
 	}
 	// assign the MFE
@@ -506,6 +489,7 @@ public class MiRISCDuplex {
     protected int tEnd;   // tn
     //protected int extension; // extension for target folding
     protected String commandLine;
+    private boolean foldFailed = false; // a fold( e ) threw, the threshold ladder is not memoized (see FoldEscalation)
     protected boolean dynamic = false;
     protected String MFESeed = "unknown";
     protected Double MFE = 0.0;
@@ -563,10 +547,20 @@ public class MiRISCDuplex {
 	this.kmerBridge = bridgeLen;
 	//this.extension = extension;
 	
-	// fold init -e value is 4
-	int initE = 4;
+	// fold init -e value is 4, or the memoized successful level of this threshold ladder
+	String ladderKey = miriscRequest( target.getSequence().getSequence().substring( tStart, tEnd + 1 ), guide, bridgeLen, 4 ).key();
+	int initE = (int)FoldEscalation.getInstance().startLevel( ladderKey, 4 );
+	int levelsFolded = 0;
+	this.foldFailed = false;
 	// fold until dot-brackets are generated
-	while( this.MFE == 0.0 ) fold( initE++ );
+	try( FoldMetrics.Fold metrics = FoldMetrics.getInstance().start( "miriscDuplex" ) ) {
+	    while( this.MFE == 0.0 ) {
+		fold( initE++ );
+		levelsFolded++;
+	    }
+	    metrics.completed();
+	}
+	FoldEscalation.getInstance().record( ladderKey, 4, initE - 1, levelsFolded, this.foldFailed );
     }
 
     // assume left dotb of a mcff duplex mode folding and left side longer than the right side
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** -------------------------------------------
+      MotifMemo
+        memoizes the motifs of the ensemble states, shared by all the
+        SecondaryStructure instances: dot bracket -> abstract shape, base pairs
+        and loops. The states are keyed packed (PackedEnsemble.pack, 4 bits per
+        position), so a memoized state costs half its length plus its motifs.
+        The tiles of a TiledSecondaryStructure overlap and mcff returns the same
+        states again and again: each distinct state is parsed once.
+
+        The base pairs ( i<<16 | j ) and loops ( position<<16 | length ) are
+        sorted int keys in the PackedEnsemble.Accumulator form. Equal sets are
+        interned: they share one array and are numbered (set ids), as are the
+        shapes (interned strings).
+
+        The memo is bounded by $MOTIF_MEMO entries (default: 1<<18), dropped
+        when it grows beyond; MOTIF_MEMO=0 disables it.
+*/
+
+public final class MotifMemo {
+
+    private static final String ENV_VAR_NAME = "MOTIF_MEMO";
+    private static final int DEFAULT_ENTRIES = 1 << 18;
+    private static MotifMemo instance = null;
+
+    public static synchronized MotifMemo getInstance() {
+        if( instance == null ) {
+            int entries = DEFAULT_ENTRIES;
+            String envEntries = System.getenv( ENV_VAR_NAME );
+            if( Utils.isValidInt( envEntries ) ) entries = Math.max( 0, Integer.parseInt( envEntries.trim() ) );
+            instance = new MotifMemo( entries );
+        }
+        return instance;
+    }
+
+    /** -------------------------------------------
+          Motifs
+            of one state.
+    */
+
+    public static final class Motifs {
+
+        private final String shape;
+        private final KeySet basePairs;
+        private final KeySet loops;
+
+        private Motifs( String shape, KeySet basePairs, KeySet loops ) {
+            this.shape = shape;
+            this.basePairs = basePairs;
+            this.loops = loops;
+        }
+
+        // getters; the key arrays are shared, do not modify
+
+        public String getShape()          { return this.shape; }
+        public int[]  getBasePairs()      { return this.basePairs.keys; }
+        public int[]  getLoops()          { return this.loops.keys; }
+        public int    getBasePairSetId()  { return this.basePairs.id; }
+        public int    getLoopSetId()      { return this.loops.id; }
+    }
+
+    // an interned set of keys
+    private static final class KeySet {
+        private final int id;
+        private final int[] keys;
+
+        private KeySet( int id, int[] keys ) {
+            this.id = id;
+            this.keys = keys;
+        }
+    }
+
+    // a packed state
+    private static final class Key {
+        private final byte[] packed;
+        private final int length;
+        private final int hash;
+
+        private Key( CharSequence state ) {
+            this.length = state.length();
+            this.packed = new byte[( this.length + 1 ) >>> 1];
+            this.hash = 31 * PackedEnsemble.pack( state, this.packed, 0 ) + this.length;
+        }
+
+        @Override
+        public int hashCode() { return this.hash; }
+
+        @Override
+        public boolean equals( Object o ) {
+            return o instanceof Key other && other.hash == this.hash && other.length == this.length && Arrays.equals( other.packed, this.packed );
+        }
+    }
+
+    // an int[] by content, to intern the key sets
+    private record Content( int[] keys ) {
+        @Override
+        public int hashCode() { return Arrays.hashCode( this.keys ); }
+        @Override
+        public boolean equals( Object o ) { return o instanceof Content other && Arrays.equals( other.keys, this.keys ); }
+    }
+
+    private final int maxEntries;
+    private final Map<Key,Motifs> memo = new ConcurrentHashMap<>();
+    private final Map<Content,KeySet> keySets = new ConcurrentHashMap<>();
+    private final Map<String,String> shapes = new ConcurrentHashMap<>();
+    private final AtomicInteger nextSetId = new AtomicInteger( 0 );
+    private final AtomicLong hits = new AtomicLong( 0 );
+    private final AtomicLong misses = new AtomicLong( 0 );
+
+    public MotifMemo( int maxEntries ) {
+        this.maxEntries = maxEntries;
+    }
+
+    // getters
+
+    public boolean isEnabled() { return this.maxEntries > 0; }
+    public int     size()      { return this.memo.size(); }
+    public long    getHits()   { return this.hits.get(); }
+    public long    getMisses() { return this.misses.get(); }
+
+    // the motifs of state (a dot bracket of the ensemble symbols)
+    public Motifs get( CharSequence state ) {
+        if( !this.isEnabled() ) return this.compute( state );
+        Key key = new Key( state );
+        Motifs motifs = this.memo.get( key );
+        if( motifs != null ) {
+            this.hits.incrementAndGet();
+            return motifs;
+        }
+        this.misses.incrementAndGet();
+        motifs = this.compute( state );
+        if( this.memo.size() >= this.maxEntries ) this.clear();
+        Motifs previous = this.memo.putIfAbsent( key, motifs );
+        return previous != null ? previous : motifs;
+    }
+
+    // drop the memo (the motifs already handed out stay valid)
+    public void clear() {
+        this.memo.clear();
+        this.keySets.clear();
+        this.shapes.clear();
+    }
+
+    // parse state: its shape, base pairs and loops
+    private Motifs compute( CharSequence state ) {
+        DotBracket dotb = DotBracket.local().parseParentheses( state );
+        int n = dotb.length();
+        int[] basePairs = new int[dotb.getNumberOfPairs()];
+        int numberOfBasePairs = 0;
+        for( int i = 0; i < n; i++ )
+            if( dotb.partner( i ) > i ) basePairs[numberOfBasePairs++] = PackedEnsemble.Accumulator.key( i, dotb.partner( i ) );
+        int[] loops = new int[n];
+        int numberOfLoops = 0;
+        for( int i = 0; i < n; i++ ) {
+            if( !dotb.isUnpaired( i ) ) continue;
+            int start = i;
+            while( i + 1 < n && dotb.isUnpaired( i + 1 ) ) i++;
+            loops[numberOfLoops++] = PackedEnsemble.Accumulator.key( start, i - start + 1 );
+        }
+        String shape = SecondaryStructure.abstractShape( dotb );
+        if( !this.isEnabled() ) return new Motifs( shape, new KeySet( -1, basePairs ), new KeySet( -1, Arrays.copyOf( loops, numberOfLoops ) ) );
+        return new Motifs( this.shapes.computeIfAbsent( shape, s -> s ), this.intern( basePairs ), this.intern( Arrays.copyOf( loops, numberOfLoops ) ) );
+    }
+
+    // the interned set of keys (sorted, as they are found left to right)
+    private KeySet intern( int[] keys ) {
+        return this.keySets.computeIfAbsent( new Content( keys ), c -> new KeySet( this.nextSetId.getAndIncrement(), c.keys() ) );
+    }
+
+    @Override
+    public String toString() {
+        return "motif memo: " + this.size() + " states, " + this.keySets.size() + " motif sets, " + this.shapes.size() + " shapes, " +
+            this.getHits() + " hits, " + this.getMisses() + " misses";
+    }
+}
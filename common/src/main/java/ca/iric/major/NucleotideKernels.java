@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.List;
+
+/** -------------------------------------------
+      NucleotideKernels
+        are the sequence tests of the antisense enumeration and screening
+        (base pairs between a sense and an antisense, GC content) over
+        nucleotide codes, one bit per symbol: A 1, C 2, G 4, U 8, and space
+        16 (canonicalGUBps is a substring test, "A " and " G" are pairs);
+        other symbols are 0 and never count. A pair is a sense symbol whose
+        partner mask holds the antisense code.
+
+        The single forms are table lookups on the strings, without allocation.
+        Batch packs candidates of the same length column by column (nucleotide
+        i of all the candidates contiguous) and scores them all at once, one
+        lane per candidate: with the Vector API (VectorKernels) when it was
+        compiled in (mvn -P vector), the jdk.incubator.vector module is there
+        (java --add-modules jdk.incubator.vector) and $VECTOR_KERNELS is not 0,
+        with the same scalar loop otherwise. The default build leaves
+        VectorKernels out, javac warns about every incubating module.
+*/
+
+public final class NucleotideKernels {
+
+    public static final byte A = 1;
+    public static final byte C = 2;
+    public static final byte G = 4;
+    public static final byte U = 8;
+    public static final byte SPACE = 16;
+    private static final byte[] CODES = new byte[128];
+    private static final byte[] PARTNERS = new byte[128]; // PARTNERS[sense]: the antisense codes it pairs with
+    static {
+        CODES['A'] = A;
+        CODES['C'] = C;
+        CODES['G'] = G;
+        CODES['U'] = U;
+        CODES[' '] = SPACE;
+        PARTNERS['A'] = U | SPACE;
+        PARTNERS['C'] = G;
+        PARTNERS['G'] = C | U;
+        PARTNERS['U'] = A | G;
+        PARTNERS[' '] = G;
+    }
+    private static final ColumnCounter VECTOR = vectorKernels(); // null: the scalar loop
+
+    // the loop of Batch over the candidates
+    interface ColumnCounter {
+        // counts[c] += 1 where ( column[offset + c] & mask ) != 0, for c < n
+        void countWhere( byte[] column, int offset, int n, byte mask, byte[] counts );
+    }
+
+    private static ColumnCounter vectorKernels() {
+        if( "0".equals( System.getenv( "VECTOR_KERNELS" ) ) ) return null;
+        if( ModuleLayer.boot().findModule( "jdk.incubator.vector" ).isEmpty() ) return null;
+        try {
+            return (ColumnCounter)Class.forName( "ca.iric.major.common.VectorKernels" ).getDeclaredConstructor().newInstance();
+        } catch( ReflectiveOperationException | LinkageError e ) { // not compiled in (no -P vector)
+            return null;
+        }
+    }
+
+    private NucleotideKernels() {}
+
+    // true if Batch runs on the Vector API
+    public static boolean isVectorized() { return VECTOR != null; }
+
+    public static byte code( char nucleotide )     { return nucleotide < 128 ? CODES[nucleotide] : 0; }
+    public static byte partners( char nucleotide ) { return nucleotide < 128 ? PARTNERS[nucleotide] : 0; }
+
+    // number of base pairs (WC or GU) between sense and antisense, antisense given 5'->3' (assume sense is not longer)
+    public static int countBPs( String sense, String antisense ) {
+        int last = antisense.length() - 1;
+        int numBPs = 0;
+        for( int i = 0; i < sense.length(); i++ )
+            if( ( partners( sense.charAt( i ) ) & code( antisense.charAt( last - i ) ) ) != 0 ) numBPs++;
+        return numBPs;
+    }
+
+    // number of G and C
+    public static int countGC( CharSequence sequence ) {
+        int gcCount = 0;
+        for( int i = 0; i < sequence.length(); i++ )
+            if( ( code( sequence.charAt( i ) ) & ( G | C ) ) != 0 ) gcCount++;
+        return gcCount;
+    }
+
+    // GC fraction of sequence in [gcMin, gcMax]
+    public static boolean hasGCFraction( CharSequence sequence, double gcMin, double gcMax ) {
+        double gcFraction = countGC( sequence ) / (double)sequence.length();
+        return gcFraction >= gcMin && gcFraction <= gcMax;
+    }
+
+    /** -------------------------------------------
+          Batch
+            of candidates of the same length (at most 127, the counts are
+            bytes), packed column by column.
+    */
+
+    public static final class Batch {
+
+        public static final int MAX_LENGTH = 127;
+
+        private final int size; // number of candidates
+        private final int length; // of the candidates
+        private final byte[] columns; // columns[i * size + c]: code of nucleotide i of candidate c
+
+        public Batch( List<String> candidates ) {
+            this.size = candidates.size();
+            this.length = this.size == 0 ? 0 : candidates.get( 0 ).length();
+            if( this.length > MAX_LENGTH ) throw new IllegalArgumentException( "Batch candidates of length " + this.length + ", at most " + MAX_LENGTH );
+            this.columns = new byte[this.length * this.size];
+            for( int c = 0; c < this.size; c++ ) {
+                String candidate = candidates.get( c );
+                if( candidate.length() != this.length )
+                    throw new IllegalArgumentException( "Batch candidates of different lengths: " + this.length + " and " + candidate.length() + " (" + candidate + ")" );
+                for( int i = 0; i < this.length; i++ ) this.columns[i * this.size + c] = code( candidate.charAt( i ) );
+            }
+        }
+
+        public int size()   { return this.size; }
+        public int length() { return this.length; }
+
+        // number of G and C of each candidate
+        public int[] countGC() {
+            byte[] counts = new byte[this.size];
+            for( int i = 0; i < this.length; i++ ) this.countWhere( i, (byte)( G | C ), counts );
+            return widen( counts );
+        }
+
+        // GC fraction of each candidate in [gcMin, gcMax]
+        public boolean[] hasGCFraction( double gcMin, double gcMax ) {
+            int[] gcCounts = this.countGC();
+            boolean[] res = new boolean[this.size];
+            for( int c = 0; c < this.size; c++ ) {
+                double gcFraction = gcCounts[c] / (double)this.length;
+                res[c] = gcFraction >= gcMin && gcFraction <= gcMax;
+            }
+            return res;
+        }
+
+        // number of base pairs between sense and each candidate as the antisense (countBPs( sense, candidate ))
+        public int[] countBPs( String sense ) {
+            if( this.size == 0 ) return new int[0];
+            if( sense.length() > this.length ) throw new IllegalArgumentException( "sense " + sense + " longer than the candidates (" + this.length + ")" );
+            byte[] counts = new byte[this.size];
+            for( int i = 0; i < sense.length(); i++ ) this.countWhere( this.length - 1 - i, partners( sense.charAt( i ) ), counts );
+            return widen( counts );
+        }
+
+        // counts[c] += 1 where the code of nucleotide i of candidate c is in mask
+        private void countWhere( int i, byte mask, byte[] counts ) {
+            if( mask == 0 ) return;
+            if( VECTOR != null ) {
+                VECTOR.countWhere( this.columns, i * this.size, this.size, mask, counts );
+                return;
+            }
+            int offset = i * this.size;
+            for( int c = 0; c < this.size; c++ )
+                if( ( this.columns[offset + c] & mask ) != 0 ) counts[c]++;
+        }
+
+        private static int[] widen( byte[] counts ) {
+            int[] res = new int[counts.length];
+            for( int c = 0; c < counts.length; c++ ) res[c] = counts[c];
+            return res;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.Arrays;
+
+/** -------------------------------------------
+      PackedEnsemble
+        is the conformational ensemble of one strand, packed. The states (dot
+        brackets of the same length) are encoded on 4 bits per position in one
+        byte array, their energies in a double[]; a state added twice is kept
+        once, with its lowest energy (as mcff -ns may repeat states). The states
+        are numbered in their order of addition.
+
+        Accumulator is the primitive open-addressing map used to sum the
+        Boltzmann weights of the base pairs and loops, keyed by ( i<<16 | j ).
+        StateSet remembers the states by 64-bit fingerprints only, for the
+        folds that stream their states without keeping them.
+*/
+
+public final class PackedEnsemble {
+
+    private static final String SYMBOLS = ".()<>{}[]"; // 4-bit codes 0..8
+    private static final byte[] CODES = new byte[128];
+    static {
+        Arrays.fill( CODES, (byte)-1 );
+        for( int c = 0; c < SYMBOLS.length(); c++ ) CODES[SYMBOLS.charAt( c )] = (byte)c;
+    }
+
+    private final int length; // of the states
+    private final int stride; // bytes per state
+    private byte[] packed = new byte[0];
+    private double[] energies = new double[0];
+    private int[] hashes = new int[0];
+    private int size = 0;
+    private int[] table = new int[16]; // open addressing on the state hashes: state id + 1, 0 if empty
+
+    public PackedEnsemble( int length ) {
+        this.length = length;
+        this.stride = ( length + 1 ) >>> 1;
+    }
+
+    public int size()   { return this.size; }
+    public int length() { return this.length; }
+
+    public void clear() {
+        this.size = 0;
+        Arrays.fill( this.table, 0 );
+    }
+
+    // add a state and its energy; return its id (the id of the same state if already there, then with the lowest energy)
+    public int add( CharSequence state, double energy ) {
+        if( state.length() != this.length )
+            throw new IllegalArgumentException( "state of length " + state.length() + " in an ensemble of length " + this.length + ": " + state );
+        if( this.size == this.energies.length ) this.grow();
+        int offset = this.size * this.stride;
+        int hash = pack( state, this.packed, offset );
+        int mask = this.table.length - 1;
+        for( int slot = mix( hash ) & mask; ; slot = ( slot + 1 ) & mask ) {
+            int id = this.table[slot] - 1;
+            if( id < 0 ) { // new state
+                this.table[slot] = this.size + 1;
+                this.hashes[this.size] = hash;
+                this.energies[this.size] = energy;
+                if( 2 * ++this.size > this.table.length ) this.rehash();
+                return this.size - 1;
+            }
+            if( this.hashes[id] == hash && Arrays.equals( this.packed, id * this.stride, ( id + 1 ) * this.stride, this.packed, offset, offset + this.stride ) ) {
+                this.energies[id] = Math.min( this.energies[id], energy );
+                return id;
+            }
+        }
+    }
+
+    public double getEnergy( int id ) { return this.energies[id]; }
+
+    // pack state on 4 bits per position into packed from offset, ( length + 1 ) / 2 bytes; return the hash of the codes
+    public static int pack( CharSequence state, byte[] packed, int offset ) {
+        int length = state.length();
+        Arrays.fill( packed, offset, offset + ( ( length + 1 ) >>> 1 ), (byte)0 );
+        int hash = 1;
+        for( int i = 0; i < length; i++ ) {
+            char c = state.charAt( i );
+            int code = c < 128 ? CODES[c] : -1;
+            if( code < 0 ) throw new IllegalArgumentException( "unexpected symbol '" + c + "' in state " + state );
+            packed[offset + ( i >>> 1 )] |= (byte)( code << ( ( i & 1 ) << 2 ) );
+            hash = 31 * hash + code;
+        }
+        return hash;
+    }
+
+    // symbol at position i of state id
+    public char symbol( int id, int i ) {
+        return SYMBOLS.charAt( ( this.packed[id * this.stride + ( i >>> 1 )] >>> ( ( i & 1 ) << 2 ) ) & 0xF );
+    }
+
+    // the dot bracket of state id, read in place
+    public CharSequence getState( int id ) {
+        return new CharSequence() {
+            public int length() { return PackedEnsemble.this.length; }
+            public char charAt( int i ) { return PackedEnsemble.this.symbol( id, i ); }
+            public CharSequence subSequence( int from, int to ) { return this.toString().substring( from, to ); }
+            @Override
+            public String toString() { return PackedEnsemble.this.toString( id ); }
+        };
+    }
+
+    // the dot bracket of state id, as a String
+    public String toString( int id ) {
+        char[] dotb = new char[this.length];
+        for( int i = 0; i < this.length; i++ ) dotb[i] = this.symbol( id, i );
+        return new String( dotb );
+    }
+
+    private void grow() {
+        int capacity = Math.max( 16, 2 * this.energies.length );
+        this.packed = Arrays.copyOf( this.packed, capacity * this.stride );
+        this.energies = Arrays.copyOf( this.energies, capacity );
+        this.hashes = Arrays.copyOf( this.hashes, capacity );
+    }
+
+    private void rehash() {
+        this.table = new int[2 * this.table.length];
+        int mask = this.table.length - 1;
+        for( int id = 0; id < this.size; id++ ) {
+            int slot = mix( this.hashes[id] ) & mask;
+            while( this.table[slot] != 0 ) slot = ( slot + 1 ) & mask;
+            this.table[slot] = id + 1;
+        }
+    }
+
+    private static int mix( int h ) {
+        h *= 0x9E3779B9;
+        return h ^ ( h >>> 16 );
+    }
+
+    // 64-bit fingerprint of state (FNV-1a, then the murmur3 finalizer)
+    public static long fingerprint( CharSequence state ) {
+        long h = 0xcbf29ce484222325L;
+        for( int i = 0; i < state.length(); i++ ) {
+            h ^= state.charAt( i );
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ ( h >>> 33 );
+    }
+
+    /** -------------------------------------------
+          StateSet
+            the states seen, by fingerprint, with their lowest energy and a
+            flag: 17 bytes per state, whatever its length.
+    */
+
+    public static final class StateSet {
+
+        private long[] keys = new long[16];
+        private double[] energies = new double[16];
+        private boolean[] flags = new boolean[16];
+        private boolean[] used = new boolean[16];
+        private int size = 0;
+
+        public int size() { return this.size; }
+
+        // slot of fingerprint if seen, otherwise -1 and fingerprint is added with energy and flag
+        //   a slot is valid until the next add
+        public int add( long fingerprint, double energy, boolean flag ) {
+            int slot = this.slot( fingerprint );
+            if( this.used[slot] ) return slot;
+            this.used[slot] = true;
+            this.keys[slot] = fingerprint;
+            this.energies[slot] = energy;
+            this.flags[slot] = flag;
+            if( 2 * ++this.size > this.keys.length ) this.rehash();
+            return -1;
+        }
+
+        public double  getEnergy( int slot )                { return this.energies[slot]; }
+        public void    setEnergy( int slot, double energy ) { this.energies[slot] = energy; }
+        public boolean getFlag( int slot )                  { return this.flags[slot]; }
+
+        public void clear() {
+            Arrays.fill( this.used, false );
+            this.size = 0;
+        }
+
+        private int slot( long fingerprint ) {
+            int mask = this.keys.length - 1;
+            int slot = (int)fingerprint & mask;
+            while( this.used[slot] && this.keys[slot] != fingerprint ) slot = ( slot + 1 ) & mask;
+            return slot;
+        }
+
+        private void rehash() {
+            long[] oldKeys = this.keys;
+            double[] oldEnergies = this.energies;
+            boolean[] oldFlags = this.flags;
+            boolean[] oldUsed = this.used;
+            int capacity = 2 * oldKeys.length;
+            this.keys = new long[capacity];
+            this.energies = new double[capacity];
+            this.flags = new boolean[capacity];
+            this.used = new boolean[capacity];
+            for( int slot = 0; slot < oldKeys.length; slot++ )
+                if( oldUsed[slot] ) {
+                    int s = this.slot( oldKeys[slot] );
+                    this.used[s] = true;
+                    this.keys[s] = oldKeys[slot];
+                    this.energies[s] = oldEnergies[slot];
+                    this.flags[s] = oldFlags[slot];
+                }
+        }
+    }
+
+    /** -------------------------------------------
+          Accumulator
+            sums and counts per int key, open addressing with linear probing.
+    */
+
+    public static final class Accumulator {
+
+        private int[] keys = new int[16];
+        private double[] sums = new double[16];
+        private int[] counts = new int[16];
+        private boolean[] used = new boolean[16];
+        private int size = 0;
+
+        public static int key( int i, int j ) { return ( i << 16 ) | j; }
+        public static int first( int key )    { return key >>> 16; }
+        public static int second( int key )   { return key & 0xFFFF; }
+
+        public int size() { return this.size; }
+
+        // add value to the sum of key and count it
+        public void add( int key, double value ) {
+            int slot = this.slot( key );
+            if( !this.used[slot] ) {
+                this.used[slot] = true;
+                this.keys[slot] = key;
+                if( 2 * ++this.size > this.keys.length ) {
+                    this.rehash();
+                    slot = this.slot( key );
+                }
+            }
+            this.sums[slot] += value;
+            this.counts[slot]++;
+        }
+
+        // add value to the sum of key, already counted (a correction)
+        public void addToSum( int key, double value ) {
+            int slot = this.slot( key );
+            if( this.used[slot] ) this.sums[slot] += value;
+        }
+
+        // multiply all the sums by factor
+        public void scale( double factor ) {
+            for( int slot = 0; slot < this.sums.length; slot++ ) this.sums[slot] *= factor;
+        }
+
+        public double getSum( int key ) {
+            int slot = this.slot( key );
+            return this.used[slot] ? this.sums[slot] : 0.0;
+        }
+
+        public int getCount( int key ) {
+            int slot = this.slot( key );
+            return this.used[slot] ? this.counts[slot] : 0;
+        }
+
+        // the keys, in increasing order
+        public int[] sortedKeys() {
+            int[] result = new int[this.size];
+            int n = 0;
+            for( int slot = 0; slot < this.keys.length; slot++ )
+                if( this.used[slot] ) result[n++] = this.keys[slot];
+            Arrays.sort( result );
+            return result;
+        }
+
+        public void clear() {
+            Arrays.fill( this.used, false );
+            Arrays.fill( this.sums, 0.0 );
+            Arrays.fill( this.counts, 0 );
+            this.size = 0;
+        }
+
+        // slot of key, or the empty slot where it goes
+        private int slot( int key ) {
+            int mask = this.keys.length - 1;
+            int slot = mix( key ) & mask;
+            while( this.used[slot] && this.keys[slot] != key ) slot = ( slot + 1 ) & mask;
+            return slot;
+        }
+
+        private void rehash() {
+            int[] oldKeys = this.keys;
+            double[] oldSums = this.sums;
+            int[] oldCounts = this.counts;
+            boolean[] oldUsed = this.used;
+            int capacity = 2 * oldKeys.length;
+            this.keys = new int[capacity];
+            this.sums = new double[capacity];
+            this.counts = new int[capacity];
+            this.used = new boolean[capacity];
+            for( int slot = 0; slot < oldKeys.length; slot++ )
+                if( oldUsed[slot] ) {
+                    int s = this.slot( oldKeys[slot] );
+                    this.used[s] = true;
+                    this.keys[s] = oldKeys[slot];
+                    this.sums[s] = oldSums[slot];
+                    this.counts[s] = oldCounts[slot];
+                }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.List;
+
+import java.io.IOException;
+
+/** -------------------------------------------
+      PooledFoldingEngine
+        folds with mcff on the long-lived workers of the McffWorkerPool.
+        Batches are pipelined on one worker. This is the default engine.
+*/
+
+public class PooledFoldingEngine extends ExternalFoldingEngine {
+
+    @Override
+    public String getName() { return "pooled"; }
+
+    @Override
+    protected List<String> run( String commandLine, long timeoutMillis ) throws IOException, InterruptedException {
+        return McffWorkerPool.getInstance().run( commandLine, timeoutMillis );
+    }
+
+    @Override
+    protected void stream( String commandLine, McffOutputParser parser, long timeoutMillis ) throws IOException, InterruptedException {
+        // the output is cut by head when possible; otherwise mcff is killed on the worker once the parser has enough
+        McffWorkerPool.getInstance().run( limitOutput( commandLine, parser ), parser::accept, timeoutMillis );
+    }
+
+    @Override
+    protected List<List<String>> runAll( List<String> commandLines, long timeoutMillis ) throws IOException, InterruptedException {
+        return McffWorkerPool.getInstance().runAll( commandLines, timeoutMillis ); // one worker round-trip per batch
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+/** -------------------------------------------
+      ProfileIndex
+        answers range queries on a base pair probability profile (one value
+        per nucleotide, NaN where no tile covers it) in constant time, for the
+        many short overlapping windows of the site annotation (seed, supp):
+          minimum and maximum  sparse tables, min[k][i] over [i, i + 2^k)
+          mean                 prefix sums of the unpaired probabilities
+        Ranges are [begin, end], end included, as in TiledSecondaryStructure.
+        The NaN are ignored; a range without a covered position has no
+        minimum (+infinity), no maximum (-infinity) and no mean (NaN).
+
+        Built once per profile, in O( n log n ), immutable.
+*/
+
+public final class ProfileIndex {
+
+    private final int length;
+    private final double[][] min;
+    private final double[][] max;
+    private final double[] unpairedSums; // unpairedSums[i]: sum of 1 - p over the covered positions before i
+    private final int[] covered; // covered[i]: number of covered positions before i
+
+    public ProfileIndex( double[] probabilities ) {
+        this.length = probabilities.length;
+        int levels = this.length == 0 ? 1 : 32 - Integer.numberOfLeadingZeros( this.length );
+        this.min = new double[levels][];
+        this.max = new double[levels][];
+        this.min[0] = new double[this.length];
+        this.max[0] = new double[this.length];
+        this.unpairedSums = new double[this.length + 1];
+        this.covered = new int[this.length + 1];
+        for( int i = 0; i < this.length; i++ ) {
+            double p = probabilities[i];
+            boolean isCovered = !Double.isNaN( p );
+            this.min[0][i] = isCovered ? p : Double.POSITIVE_INFINITY;
+            this.max[0][i] = isCovered ? p : Double.NEGATIVE_INFINITY;
+            this.unpairedSums[i + 1] = this.unpairedSums[i] + ( isCovered ? 1 - p : 0.0 );
+            this.covered[i + 1] = this.covered[i] + ( isCovered ? 1 : 0 );
+        }
+        for( int k = 1; k < levels; k++ ) {
+            int half = 1 << ( k - 1 );
+            int n = this.length - ( 1 << k ) + 1;
+            this.min[k] = new double[n];
+            this.max[k] = new double[n];
+            for( int i = 0; i < n; i++ ) {
+                this.min[k][i] = Math.min( this.min[k - 1][i], this.min[k - 1][i + half] );
+                this.max[k][i] = Math.max( this.max[k - 1][i], this.max[k - 1][i + half] );
+            }
+        }
+    }
+
+    public int length() { return this.length; }
+
+    // smallest base pair probability over [begin, end]
+    public double getMinimum( int begin, int end ) {
+        if( end < begin ) return Double.POSITIVE_INFINITY;
+        int k = 31 - Integer.numberOfLeadingZeros( end - begin + 1 );
+        return Math.min( this.min[k][begin], this.min[k][end - ( 1 << k ) + 1] );
+    }
+
+    // largest base pair probability over [begin, end]
+    public double getMaximum( int begin, int end ) {
+        if( end < begin ) return Double.NEGATIVE_INFINITY;
+        int k = 31 - Integer.numberOfLeadingZeros( end - begin + 1 );
+        return Math.max( this.max[k][begin], this.max[k][end - ( 1 << k ) + 1] );
+    }
+
+    // accessibility of [begin, end]: 1 - the smallest base pair probability (0 if none is below 1)
+    public double getAccessibility( int begin, int end ) {
+        return 1 - Math.min( 1.0, this.getMinimum( begin, end ) );
+    }
+
+    // mean unpaired probability (1 - p) over the covered positions of [begin, end]
+    public double getMeanUnpairedProbability( int begin, int end ) {
+        if( end < begin ) return Double.NaN;
+        int n = this.covered[end + 1] - this.covered[begin];
+        return n == 0 ? Double.NaN : ( this.unpairedSums[end + 1] - this.unpairedSums[begin] ) / n;
+    }
+
+    // batch forms: fill out[k] for the range [begins[k], ends[k]]
+
+    public void getAccessibility( int[] begins, int[] ends, double[] out ) {
+        for( int k = 0; k < begins.length; k++ ) out[k] = this.getAccessibility( begins[k], ends[k] );
+    }
+
+    public void getMeanUnpairedProbability( int[] begins, int[] ends, double[] out ) {
+        for( int k = 0; k < begins.length; k++ ) out[k] = this.getMeanUnpairedProbability( begins[k], ends[k] );
+    }
+
+    public void getMaximum( int[] begins, int[] ends, double[] out ) {
+        for( int k = 0; k < begins.length; k++ ) out[k] = this.getMaximum( begins[k], ends[k] );
+    }
+}
@@ -20,15 +20,12 @@ import java.util.HashMap;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
-import java.util.Stack;
 import java.util.List;
 import java.util.LinkedList;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Arrays;
 
-import java.lang.Runtime;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.io.IOException;
 
 
@@ -73,39 +70,34 @@ public class SecondaryStructure {
     public final static double T = 310.15;
 
     public static int countBPs( String sense, String antisense ) { // assume sense and antisense same size
-	String antiantisense = Utils.reverse( antisense ); // reverse the antisense, as it is given 5'->3'
-	int numBPs = 0;
-	for( int i = 0; i < sense.length(); i++ )
-	    if( StringSequence.canonicalGUBps.contains( Character.toString( sense.charAt( i ) ) + Character.toString( antiantisense.charAt( i ) ) ) ) numBPs++;
-	return numBPs;
+	return NucleotideKernels.countBPs( sense, antisense ); // the antisense is given 5'->3'
     }
 
     protected Double freeEnergy = 0.0; // of the MFE
-    protected List<Double> energies; // states' energies (mcff values)
-    protected List<Double> adjustedEnergies; // adjusted states' energies
+    protected boolean keepStates = KEEP_STATES; // keep the states of the ensemble, otherwise only the aggregates
+    protected PackedEnsemble ensemble; // states folded at the last -e value, packed, if kept
+    protected PackedEnsemble.StateSet seen = new PackedEnsemble.StateSet(); // fingerprints of the states streamed
+    protected List<Integer> solutionIds = new ArrayList<>(); // ensemble ids of the states of the solution set, if kept
+    protected int[] stateIds; // ensemble ids of the states of the folding result
+    protected double[] adjustedEnergies; // adjusted states' energies, same order as stateIds
     protected String state = ""; // of the MFE
     protected String shape = ""; // of the MFE
-    protected Set<String> states; // for all states
+    protected Set<String> states; // for all states, decoded from the ensemble on demand
     protected String strand; // strand to fold
     protected String mask = ""; // optional mask
     protected double e; // initial -e parameter for mcff
     protected String name = ""; // name when abstract shape is used
     protected String abstractShape; // abstract shape to be considered
-    protected List<String> shapes; // states' shapes
+    protected String[] shapes; // states' shapes, same order as stateIds
     protected boolean checkShape = false;
     protected int ultimateNumberOfStates = 0; // number in the entire conformational space
     protected int numberOfStates = 0; // number of states in the folding result
     protected int[] canonicalPairingCounts; // counts of canonical base pairs in states
     protected int[] noncanonicalPairingCounts; // counts of non-canonical base pairs in states
     protected int[] dotCounts; // counts of unpaired/singlestrandedness in states
-    protected Map<BasePair,Double> basePairs = new HashMap<>(); // base pairs
-    protected Map<BasePair,Integer> basePairCounts = new HashMap<>(); // counting the number of times we add energy to a base pair
-    protected Map<Loop,Double> loops = new HashMap<>(); // loops
-    protected Map<Loop,Integer> loopCounts = new HashMap<>(); // loop counts
+    protected PackedEnsemble.Accumulator basePairs = new PackedEnsemble.Accumulator(); // base pairs ( i<<16 | j ): energies and counts
+    protected PackedEnsemble.Accumulator loops = new PackedEnsemble.Accumulator(); // loops ( position<<16 | length ): energies and counts
     protected Map<String,Double> abstractShapes = new HashMap<>(); // abstract shapes
-    protected Map<String,Map<String,Double>> shapedStates = new HashMap<>(); // map of states per shape
-    protected Map<String,Set<BasePair>> statesBasePairs = new HashMap<>(); // list of base pairs per dotb
-    protected Map<String,Set<Loop>> statesLoops = new HashMap<>(); // list of loops per dotb
     protected Map<Loop,List<Loop>> pseudoknots = new HashMap<>(); // map of loop interactions
     protected double Z; // partition function for the conformational space
     protected double userT = T; // temperature
@@ -123,13 +115,20 @@ public class SecondaryStructure {
     // getters
 
     public double  getFreeEnergy()                         { return this.freeEnergy; }
-    public double  getFreeEnergy( int i )                  { return this.energies.get( i ); }
+    public double  getFreeEnergy( int i )                  { return this.ensemble.getEnergy( this.keptStateIds()[i] ); }
     public double  getX()                                  { return this.X; }
     public String  getState()                              { return this.state; }
-    public double  getStateProbability( int i )            { return this.adjustedEnergies.get( i ) / this.Z; }
+    public double  getStateProbability( int i )            { this.keptStateIds(); return this.adjustedEnergies[i] / this.Z; }
     public String  getShape()                              { return this.shape; }
-    public String  getShape( int i )                       { return this.shapes.get( i ); }
-    public Set<String> getStates()                         { return this.states; }
+    public String  getShape( int i )                       { this.keptStateIds(); return this.shapes[i]; }
+    public Set<String> getStates() {
+	if( this.states == null ) {
+	    Set<String> decoded = new LinkedHashSet<>();
+	    for( int id : this.keptStateIds() ) decoded.add( this.ensemble.toString( id ) );
+	    this.states = decoded;
+	}
+	return this.states;
+    }
     public double  getPartitionFunction()                  { return this.Z; }
     public double  getZ()                                  { return this.Z; }
     //public String  getState( int i )                 { return this.states.get( i ); }
@@ -140,27 +139,29 @@ public class SecondaryStructure {
     public int     getCanonicalCount( int i )              { return this.canonicalPairingCounts[i]; }
     public int     getReactivityCount( int i )             { return this.dotCounts[i]; }
     public List<BasePair> getBasePairs()                    {
-	List<BasePair> sortedBasePairs = new ArrayList<>( this.basePairs.keySet() );
-	Collections.sort( sortedBasePairs );
+	List<BasePair> sortedBasePairs = new ArrayList<>( this.basePairs.size() );
+	for( int key : this.basePairs.sortedKeys() )
+	    sortedBasePairs.add( new BasePair( PackedEnsemble.Accumulator.first( key ), PackedEnsemble.Accumulator.second( key ) ) );
 	return sortedBasePairs;
     }
     public List<Loop> getLoops()                           {
-	List<Loop> sortedLoops = new ArrayList<>( this.loops.keySet() );
-	Collections.sort( sortedLoops );
+	List<Loop> sortedLoops = new ArrayList<>( this.loops.size() );
+	for( int key : this.loops.sortedKeys() )
+	    sortedLoops.add( new Loop( PackedEnsemble.Accumulator.first( key ), PackedEnsemble.Accumulator.second( key ) ) );
 	return sortedLoops;
     }
     public Map<Loop,List<Loop>> getPseudoknots()           { return this.pseudoknots; }
     public Set<String> getAbstractShapes()                 { return this.abstractShapes.keySet(); }
-    public int     getNumberOfBasePairs()                  { return this.basePairs.keySet().size(); }
-    public int     getNumberOfLoops()                      { return this.loops.keySet().size(); }
+    public int     getNumberOfBasePairs()                  { return this.basePairs.size(); }
+    public int     getNumberOfLoops()                      { return this.loops.size(); }
     public int     getNumberOfAbstractShapes()             { return this.abstractShapes.keySet().size(); }
-    public double  getBasePairProbability( BasePair bp )   { return this.basePairs.get( bp ) / this.Z; }
-    public int     getBasePairCount( BasePair bp )         { return this.basePairCounts.get( bp ); }
-    public double  getLoopProbability( Loop l )            { return ( this.loops.get(l) == null ) ? 0.0 : this.loops.get(l) / this.Z; }
+    public double  getBasePairProbability( BasePair bp )   { return this.getBasePairEnergy( bp ) / this.Z; }
+    public int     getBasePairCount( BasePair bp )         { return this.basePairs.getCount( PackedEnsemble.Accumulator.key( bp.i, bp.j ) ); }
+    public double  getLoopProbability( Loop l )            { return this.getLoopEnergy( l ) / this.Z; }
     public double  getAbstractShapeProbability( String s ) { return this.abstractShapes.get( s ) / this.Z; }
-    public double  getBasePairEnergy( BasePair bp )        { return this.basePairs.get( bp ); }
-    public double  getLoopEnergy( Loop l )                 { return this.loops.get( l ); }
-    public int     getLoopCount( Loop l )                  { return ( this.loopCounts.get(l) == null ) ? 0 : this.loopCounts.get(l); }
+    public double  getBasePairEnergy( BasePair bp )        { return this.basePairs.getSum( PackedEnsemble.Accumulator.key( bp.i, bp.j ) ); }
+    public double  getLoopEnergy( Loop l )                 { return this.loops.getSum( PackedEnsemble.Accumulator.key( l.position, l.length ) ); }
+    public int     getLoopCount( Loop l )                  { return this.loops.getCount( PackedEnsemble.Accumulator.key( l.position, l.length ) ); }
     public double  getCanonicalPairingProbability( int i ) { return this.canonicalPairingProbabilities[i]; }
     public double  getReactivity( int i )                  { return this.reactivity[i]; }
     public int     getUltimateNumberOfStates()             { return this.ultimateNumberOfStates; }
@@ -188,27 +189,41 @@ public class SecondaryStructure {
     //}
 
 
-    private static final Set<String> validPairs = Set.of( "AU", "UA", "CG", "GC", "GU", "UG" );
+    // with a shape to check, stop the fold after that many states of the shape ($MAX_SHAPED_STATES, default 0: all states)
+    //   mcff -ns does not sort its states, so a limit may change the ensemble; it is a speed/exactness trade-off
+    private static final int MAX_SHAPED_STATES = maxShapedStates();
+
+    // keep the states of the ensemble, for getStates(), the per-state getters and sweep() (default); with $ENSEMBLE_STATES=0,
+    //   the fold only streams the aggregates (no per-state access, less memory for the large ensembles)
+    private static final boolean KEEP_STATES = !"0".equals( System.getenv( "ENSEMBLE_STATES" ) );
+
+    private static int maxShapedStates() {
+	String env = System.getenv( "MAX_SHAPED_STATES" );
+	return Utils.isValidInt( env ) ? Math.max( 0, Integer.parseInt( env.trim() ) ) : 0;
+    }
 
+    // the loops of sequence that may form a pseudoknot with a later loop: at least two valid base pairs (WC or GU) between
+    //   the nucleotides of the same rank of both loops, read in parallel or antiparallel
     public static Map<Loop,List<Loop>> computePK( String sequence, List<Loop> loops ) {
         Map<Loop,List<Loop>> pkMap = new HashMap<>();
+        int n = loops.size();
+        long[][] forward = new long[n][]; // bit planes of the loops, 5'->3'
+        long[][] backward = new long[n][]; // 3'->5'
+        for( int i = 0; i < n; i++ ) {
+            forward[i] = loopPlanes( sequence, loops.get( i ), false );
+            backward[i] = loopPlanes( sequence, loops.get( i ), true );
+        }
 
-        for( int i = 0; i < loops.size(); i++ ) {
+        for( int i = 0; i < n; i++ ) {
             Loop loop1 = loops.get( i );
-            int start1 = loop1.position;
-            int end1 = loop1.position + loop1.length;
+            if( loop1.length < 2 ) continue; // cannot hold two pairs
 
-            for( int j = i + 1; j < loops.size(); j++ ) {
+            for( int j = i + 1; j < n; j++ ) {
                 Loop loop2 = loops.get( j );
-                int start2 = loop2.position;
-                int end2 = loop2.position + loop2.length;
-
-                // Get substrings
-                String s1 = sequence.substring( start1, end1 );
-                String s2 = sequence.substring( start2, end2 );
+                int length = Math.min( loop1.length, loop2.length );
 
                 // Check for possible interaction: antiparallel or parallel
-                boolean interacts = canFormPK( s1, s2 ) || canFormPK( s1, new StringBuilder( s2 ).reverse().toString() );
+                boolean interacts = canFormPK( forward[i], forward[j], length ) || canFormPK( forward[i], backward[j], length );
                 if( interacts ) {
                     pkMap.computeIfAbsent( loop1, k -> new ArrayList<>()).add( loop2 );
                 }
@@ -217,88 +232,82 @@ public class SecondaryStructure {
         return pkMap;
     }
 
-    // Checks if at least two valid base pairs exist between s1 and s2
-    private static boolean canFormPK( String s1, String s2 ) {
-        int count = 0;
-        int len = Math.min( s1.length(), s2.length() );
+    // the nucleotides of loop in 4 bit planes (A, C, G, U), words long each: bit k of planes[c * words + k / 64] is set
+    //   if nucleotide k of the loop (from its 3' end if reversed) is c; other symbols set no bit, as they do not pair
+    private static long[] loopPlanes( String sequence, Loop loop, boolean reversed ) {
+        int words = ( loop.length + 63 ) >>> 6;
+        long[] planes = new long[4 * words];
+        for( int k = 0; k < loop.length; k++ ) {
+            int c = "ACGU".indexOf( sequence.charAt( reversed ? loop.position + loop.length - 1 - k : loop.position + k ) );
+            if( c >= 0 ) planes[c * words + ( k >>> 6 )] |= 1L << k;
+        }
+        return planes;
+    }
 
-        for( int i = 0; i < len; i++ ) {
-            String pair = "" + s1.charAt(i) + s2.charAt(i);
-            if( validPairs.contains( pair ) ) {
-                count++;
-                if( count >= 2 ) return true;
-            }
+    // Checks if at least two valid base pairs exist between the first length nucleotides of s1 and s2 (loopPlanes),
+    //   64 ranks at a time (the bits beyond the shorter loop are 0)
+    private static boolean canFormPK( long[] s1, long[] s2, int length ) {
+        int words1 = s1.length >>> 2;
+        int words2 = s2.length >>> 2;
+        int count = 0;
+        for( int w = 0; w << 6 < length; w++ ) {
+            long pairs = ( s1[w] & s2[3 * words2 + w] )                                // A-U
+                | ( s1[words1 + w] & s2[2 * words2 + w] )                              // C-G
+                | ( s1[2 * words1 + w] & ( s2[words2 + w] | s2[3 * words2 + w] ) )     // G-C, G-U
+                | ( s1[3 * words1 + w] & ( s2[w] | s2[2 * words2 + w] ) );             // U-A, U-G
+            count += Long.bitCount( pairs );
+            if( count >= 2 ) return true;
         }
         return false;
     }
 
-    public static String computeMotifs(
-				       String dotBracket,
-				       Map<String,Set<BasePair>> statesBasePairs,
-				       Map<String,Set<Loop>> statesLoops ) {
-	// Step 1: Remove dots and keep track of original indices
-	StringBuilder filtered = new StringBuilder();
-	List<Integer> originalIndices = new ArrayList<>();
-	List<Integer> dotIndices = new ArrayList<>();
-	for (int i = 0; i < dotBracket.length(); i++) {
-	    char c = dotBracket.charAt( i );
-	    if( c != '.' ) { // collect parentheses and their original indices
-		filtered.append( c );
-		originalIndices.add( i );
-	    }
-	    else // collect dot indices
-		dotIndices.add( i );
-	}
+    // abstract shape of a dot bracket, same as computeMotifs() returns, without collecting bps and loops
+    public static String computeAbstractShape( String dotBracket ) {
+	return abstractShape( DotBracket.local().parseParentheses( dotBracket ) );
+    }
 
-	// Step 2A: Find base pairs
-	Stack<Integer> stack = new Stack<>();
-	Map<Integer, Integer> bps = new HashMap<>();
-	
-	for( int i = 0; i < filtered.length(); i++ ) {
-	    if( filtered.charAt(i) == '(' ) {
-		stack.push( i );
-	    } else if( filtered.charAt( i ) == ')' ) {
-		int open = stack.pop();
-		bps.put( open, i );
-
-		// Add base pairs using original indices; assume basePairs != null; discipline the users
-		int i_orig = originalIndices.get( open );
-		int j_orig = originalIndices.get( i );
-		statesBasePairs.computeIfAbsent( dotBracket, k -> new HashSet<>()).add( new BasePair( i_orig, j_orig ) );
+    // the dot bracket without its dots, and without the ( ) of the pairs stacked on the next pair (dots ignored)
+    static String abstractShape( DotBracket dotb ) {
+	int n = dotb.length();
+	boolean[] toRemove = new boolean[n];
+	int previous = -1; // previous non-dot position
+	for( int i = 0; i < n; i++ ) {
+	    if( dotb.isUnpaired( i ) ) continue;
+	    // previous and i are adjacent openings, once the dots are removed
+	    if( previous >= 0 && dotb.partner( previous ) > previous && dotb.partner( i ) > i ) {
+		int j = dotb.partner( previous ) - 1; // the closing of i must be right before the one of previous
+		while( dotb.isUnpaired( j ) ) j--;
+		if( j == dotb.partner( i ) ) toRemove[previous] = toRemove[dotb.partner( previous )] = true;
 	    }
+	    previous = i;
 	}
+	StringBuilder result = new StringBuilder( n );
+	for( int i = 0; i < n; i++ )
+	    if( !dotb.isUnpaired( i ) && !toRemove[i] ) result.append( dotb.symbol( i ) );
+	return result.toString();
+    }
 
-	// Step 2B: Find loops
-        for( int i = 0; i < dotIndices.size(); i++ ) {
-	    int start = dotIndices.get( i );
-	    int length = 1;
-            while( i + 1 < dotIndices.size() && dotIndices.get( i + 1 ) == dotIndices.get( i ) + 1 ) {
-		i++;
-                length++;
-	    }
-	    statesLoops.computeIfAbsent( dotBracket, k -> new HashSet<>()).add( new Loop( start, length ) );
-	}
+    // collect the base pairs and loops (runs of dots) of dotBracket in statesBasePairs and statesLoops; return its abstract shape
+    //   the motifs of a state are computed once, see MotifMemo
+    public static String computeMotifs(
+				       String dotBracket,
+				       Map<String,Set<BasePair>> statesBasePairs,
+				       Map<String,Set<Loop>> statesLoops ) {
+	MotifMemo.Motifs motifs = MotifMemo.getInstance().get( dotBracket );
 
-	// Step 3: Mark parentheses to remove
-	boolean[] toRemove = new boolean[filtered.length()];
-	for (int i = 0; i < filtered.length() - 1; i++) {
-	    Integer j1 = bps.get(i);
-	    Integer j2 = bps.get(i + 1);
-	    if (j1 != null && j2 != null && j1 == j2 + 1) {
-		toRemove[i] = true;
-		toRemove[j1] = true;
-	    }
+	// base pairs; assume basePairs != null; discipline the users
+	if( motifs.getBasePairs().length > 0 ) {
+	    Set<BasePair> bps = statesBasePairs.computeIfAbsent( dotBracket, k -> new HashSet<>() );
+	    for( int key : motifs.getBasePairs() ) bps.add( new BasePair( PackedEnsemble.Accumulator.first( key ), PackedEnsemble.Accumulator.second( key ) ) );
 	}
 
-	// Step 4: Build final shape
-	StringBuilder result = new StringBuilder();
-	for (int i = 0; i < filtered.length(); i++) {
-	    if (!toRemove[i]) {
-		result.append(filtered.charAt(i));
-	    }
+	// loops
+	if( motifs.getLoops().length > 0 ) {
+	    Set<Loop> loops = statesLoops.computeIfAbsent( dotBracket, k -> new HashSet<>() );
+	    for( int key : motifs.getLoops() ) loops.add( new Loop( PackedEnsemble.Accumulator.first( key ), PackedEnsemble.Accumulator.second( key ) ) );
 	}
 
-	return result.toString();
+	return motifs.getShape();
     }
 
     // public static String computeAbstractShape2( String dotBracket ) {
@@ -328,10 +337,6 @@ public class SecondaryStructure {
 	this.canonicalPairingProbabilities = new double[this.strand.length()];
 	this.noncanonicalPairingProbabilities = new double[this.strand.length()];
 	this.reactivity = new double[this.strand.length()];
-	this.states = new LinkedHashSet<String>();
-	this.energies = new ArrayList<Double>();
-	this.adjustedEnergies = new ArrayList<Double>();
-	this.shapes = new ArrayList<String>();
 	this.Z = 0.0; // initialize partition function
 	this.RT = this.userT * R;
 	this.fold(); // set this.state and this.freeEnergy
@@ -349,10 +354,6 @@ public class SecondaryStructure {
 	this.canonicalPairingProbabilities = new double[this.strand.length()];
 	this.noncanonicalPairingProbabilities = new double[this.strand.length()];
 	this.reactivity = new double[this.strand.length()];
-	this.states = new LinkedHashSet<String>();
-	this.energies = new ArrayList<Double>();
-	this.adjustedEnergies = new ArrayList<Double>();
-	this.shapes = new ArrayList<String>();
 	this.Z = 0.0; // initialize partition function
 	this.RT = this.userT * R;
 	this.fold(); // set this.state and this.freeEnergy
@@ -414,10 +415,6 @@ public class SecondaryStructure {
 	this.flexibilityMask = " " + Utils.convertToNrFormat( highFlx, " 8" );
 	this.flexibilityMask += Utils.convertToNrFormat( mediumFlx, " 4" );
 	this.flexibilityMask += Utils.convertToNrFormat( lowFlx, " 1" );
-	this.states = new LinkedHashSet<String>();
-	this.energies = new ArrayList<Double>();
-	this.adjustedEnergies = new ArrayList<Double>();
-	this.shapes = new ArrayList<String>();
 	this.Z = 0.0; // initialize partition function
 	this.RT = this.userT * R;
 	this.fold();
@@ -443,41 +440,53 @@ public class SecondaryStructure {
     // Forms the 2D structure of this.strand using mcff with provided -e initial parameter
     //    remove duplicated states (yes, this happens with mc-flashfold)
     public void fold() {
+	try( FoldMetrics.Fold metrics = FoldMetrics.getInstance().start( "secondaryStructure" ) ) {
+	    this.climb();
+	    metrics.completed();
+	}
+    }
+
+    // the threshold ladder of fold()
+    private void climb() {
 	//System.out.println( "fold " + this.strand + " shape => " + this.abstractShape );
 	// lists to store dotb (states) and their energies)
 	String mfeState = "";
 	this.canonicalPairingCounts = new int[this.strand.length()]; // assume initialized to 0
 	this.noncanonicalPairingCounts = new int[this.strand.length()]; // assume initialized to 0
 	this.dotCounts = new int[this.strand.length()]; // assume initialized to 0
+	this.newStream();
 
 	// ********** MC-FOLD **********
 	// *****************************
 
-	String mcff = "";
 	String commandLine = "";
-	double theEvalue = this.e;
+	// start at the memoized successful level of this threshold ladder (which depends on the shape), if any
+	String ladderKey = FoldRequest.ensemble( this.strand, this.mask, this.e, this.flexibilityMask ).key() + "|" + ( this.checkShape ? this.abstractShape : "" );
+	double theEvalue = FoldEscalation.getInstance().startLevel( ladderKey, this.e );
+	int levelsFolded = 0;
+	boolean failed = false; // a level threw, the ladder is not memoized
 	double mfe = 0.0;
 	String mfeShape = "";
 	this.freeEnergy = 0.0;
+	this.X = 0.0; // the mfe is 0.0 until a lower energy comes
 	int numberWithAbstractShape = 0; // number of states with the requested shape
+	this.ensemble = this.keepStates ? new PackedEnsemble( this.strand.length() ) : null;
+	this.states = null;
 	while( this.freeEnergy == 0.0 && theEvalue < 20 ) {
+	    levelsFolded++;
 	    this.ultimateNumberOfStates = 0;
 	    //System.out.println( "fold( " + theEvalue + " )" );
-	    // build the mcff command line using mask and e received as constructor's arguments
-	    if( !this.mask.isEmpty() )
-		mcff = "mcff -s " + this.strand + " -ns " + " -m " + this.mask + " -t " + theEvalue + this.flexibilityMask;
-	    else
-		mcff = "mcff -s " + this.strand + " -ns " + " -t " + theEvalue + this.flexibilityMask;
-
+	    // build the request using mask and e received as constructor's arguments
+	    FoldRequest request = FoldRequest.ensemble( this.strand, this.mask, theEvalue, this.flexibilityMask );
+	    if( this.checkShape && MAX_SHAPED_STATES > 0 ) request = request.withMaxStates( MAX_SHAPED_STATES, this.abstractShape );
 	    // save commandLine for further analyis (maybe)
-	    commandLine = mcff;
-	    //System.out.println( mcff );
-	    String[] commands = { "bash", "-c", mcff };
-
+	    commandLine = request.commandLine();
+	    //System.out.println( commandLine );
+	    FoldResult folded = new FoldResult( new String[0], new double[0], theEvalue );
 	    try {
-		Process process = Runtime.getRuntime().exec( commands );
-		BufferedReader reader =
-		    new BufferedReader( new InputStreamReader( process.getInputStream() ) );
+		// fold with the configured engine (mcff by default)
+		folded = FoldingEngines.get().fold( request );
+		FoldMetrics.getInstance().level( folded );
 		/*
 		  mcff output example: NOTE, using the -ns option does not generate the abstract shapes
 		  (((((((((((((.((((..))))(((..)))))))))))))).))(((((....))))) -60.958
@@ -488,121 +497,53 @@ public class SecondaryStructure {
 		  ((((((((((((.(((((..))))(((..)))))))))))))).))((((((..)))))) -59.155
 		  ...
 		*/
-
-		String line;
-		double energy;
-		String state;
-		String shape;
-		// skip 3 lines in some mcff modes
-		//line = reader.readLine();
-		//line = reader.readLine();
-		//line = reader.readLine();
-
-		// read dotbs and energies, save in shapedStates
-		while( ( line = reader.readLine() ) != null ) {
-		    String[] splitLine = line.split( " ", 2 ); // dotb + energy
-		    state = splitLine[0];
-		    this.ultimateNumberOfStates++;
-		    energy = Double.parseDouble( splitLine[1] );
-		    // compute shape and add it to statesBasePairs and statesLoops
-		    shape = computeMotifs( state, this.statesBasePairs, this.statesLoops );
-		    if( energy < mfe ) { // adjust global mfe (we use mcff -ns)
-			mfe = energy;
-			mfeState = state;
-			mfeShape = shape;
-		    }
-		    this.shapedStates.computeIfAbsent( shape, k -> new HashMap<>() ).put( state, energy );
-		}
-		reader.close();
-	    } catch (IOException exc ) {
+	    } catch( IOException exc ) {
+		failed = true;
+		exc.printStackTrace();
+	    } catch( InterruptedException exc ) {
+		failed = true;
 		exc.printStackTrace();
 	    }
 
-	    if( this.checkShape ) {
-		Map<String, Double> states = this.shapedStates.get( this.abstractShape );
-		numberWithAbstractShape = ( states != null ) ? states.size() : 0;
+	    // stream the states into the partition function (a repeated state keeps its lowest energy)
+	    for( int k = 0; k < folded.size(); k++ ) {
+		String state = folded.getState( k );
+		double energy = folded.getEnergy( k );
+		this.ultimateNumberOfStates++;
+		MotifMemo.Motifs motifs = MotifMemo.getInstance().get( state );
+		if( energy < mfe ) { // adjust global mfe (we use mcff -ns), and the reference of the weights
+		    mfe = energy;
+		    mfeState = state;
+		    mfeShape = motifs.getShape();
+		    this.rebase( -mfe / this.RT );
+		}
+		this.accumulate( state, energy, motifs );
 	    }
+
+	    if( this.checkShape ) numberWithAbstractShape = this.numberOfStates;
 	    else numberWithAbstractShape = this.ultimateNumberOfStates; // include duplicates
 
 	    if( numberWithAbstractShape == 0 ) {
 		theEvalue += 1; // 1.0 increment of the -e parameter
 		//System.out.println( "increasing -e value to " + theEvalue + " for " + this.name );
-		this.shapedStates.clear(); // clear previously accumulated shapedStates
+		this.newStream(); // clear previously accumulated states
 	    }
 	    else { // assign freeEnergy and state
 		this.freeEnergy = mfe;
 		this.state = mfeState;
 		this.shape = mfeShape;
-		this.X = -this.freeEnergy / this.RT; // determine adjustment's factor
-		this.Z = 0.0; // initial partition function
-
-		// extract the states from shapedStates
-		Set<Map.Entry<String,Double>> statesToConsider = new HashSet<>();
-		if( this.checkShape ) {
-		    Map<String,Double> shapeMap = this.shapedStates.get( this.abstractShape );
-		    if( shapeMap != null ) {
-			statesToConsider.addAll( shapeMap.entrySet() );
-			for( int i = 0; i < shapeMap.size(); i++ ) this.shapes.add( this.abstractShape );
-		    }
-		} else {
-		    // flatten all states from all shapes
-		    for( Map.Entry<String,Map<String, Double>> shapeEntry : this.shapedStates.entrySet() ) {
-			String shape = shapeEntry.getKey();
-			Map<String,Double> subMap = shapeEntry.getValue();
-			statesToConsider.addAll( subMap.entrySet() );
-			for( int i = 0; i < subMap.size(); i++ ) this.shapes.add( shape ); // check this, maybe not necessary to loop the subMap?
-		    }
-		}
-
-		// construct the solution set
-		int stateIndex = 0;
-		for( Map.Entry<String, Double> innerEntry : statesToConsider ) {
-		    String dotb = innerEntry.getKey();
-		    Double energy = innerEntry.getValue();
-		    this.states.add( dotb ); // add state
-		    this.energies.add( energy ); // add mcff energy
-		    energy = Math.exp( -energy / this.RT - this.X ); // adjust for partition function
-		    this.adjustedEnergies.add( energy );
-		    this.Z += energy; // adjusted accumulate partition function
-		    // compute the basePairs energies
-		    for( BasePair bp: this.statesBasePairs.get( dotb ) ) {
-			this.basePairs.merge( bp, energy, Double::sum );
-			this.basePairCounts.merge( bp, 1, Integer::sum );
-		    }
-		    // compute the loops energies
-		    for( Loop l: this.statesLoops.get( dotb ) ) {
-			this.loops.merge( l, energy, Double::sum );
-			this.loopCounts.merge( l, 1, Integer::sum );
-		    }
-		    // compute the abstract shapes energies
-		    this.abstractShapes.merge( this.shapes.get( stateIndex++ ), energy, Double::sum );
-		}
-
-		// sort the base pairs and loops
-		
-
-		// stats of the pairing and total energy
-		for( String state: this.states ) {
-		    for( int i = 0; i < state.length(); i++ ) {
-			char current = state.charAt( i );
-			if( current == ccanonical5 ||
-			    current == ccanonical3 ) this.canonicalPairingCounts[i]++;
-			else if( current == csingle ) this.dotCounts[i]++;
-			else if( current == cnonCanonical5 ||
-				 current == cnonCanonical3 ) this.noncanonicalPairingCounts[i]++;
-		    }
-		}
+		if( this.keepStates ) this.keepSolution();
 	    }
 	} // end while( this.freeEnergy == 0.0 && theEvalue < 20 ) {
 
 	// compute pairing and base pair probabilities
 	if( this.freeEnergy == 0.0 ) Utils.stop( "Cannot fold or no conformation found: " + commandLine, 0 );
+	FoldEscalation.getInstance().record( ladderKey, this.e, theEvalue, levelsFolded, failed );
 	// assign canonical bp probabilities
-	this.numberOfStates = this.states.size();
 	for( int i = 0; i < this.strand.length(); i++ ) {
-	    this.canonicalPairingProbabilities[i] = (double)this.canonicalPairingCounts[i] / states.size();
-	    this.noncanonicalPairingProbabilities[i] = (double)this.noncanonicalPairingCounts[i] / states.size();
-	    this.reactivity[i] = (double)this.dotCounts[i] / states.size();
+	    this.canonicalPairingProbabilities[i] = (double)this.canonicalPairingCounts[i] / this.numberOfStates;
+	    this.noncanonicalPairingProbabilities[i] = (double)this.noncanonicalPairingCounts[i] / this.numberOfStates;
+	    this.reactivity[i] = (double)this.dotCounts[i] / this.numberOfStates;
 	}
 
 	// compute pseudoknots
@@ -610,6 +551,102 @@ public class SecondaryStructure {
 	this.e = theEvalue;
     }
 
+    // The partition function is streamed: each state is weighted exp( -E/RT - X ) as it comes and
+    //   added to Z and to the aggregates (base pairs, loops, shapes, pairing counts), then dropped.
+    //   X, the log of the largest weight (-mfe/RT), is a running maximum: when a lower energy comes,
+    //   the aggregates are rescaled by exp( X - X' ) (log-sum-exp), so no weight ever overflows.
+    //   The fingerprints of the states are kept, to take a repeated state once (at its lowest energy), and the states
+    //   are kept packed for getStates() and the per-state getters, unless $ENSEMBLE_STATES=0 (fingerprints only).
+
+    // start an empty stream (at the start of the ladder, and when a level gives no state)
+    //   X stays with the mfe, that is kept from a level to the next
+    private void newStream() {
+	this.Z = 0.0;
+	this.numberOfStates = 0;
+	this.basePairs.clear();
+	this.loops.clear();
+	this.abstractShapes.clear();
+	Arrays.fill( this.canonicalPairingCounts, 0 );
+	Arrays.fill( this.noncanonicalPairingCounts, 0 );
+	Arrays.fill( this.dotCounts, 0 );
+	this.seen.clear();
+	if( this.ensemble != null ) this.ensemble.clear();
+	this.solutionIds.clear();
+    }
+
+    // move the reference of the weights to x (x > X): rescale what is accumulated
+    private void rebase( double x ) {
+	double factor = Math.exp( this.X - x );
+	this.X = x;
+	if( this.Z == 0.0 ) return;
+	this.Z *= factor;
+	this.basePairs.scale( factor );
+	this.loops.scale( factor );
+	this.abstractShapes.replaceAll( ( shape, weight ) -> weight * factor );
+    }
+
+    // add a state of the stream
+    private void accumulate( String state, double energy, MotifMemo.Motifs motifs ) {
+	boolean inSolution = !this.checkShape || motifs.getShape().equals( this.abstractShape );
+	int seenSlot = this.seen.add( PackedEnsemble.fingerprint( state ), energy, inSolution );
+	if( this.ensemble != null ) {
+	    int id = this.ensemble.add( state, energy );
+	    if( seenSlot < 0 && inSolution ) this.solutionIds.add( id );
+	}
+	if( !inSolution ) return;
+	double weight = Math.exp( -energy / this.RT - this.X );
+	if( seenSlot >= 0 ) { // repeated: a lower energy adds the difference of the weights (never subtracted, no cancellation)
+	    double previous = this.seen.getEnergy( seenSlot );
+	    if( energy >= previous ) return;
+	    this.seen.setEnergy( seenSlot, energy );
+	    double delta = weight - Math.exp( -previous / this.RT - this.X );
+	    this.Z += delta;
+	    for( int key : motifs.getBasePairs() ) this.basePairs.addToSum( key, delta );
+	    for( int key : motifs.getLoops() ) this.loops.addToSum( key, delta );
+	    this.abstractShapes.merge( motifs.getShape(), delta, Double::sum );
+	    return;
+	}
+	this.numberOfStates++;
+	this.Z += weight; // adjusted accumulate partition function
+	for( int key : motifs.getBasePairs() ) this.basePairs.add( key, weight );
+	for( int key : motifs.getLoops() ) this.loops.add( key, weight );
+	this.abstractShapes.merge( motifs.getShape(), weight, Double::sum );
+	// stats of the pairing
+	for( int i = 0; i < state.length(); i++ ) {
+	    char current = state.charAt( i );
+	    if( current == ccanonical5 ||
+		current == ccanonical3 ) this.canonicalPairingCounts[i]++;
+	    else if( current == csingle ) this.dotCounts[i]++;
+	    else if( current == cnonCanonical5 ||
+		     current == cnonCanonical3 ) this.noncanonicalPairingCounts[i]++;
+	}
+    }
+
+    // reweight the solution set at each of the temperatures (K) without refolding, see TemperatureSweep;
+    //   works on any SecondaryStructure, except with $ENSEMBLE_STATES=0 (states not kept)
+    public TemperatureSweep sweep( double... temperatures ) {
+	return new TemperatureSweep( this.ensemble, this.keptStateIds(), temperatures );
+    }
+
+    // the ensemble ids of the states of the solution set; the states are kept unless $ENSEMBLE_STATES=0
+    private int[] keptStateIds() {
+	if( this.stateIds == null ) throw new IllegalStateException( "the states of the ensemble are not kept (ENSEMBLE_STATES=0)" );
+	return this.stateIds;
+    }
+
+    // the states of the solution set, kept unless $ENSEMBLE_STATES=0
+    private void keepSolution() {
+	int n = this.solutionIds.size();
+	this.stateIds = new int[n];
+	this.shapes = new String[n];
+	this.adjustedEnergies = new double[n];
+	for( int s = 0; s < n; s++ ) {
+	    this.stateIds[s] = this.solutionIds.get( s );
+	    this.shapes[s] = MotifMemo.getInstance().get( this.ensemble.getState( this.stateIds[s] ) ).getShape();
+	    this.adjustedEnergies[s] = Math.exp( -this.ensemble.getEnergy( this.stateIds[s] ) / this.RT - this.X );
+	}
+    }
+
     // Override
     public String toString() {
 	String out = "";
@@ -26,21 +26,7 @@ public class Site implements Comparable<Site> {
 
     // check if the site is accessible (4 dots in a row) in a given conformational state
     public boolean accessible( String state ) {
-	int minExp = Math.min( this.length, 4 );
-	String subseq = state.substring( this.position, this.position + this.length );
-
-	int consecutive = 0;
-	for( int i = 0; i < subseq.length(); i++ ) {
-	    if( subseq.charAt(i) == '.' ) {
-		consecutive++;
-		if( consecutive >= minExp ) {
-		    return true; // found 4 consecutive dots
-		}
-	    } else {
-		consecutive = 0; // reset streak
-	    }
-	}
-	return false;
+	return DotBracket.hasUnpairedRun( state, this.position, this.position + this.length, Math.min( this.length, 4 ) );
     }
 
     @Override
@@ -52,11 +52,7 @@ public class StringSequence implements Sequence {
     }
 
     public static int countBPs( String sense, String antisense ) { // assume sense and antisense same size
-	String antiantisense = Utils.reverse( antisense ); // reverse the antisense, as it is given 5'->3'
-	int numBPs = 0;
-	for( int i = 0; i < sense.length(); i++ )
-	    if( canonicalGUBps.contains( Character.toString( sense.charAt( i ) ) + Character.toString( antiantisense.charAt( i ) ) ) ) numBPs++;
-	return numBPs;
+	return NucleotideKernels.countBPs( sense, antisense ); // the antisense is given 5'->3'
     }
 
     private String sequence = "";
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/** -------------------------------------------
+      TemperatureSweep
+        reweights a folded ensemble (states and energies) at several
+        temperatures without refolding: the Boltzmann weights, the partition
+        function, the pairing, base pair and abstract shape probabilities are
+        computed for all the temperatures in one pass over the states. The
+        weights of a state are a row of exp( -( E - mfe )/RT ), one per
+        temperature, added to the rows of its nucleotides, base pairs and
+        shape (contiguous per key, the inner loops run over the temperatures).
+
+        The energies are the mcff energies (37C parameters), kept as is: only
+        RT changes, not the energy model. The ensemble is the one folded (the
+        -e window above the mfe); the states beyond it are missing at every
+        temperature, more so at the high ones.
+
+        Unlike SecondaryStructure, whose pairing probabilities count the
+        states, the pairing probabilities of a sweep are Boltzmann weighted.
+        Temperatures are in K and addressed by their index t.
+*/
+
+public final class TemperatureSweep {
+
+    private final int length; // of the strand
+    private final double[] temperatures;
+    private final double[] rts; // R * temperature
+    private final int numberOfStates;
+    private final double mfe;
+    private final double[] partitionFunctions; // [t]: sum of exp( -( E - mfe )/RT )
+    private final double[] canonical; // [i * nt + t]: canonical pairing probability of nucleotide i
+    private final double[] noncanonical; // [i * nt + t]
+    private final double[] unpaired; // [i * nt + t]: reactivity of nucleotide i
+    private final int[] basePairKeys; // ( i<<16 | j ), increasing
+    private final double[] basePairs; // [k * nt + t]: probability of the base pair of key k
+    private final Map<String,double[]> abstractShapes = new HashMap<>(); // [t]
+
+    // the states ids of ensemble (all its states if ids is null) at each of the temperatures
+    public TemperatureSweep( PackedEnsemble ensemble, int[] ids, double... temperatures ) {
+        if( temperatures.length == 0 ) throw new IllegalArgumentException( "TemperatureSweep needs at least one temperature" );
+        if( ids == null ) {
+            ids = new int[ensemble.size()];
+            for( int s = 0; s < ids.length; s++ ) ids[s] = s;
+        }
+        int nt = temperatures.length;
+        this.length = ensemble.length();
+        this.temperatures = temperatures.clone();
+        this.rts = new double[nt];
+        for( int t = 0; t < nt; t++ ) {
+            if( !( temperatures[t] > 0 ) ) throw new IllegalArgumentException( "temperature " + temperatures[t] + " K" );
+            this.rts[t] = SecondaryStructure.R * temperatures[t];
+        }
+        this.numberOfStates = ids.length;
+
+        // the motifs of the states, and the base pairs they hold
+        MotifMemo.Motifs[] motifs = new MotifMemo.Motifs[ids.length];
+        PackedEnsemble.Accumulator keys = new PackedEnsemble.Accumulator();
+        double mfe = Double.POSITIVE_INFINITY;
+        for( int s = 0; s < ids.length; s++ ) {
+            motifs[s] = MotifMemo.getInstance().get( ensemble.getState( ids[s] ) );
+            for( int key : motifs[s].getBasePairs() ) keys.add( key, 0.0 );
+            mfe = Math.min( mfe, ensemble.getEnergy( ids[s] ) );
+        }
+        this.mfe = mfe;
+        this.basePairKeys = keys.sortedKeys();
+
+        // sum the weights of the states, all temperatures at once
+        this.partitionFunctions = new double[nt];
+        this.canonical = new double[this.length * nt];
+        this.noncanonical = new double[this.length * nt];
+        this.unpaired = new double[this.length * nt];
+        this.basePairs = new double[this.basePairKeys.length * nt];
+        double[] weights = new double[nt];
+        for( int s = 0; s < ids.length; s++ ) {
+            double delta = ensemble.getEnergy( ids[s] ) - mfe; // >= 0, no overflow
+            for( int t = 0; t < nt; t++ ) weights[t] = Math.exp( -delta / this.rts[t] );
+            addTo( this.partitionFunctions, 0, weights );
+            for( int i = 0; i < this.length; i++ ) {
+                char current = ensemble.symbol( ids[s], i );
+                if( current == SecondaryStructure.ccanonical5 || current == SecondaryStructure.ccanonical3 ) addTo( this.canonical, i * nt, weights );
+                else if( current == SecondaryStructure.csingle ) addTo( this.unpaired, i * nt, weights );
+                else if( current == SecondaryStructure.cnonCanonical5 || current == SecondaryStructure.cnonCanonical3 ) addTo( this.noncanonical, i * nt, weights );
+            }
+            for( int key : motifs[s].getBasePairs() ) addTo( this.basePairs, Arrays.binarySearch( this.basePairKeys, key ) * nt, weights );
+            addTo( this.abstractShapes.computeIfAbsent( motifs[s].getShape(), shape -> new double[nt] ), 0, weights );
+        }
+
+        // normalize
+        if( ids.length == 0 ) return;
+        normalize( this.canonical, this.partitionFunctions );
+        normalize( this.noncanonical, this.partitionFunctions );
+        normalize( this.unpaired, this.partitionFunctions );
+        normalize( this.basePairs, this.partitionFunctions );
+        for( double[] shape : this.abstractShapes.values() ) normalize( shape, this.partitionFunctions );
+    }
+
+    // the states of folded (a repeated state once, at its lowest energy) at each of the temperatures
+    public TemperatureSweep( FoldResult folded, double... temperatures ) {
+        this( pack( folded ), null, temperatures );
+    }
+
+    private static PackedEnsemble pack( FoldResult folded ) {
+        PackedEnsemble ensemble = new PackedEnsemble( folded.size() == 0 ? 0 : folded.getState( 0 ).length() );
+        for( int k = 0; k < folded.size(); k++ ) ensemble.add( folded.getState( k ), folded.getEnergy( k ) );
+        return ensemble;
+    }
+
+    // rows[offset + t] += weights[t]
+    private static void addTo( double[] rows, int offset, double[] weights ) {
+        for( int t = 0; t < weights.length; t++ ) rows[offset + t] += weights[t];
+    }
+
+    // rows[r * nt + t] /= sums[t]
+    private static void normalize( double[] rows, double[] sums ) {
+        int nt = sums.length;
+        for( int offset = 0; offset < rows.length; offset += nt )
+            for( int t = 0; t < nt; t++ ) rows[offset + t] /= sums[t];
+    }
+
+    // getters
+
+    public int      length()                     { return this.length; }
+    public int      getNumberOfTemperatures()    { return this.temperatures.length; }
+    public double   getTemperature( int t )      { return this.temperatures[t]; }
+    public double[] getTemperatures()            { return this.temperatures.clone(); }
+    public int      getNumberOfStates()          { return this.numberOfStates; }
+    public double   getFreeEnergy()              { return this.mfe; }
+    public Set<String> getAbstractShapes()       { return this.abstractShapes.keySet(); }
+
+    // partition function at temperature t, relative to the mfe state (weight 1)
+    public double getPartitionFunction( int t )  { return this.partitionFunctions[t]; }
+
+    // free energy of the ensemble at temperature t: mfe - RT ln Z
+    public double getEnsembleFreeEnergy( int t ) { return this.mfe - this.rts[t] * Math.log( this.partitionFunctions[t] ); }
+
+    // Boltzmann probability, at temperature t, of a state of energy
+    public double getStateProbability( int t, double energy ) {
+        return Math.exp( -( energy - this.mfe ) / this.rts[t] ) / this.partitionFunctions[t];
+    }
+
+    public double getCanonicalPairingProbability( int t, int i )    { return this.canonical[i * this.temperatures.length + t]; }
+    public double getNonCanonicalPairingProbability( int t, int i ) { return this.noncanonical[i * this.temperatures.length + t]; }
+    public double getReactivity( int t, int i )                     { return this.unpaired[i * this.temperatures.length + t]; }
+
+    public double getBasePairProbability( int t, BasePair bp ) {
+        int k = Arrays.binarySearch( this.basePairKeys, PackedEnsemble.Accumulator.key( bp.i, bp.j ) );
+        return k < 0 ? 0.0 : this.basePairs[k * this.temperatures.length + t];
+    }
+
+    public double getAbstractShapeProbability( int t, String shape ) {
+        double[] probabilities = this.abstractShapes.get( shape );
+        return probabilities == null ? 0.0 : probabilities[t];
+    }
+
+    // the profiles at temperature t, one value per nucleotide
+
+    public double[] getCPProbabilities( int t )  { return this.column( this.canonical, t ); }
+    public double[] getNCPProbabilities( int t ) { return this.column( this.noncanonical, t ); }
+    public double[] getReactivities( int t )     { return this.column( this.unpaired, t ); }
+
+    private double[] column( double[] rows, int t ) {
+        double[] res = new double[this.length];
+        for( int i = 0; i < this.length; i++ ) res[i] = rows[i * this.temperatures.length + t];
+        return res;
+    }
+
+    @Override
+    public String toString() {
+        String out = "temperature sweep of " + this.numberOfStates + " states, mfe " + this.mfe + " kcal/mol\n";
+        for( int t = 0; t < this.temperatures.length; t++ )
+            out += this.temperatures[t] + " K: Z " + this.partitionFunctions[t] + ", ensemble free energy " + this.getEnsembleFreeEnergy( t ) + " kcal/mol\n";
+        return out;
+    }
+}
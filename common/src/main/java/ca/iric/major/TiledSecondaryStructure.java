@@ -6,8 +6,10 @@ package ca.iric.major.common;
 
 import java.util.List;
 import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Map;
 import java.util.stream.IntStream;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.Arrays;
 
 import java.io.BufferedReader;
@@ -16,8 +18,77 @@ import java.io.IOException;
 
 import java.text.DecimalFormat;
 
+/** -------------------------------------------
+      TiledSecondaryStructure
+	is the canonical base pair probability of each nucleotide of a long
+	strand, averaged over the folds of the windows (tiles) of given sizes
+	sliding along it. The tiles are folded in parallel; each worker sums its
+	tiles in its own counts, and the counts of the workers are added at the
+	end: no lock. A tile adds its number of states to all its positions,
+	which is kept as a difference array, so a tile costs its length once.
+
+	A tile is the same fold wherever it is found: the tiles are cached by
+	sequence and energy, on $TILE_CACHE entries (default: 1<<16, dropped
+	when it grows beyond; TILE_CACHE=0 disables it).
+
+	Sliding is the incremental form: nucleotides are appended as they are
+	streamed, the windows they complete are folded, and the probabilities
+	of the positions no later window can cover are handed back; it keeps
+	only the nucleotides of the open windows.
+*/
+
 public class TiledSecondaryStructure {
 
+    private static final int MAX_TILES = tileCacheSize();
+    private static final Map<String,Tile> tileCache = new ConcurrentHashMap<>();
+
+    private static int tileCacheSize() {
+	String env = System.getenv( "TILE_CACHE" );
+	return Utils.isValidInt( env ) ? Math.max( 0, Integer.parseInt( env.trim() ) ) : 1 << 16;
+    }
+
+    // the fold of a tile, as the tiling needs it
+    private record Tile( int[] canonicalCounts, int numberOfStates ) {}
+
+    // fold tile at -e e, or get it from the cache
+    private static Tile fold( String tile, double e ) {
+	String key = tile + "|" + e;
+	Tile folded = tileCache.get( key );
+	if( folded != null ) return folded;
+	SecondaryStructure ss = new SecondaryStructure( tile, e );
+	int[] counts = new int[tile.length()];
+	for( int k = 0; k < counts.length; k++ ) counts[k] = ss.getCanonicalCount( k );
+	folded = new Tile( counts, ss.getNumberOfStates() );
+	if( MAX_TILES > 0 ) {
+	    if( tileCache.size() >= MAX_TILES ) tileCache.clear();
+	    tileCache.put( key, folded );
+	}
+	return folded;
+    }
+
+    // the counts of one worker
+    private static final class Counts {
+	private final int[] canonical;
+	private final int[] stateDelta; // a tile adds its states at its start and removes them after its end
+
+	private Counts( int n ) {
+	    this.canonical = new int[n];
+	    this.stateDelta = new int[n + 1];
+	}
+
+	private void add( int start, Tile tile ) {
+	    int[] counts = tile.canonicalCounts();
+	    for( int k = 0; k < counts.length; k++ ) this.canonical[start + k] += counts[k];
+	    this.stateDelta[start] += tile.numberOfStates();
+	    this.stateDelta[start + counts.length] -= tile.numberOfStates();
+	}
+
+	private void merge( Counts other ) {
+	    for( int i = 0; i < this.canonical.length; i++ ) this.canonical[i] += other.canonical[i];
+	    for( int i = 0; i < this.stateDelta.length; i++ ) this.stateDelta[i] += other.stateDelta[i];
+	}
+    }
+
     private int[] tileSizes;
     private double[] tileE;
     private double threshold;
@@ -27,6 +98,8 @@ public class TiledSecondaryStructure {
     protected int[] canonicalBasePairCount;
     protected int[] stateCount;
     protected double[] canonicalBasePairProbability;
+    private volatile ProfileIndex index; // range queries, built on the first one
+    private volatile double[] accessibility; // built on the first call
 
     public char getNucleotide( int i ) { return this.strand.charAt( i ); }
 
@@ -38,20 +111,70 @@ public class TiledSecondaryStructure {
 	return 1 - this.canonicalBasePairProbability[nt];
     }
 
+    // the range queries on the probabilities, see ProfileIndex
+    public ProfileIndex getIndex() {
+	ProfileIndex result = this.index;
+	if( result == null ) this.index = result = new ProfileIndex( this.canonicalBasePairProbability );
+	return result;
+    }
+
+    // 1 - the smallest base pair probability in [begin, end], in constant time
     public double getAccessibility( int begin, int end ) {
-	double res = 1.0;
-	for( int i = begin; i <= end; i++ )
-	    if( this.canonicalBasePairProbability[i] < res )
-		res = this.canonicalBasePairProbability[i];
-	return 1 - res;
+	return this.getIndex().getAccessibility( begin, end );
+    }
+
+    // mean unpaired probability in [begin, end], in constant time
+    public double getMeanUnpairedProbability( int begin, int end ) {
+	return this.getIndex().getMeanUnpairedProbability( begin, end );
+    }
+
+    // the accessibilities of the ranges [begins[k], ends[k]] in out[k]
+    public void getAccessibility( int[] begins, int[] ends, double[] out ) {
+	this.getIndex().getAccessibility( begins, ends, out );
     }
 
+    public double getAccessibility( int i ) { return this.getAccessibilityArray()[i]; }
+
     public double[] getAccessibility() {
-	double[] res = new double[this.canonicalBasePairProbability.length];
-	for( int i = 0; i < this.canonicalBasePairProbability.length; i++ ) res[i] = 1 - this.canonicalBasePairProbability[i];
+	return this.getAccessibilityArray().clone();
+    }
+
+    private double[] getAccessibilityArray() {
+	double[] res = this.accessibility;
+	if( res == null ) {
+	    res = new double[this.canonicalBasePairProbability.length];
+	    for( int i = 0; i < this.canonicalBasePairProbability.length; i++ ) res[i] = 1 - this.canonicalBasePairProbability[i];
+	    this.accessibility = res;
+	}
 	return res;
     }
 
+    // fold the tiles of all sizes along this.strand and set the counts and probabilities;
+    //   the windows of all sizes are numbered in one range, folded in parallel
+    private void tile( int[] tileSizes, double[] tileE ) {
+	if( tileSizes.length != tileE.length ) throw new IllegalArgumentException( "tileSizes and tileE must be the same length" );
+	int n = this.strand.length();
+	int[] firstWindow = new int[tileSizes.length + 1]; // the windows of tileSizes[t] are numbered from firstWindow[t]
+	for( int t = 0; t < tileSizes.length; t++ )
+	    firstWindow[t + 1] = firstWindow[t] + ( tileSizes[t] > 0 && tileSizes[t] <= n ? n - tileSizes[t] + 1 : 0 );
+	Counts counts = IntStream.range( 0, firstWindow[tileSizes.length] ).parallel().collect(
+	    () -> new Counts( n ),
+	    ( worker, window ) -> {
+		int t = 0;
+		while( window >= firstWindow[t + 1] ) t++;
+		int start = window - firstWindow[t];
+		worker.add( start, fold( this.strand.substring( start, start + tileSizes[t] ), tileE[t] ) );
+	    },
+	    Counts::merge );
+	int states = 0;
+	for( int i = 0; i < n; i++ ) {
+	    states += counts.stateDelta[i];
+	    this.canonicalBasePairCount[i] = counts.canonical[i];
+	    this.stateCount[i] = states;
+	    this.canonicalBasePairProbability[i] = states > 0 ? (double)counts.canonical[i] / states : Double.NaN;
+	}
+    }
+
     // Tiled folding on a substring
     public TiledSecondaryStructure( String strand, int left, int right ) {
 	this.strand = strand.substring( left, right + 1 );
@@ -66,23 +189,7 @@ public class TiledSecondaryStructure {
 	this.stateCount = new int[this.strand.length()];
 	this.canonicalBasePairProbability = new double[this.strand.length()];
 
-
-	IntStream.range( 0, tileSizes.length ).parallel().forEach( i -> {
-		if( tileSizes[i] <= this.strand.length() ) {
-		    IntStream.range( 0, this.strand.length() - tileSizes[i] + 1 ).forEach( start -> {
-			    SecondaryStructure tile = new SecondaryStructure( this.strand.substring( start, start + tileSizes[i]), tileE[i] );
-			    for( int k = 0; k < tileSizes[i]; k++ ) {
-				synchronized( this ) {
-				    this.canonicalBasePairCount[k + start] += tile.getCanonicalCount( k );
-				    this.stateCount[k + start] += tile.getNumberOfStates();
-				}
-			    }
-			});
-		}
-	    });
-	// adjust the probabilities
-	for( int i = 0; i < this.strand.length(); i++ )
-	    this.canonicalBasePairProbability[i] = (double)this.canonicalBasePairCount[i] / this.stateCount[i];
+	this.tile( this.tileSizes, this.tileE );
 	}
 
     // Tiled folding on a string
@@ -94,23 +201,7 @@ public class TiledSecondaryStructure {
 	this.stateCount = new int[this.strand.length()];
 	this.canonicalBasePairProbability = new double[this.strand.length()];
 
-
-	IntStream.range( 0, tileSizes.length ).parallel().forEach( i -> {
-		if( tileSizes[i] <= this.strand.length() ) {
-		    IntStream.range( 0, this.strand.length() - tileSizes[i] + 1 ).forEach( start -> {
-			    SecondaryStructure tile = new SecondaryStructure( this.strand.substring( start, start + tileSizes[i]), tileT[i] );
-			    for( int k = 0; k < tileSizes[i]; k++ ) {
-				synchronized( this ) {
-				    this.canonicalBasePairCount[k + start] += tile.getCanonicalCount( k );
-				    this.stateCount[k + start] += tile.getNumberOfStates();
-				}
-			    }
-			});
-		}
-	    });
-	// adjust the probabilities
-	for( int i = 0; i < this.strand.length(); i++ )
-	    this.canonicalBasePairProbability[i] = (double)this.canonicalBasePairCount[i] / this.stateCount[i];
+	this.tile( tileSizes, tileT );
     }
 
     public TiledSecondaryStructure(String strand) {
@@ -122,64 +213,13 @@ public class TiledSecondaryStructure {
 	this.tileSizes = new int[] { 71 };       // 20 + 31 + 20
 	this.tileE     = new double[] { 1.0 };
 
-	if (tileSizes.length != tileE.length)
-	    throw new IllegalArgumentException("tileSizes and tileE must be the same length");
-
 	final int n = strand.length();
 
 	this.canonicalBasePairCount       = new int[n];
 	this.stateCount                   = new int[n];
 	this.canonicalBasePairProbability = new double[n];
 
-	if (n == 0) {
-	    Arrays.fill(this.canonicalBasePairProbability, Double.NaN);
-	    return;
-	}
-
-	// Striped locks for parallel merging
-	final int NUM_LOCKS = 256;
-	final ReentrantLock[] locks = new ReentrantLock[NUM_LOCKS];
-	for (int i = 0; i < NUM_LOCKS; i++) locks[i] = new ReentrantLock();
-
-	// Loop over each tile size / energy pair
-	for (int t = 0; t < tileSizes.length; t++) {
-	    final int tileSize     = tileSizes[t];
-	    final double tileEnergy = tileE[t];
-
-	    if (tileSize <= 0) continue;
-	    if (n < tileSize)  continue;
-
-	    IntStream.range(0, n - tileSize + 1).parallel().forEach(start -> {
-		    final String subseq = strand.substring(start, start + tileSize);
-		    final SecondaryStructure tile = new SecondaryStructure(subseq, tileEnergy);
-		    
-
-		    final int[] localCBC = new int[tileSize];
-		    for (int k = 0; k < tileSize; k++) {
-			localCBC[k] = tile.getCanonicalCount(k);
-		    }
-		    final int states = tile.getNumberOfStates();
-
-		    for (int k = 0; k < tileSize; k++) {
-			final int idx = start + k;
-			final ReentrantLock L = locks[idx & (NUM_LOCKS - 1)];
-			L.lock();
-			try {
-			    canonicalBasePairCount[idx] += localCBC[k];
-			    stateCount[idx]            += states;
-			} finally {
-			    L.unlock();
-			}
-		    }
-		});
-	}
-
-	// finalize probabilities
-	for (int i = 0; i < n; i++) {
-	    canonicalBasePairProbability[i] =
-		stateCount[i] > 0 ? (double) canonicalBasePairCount[i] / stateCount[i]
-		: Double.NaN;
-	}
+	this.tile( this.tileSizes, this.tileE );
     }
     
     // Tiled folding on a string
@@ -194,23 +234,7 @@ public class TiledSecondaryStructure {
 	this.stateCount = new int[this.strand.length()];
 	this.canonicalBasePairProbability = new double[this.strand.length()];
 
-
-	IntStream.range( 0, tileSizes.length ).parallel().forEach( i -> {
-		if( tileSizes[i] <= this.strand.length() ) {
-		    IntStream.range( 0, this.strand.length() - tileSizes[i] + 1 ).forEach( start -> {
-			    SecondaryStructure tile = new SecondaryStructure( this.strand.substring( start, start + tileSizes[i]), tileE[i] );
-			    for( int k = 0; k < tileSizes[i]; k++ ) {
-				synchronized( this ) {
-				    this.canonicalBasePairCount[k + start] += tile.getCanonicalCount( k );
-				    this.stateCount[k + start] += tile.getNumberOfStates();
-				}
-			    }
-			});
-		}
-	    });
-	// adjust the probabilities
-	for( int i = 0; i < this.strand.length(); i++ )
-	    this.canonicalBasePairProbability[i] = (double)this.canonicalBasePairCount[i] / this.stateCount[i];
+	this.tile( this.tileSizes, this.tileE );
     }
 
     // Tiled results from file
@@ -263,4 +287,83 @@ public class TiledSecondaryStructure {
 	    out += this.canonicalBasePairProbability[i] > this.threshold ? "|" : "."; 
 	return out;
     }
+
+    /** -------------------------------------------
+	  Sliding
+	    tiles a strand streamed by chunks. append() folds the windows
+	    completed by the chunk and returns the canonical base pair
+	    probabilities of the positions that are final (1 - accessibility),
+	    in order; finish() returns the rest once the strand is complete.
+	    Not thread-safe: the folds of a chunk run in parallel.
+    */
+
+    public static final class Sliding {
+
+	private final int[] tileSizes;
+	private final double[] tileE;
+	private final int[] nextStart; // per tile size, start of the next window to fold
+	private final StringBuilder pending = new StringBuilder(); // the nucleotides from offset on
+	private int offset = 0; // strand position of the first pending nucleotide, the first position not returned
+	private int[] canonical = new int[0]; // per pending position
+	private int[] states = new int[0];
+
+	public Sliding( int[] tileSizes, double[] tileE ) {
+	    if( tileSizes.length != tileE.length ) throw new IllegalArgumentException( "tileSizes and tileE must be the same length" );
+	    this.tileSizes = tileSizes.clone();
+	    this.tileE = tileE.clone();
+	    this.nextStart = new int[tileSizes.length];
+	}
+
+	// number of nucleotides appended
+	public int length() { return this.offset + this.pending.length(); }
+
+	// append nucleotides, fold the windows they complete; return the probabilities of the positions now final
+	public double[] append( CharSequence nucleotides ) {
+	    this.pending.append( nucleotides );
+	    int end = this.length();
+	    if( this.canonical.length < this.pending.length() ) {
+		int capacity = Math.max( this.pending.length(), 2 * this.canonical.length );
+		this.canonical = Arrays.copyOf( this.canonical, capacity );
+		this.states = Arrays.copyOf( this.states, capacity );
+	    }
+	    // the windows completed, folded in parallel, summed in order
+	    List<int[]> windows = new ArrayList<>(); // { t, start }
+	    int done = end; // the windows starting before done are all folded
+	    for( int t = 0; t < this.tileSizes.length; t++ ) {
+		if( this.tileSizes[t] <= 0 ) continue;
+		for( ; this.nextStart[t] + this.tileSizes[t] <= end; this.nextStart[t]++ ) windows.add( new int[] { t, this.nextStart[t] } );
+		done = Math.min( done, this.nextStart[t] );
+	    }
+	    Tile[] folded = windows.parallelStream()
+		.map( w -> fold( this.pending.substring( w[1] - this.offset, w[1] - this.offset + this.tileSizes[w[0]] ), this.tileE[w[0]] ) )
+		.toArray( Tile[]::new );
+	    for( int w = 0; w < folded.length; w++ ) {
+		int start = windows.get( w )[1] - this.offset;
+		int[] counts = folded[w].canonicalCounts();
+		for( int k = 0; k < counts.length; k++ ) {
+		    this.canonical[start + k] += counts[k];
+		    this.states[start + k] += folded[w].numberOfStates();
+		}
+	    }
+	    return this.drain( done );
+	}
+
+	// the probabilities of the positions not returned yet, once the strand is complete
+	public double[] finish() { return this.drain( this.length() ); }
+
+	// return the probabilities of the positions up to to (exclusive), and forget them
+	private double[] drain( int to ) {
+	    int k = to - this.offset;
+	    double[] probabilities = new double[k];
+	    for( int i = 0; i < k; i++ ) probabilities[i] = this.states[i] > 0 ? (double)this.canonical[i] / this.states[i] : Double.NaN;
+	    int rest = this.pending.length() - k;
+	    System.arraycopy( this.canonical, k, this.canonical, 0, rest );
+	    System.arraycopy( this.states, k, this.states, 0, rest );
+	    Arrays.fill( this.canonical, rest, rest + k, 0 );
+	    Arrays.fill( this.states, rest, rest + k, 0 );
+	    this.pending.delete( 0, k );
+	    this.offset = to;
+	    return probabilities;
+	}
+    }
 }
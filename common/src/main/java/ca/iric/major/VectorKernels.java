@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** -------------------------------------------
+      VectorKernels
+        are the NucleotideKernels loops written with the Vector API
+        (jdk.incubator.vector), one lane per candidate. Only compiled with
+        mvn -P vector and only loaded when the module is there (java
+        --add-modules jdk.incubator.vector), see NucleotideKernels.isVectorized().
+*/
+
+final class VectorKernels implements NucleotideKernels.ColumnCounter {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    VectorKernels() {}
+
+    // counts[c] += 1 where ( column[offset + c] & mask ) != 0, for c < n
+    @Override
+    public void countWhere( byte[] column, int offset, int n, byte mask, byte[] counts ) {
+        int c = 0;
+        for( int bound = SPECIES.loopBound( n ); c < bound; c += SPECIES.length() ) {
+            VectorMask<Byte> hits = ByteVector.fromArray( SPECIES, column, offset + c ).and( mask ).compare( VectorOperators.NE, (byte)0 );
+            ByteVector.fromArray( SPECIES, counts, c ).add( (byte)1, hits ).intoArray( counts, c );
+        }
+        for( ; c < n; c++ )
+            if( ( column[offset + c] & mask ) != 0 ) counts[c]++;
+    }
+}
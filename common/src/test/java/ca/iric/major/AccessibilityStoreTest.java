@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** -------------------------------------------
+      AccessibilityStoreTest
+        the profiles written by the batch job (main) on a Gencode fasta file
+        read back as the TiledSecondaryStructure of each transcript, within
+        the quantization error.
+*/
+
+public class AccessibilityStoreTest {
+
+    private static final double ERROR = 1 / 508.0 + 1e-12;
+
+    @TempDir
+    Path dir;
+
+    // the states of a tile depend on its first nts only
+    private static class TileEngine implements FoldingEngine {
+        @Override
+        public String getName() { return "tiles"; }
+
+        @Override
+        public FoldResult fold( FoldRequest request ) {
+            String tile = request.getStrand();
+            int n = tile.length();
+            List<String> states = new ArrayList<>();
+            states.add( "(" + ".".repeat( n - 2 ) + ")" );
+            if( tile.charAt( 0 ) == 'G' ) states.add( ".".repeat( n ) );
+            if( tile.charAt( 1 ) != 'A' ) states.add( ".((" + ".".repeat( n - 6 ) + "))." );
+            double[] energies = new double[states.size()];
+            for( int k = 0; k < energies.length; k++ ) energies[k] = -1.0 - k;
+            return new FoldResult( states.toArray( new String[0] ), energies, request.getThreshold() );
+        }
+    }
+
+    @BeforeEach
+    public void installEngine() { FoldingEngines.set( new TileEngine() ); }
+
+    @AfterEach
+    public void restoreEngine() { FoldingEngines.set( null ); }
+
+    private static String randomSequence( Random random, int n ) {
+        char[] sequence = new char[n];
+        for( int i = 0; i < n; i++ ) sequence[i] = "ACGT".charAt( random.nextInt( 4 ) );
+        return new String( sequence );
+    }
+
+    private static void assertClose( double expected, double actual, String message ) {
+        if( Double.isNaN( expected ) ) assertTrue( Double.isNaN( actual ), message );
+        else assertEquals( expected, actual, ERROR, message );
+    }
+
+    @Test
+    public void batchJobRoundTrip() throws Exception {
+        Random random = new Random( 15 );
+        List<String> ids = new ArrayList<>();
+        List<String> sequences = new ArrayList<>();
+        StringBuilder fasta = new StringBuilder();
+        for( int n : new int[] { 40, 71, 150, 400 } ) { // the first one is shorter than a tile: not covered
+            String id = "ENST0000000" + ids.size() + ".1";
+            String sequence = randomSequence( random, n );
+            ids.add( id );
+            sequences.add( sequence.replace( 'T', 'U' ) );
+            fasta.append( ">" + id + "|ENSG0000000" + ids.size() + ".1|-|-|GENE-201|GENE|" + n + "|UTR5:1-10|CDS:11-" + ( n - 10 ) + "|UTR3:" + ( n - 9 ) + "-" + n + "|\n" );
+            for( int i = 0; i < n; i += 60 ) fasta.append( sequence, i, Math.min( n, i + 60 ) ).append( '\n' );
+        }
+        Path fa = this.dir.resolve( "pc_transcripts.fa" );
+        Path path = this.dir.resolve( "accessibility" );
+        Files.writeString( fa, fasta );
+        AccessibilityStore.main( new String[] { fa.toString(), path.toString() } );
+
+        AccessibilityStore store = new AccessibilityStore( path );
+        assertEquals( ids.size(), store.size() );
+        assertNull( store.get( "ENST99999999.1" ) );
+        for( int t = 0; t < ids.size(); t++ ) {
+            TiledSecondaryStructure tiled = new TiledSecondaryStructure( sequences.get( t ) );
+            double[] expected = tiled.getBasePairProbabilities();
+            AccessibilityStore.Profile profile = store.get( ids.get( t ) );
+            assertSame( profile, store.get( ids.get( t ) ) );
+            assertEquals( expected.length, profile.length() );
+            for( int i = 0; i < expected.length; i++ ) {
+                assertClose( expected[i], profile.getBasePairProbability( i ), ids.get( t ) + " " + i );
+                assertClose( 1 - expected[i], profile.getReactivity( i ), ids.get( t ) + " " + i );
+            }
+            // the short ranges are scanned, the long ones go to the ProfileIndex
+            for( int q = 0; q < 500; q++ ) {
+                int begin = random.nextInt( expected.length );
+                int end = Math.min( expected.length - 1, begin + random.nextInt( q % 2 == 0 ? 10 : 200 ) );
+                assertClose( tiled.getAccessibility( begin, end ), profile.getAccessibility( begin, end ), ids.get( t ) + " [" + begin + ", " + end + "]" );
+            }
+        }
+        assertFalse( Files.exists( this.dir.resolve( "accessibility.tmp" ) ) );
+    }
+
+    @Test
+    public void quantization() {
+        assertEquals( 0, AccessibilityStore.quantize( 0.0 ) );
+        assertEquals( 254, AccessibilityStore.quantize( 1.0 ) );
+        assertEquals( 254, AccessibilityStore.quantize( 1.5 ) );
+        assertEquals( 0, AccessibilityStore.quantize( -0.5 ) );
+        assertEquals( 255, AccessibilityStore.quantize( Double.NaN ) );
+        for( double p = 0.0; p <= 1.0; p += 0.001 ) assertEquals( p, AccessibilityStore.quantize( p ) / 254.0, ERROR );
+    }
+}
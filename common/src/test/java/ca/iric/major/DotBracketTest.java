@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.Stack;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** -------------------------------------------
+      DotBracketTest
+        DotBracket and the motifs computed on it against the Stack and boxed
+        map parsing they replaced, on random dot brackets.
+*/
+
+public class DotBracketTest {
+
+    private static final int STRUCTURES = 5000;
+
+    // a random balanced dot bracket of length n, pairs of the given opening symbols
+    private static String randomDotBracket( Random random, int n, String openings ) {
+        StringBuilder dotb = new StringBuilder( n );
+        Stack<Character> open = new Stack<>();
+        for( int i = 0; i < n; i++ ) {
+            int left = n - i;
+            int r = random.nextInt( 3 );
+            if( !open.isEmpty() && ( left == open.size() || r == 0 ) ) dotb.append( DotBracket.CLOSING.charAt( DotBracket.OPENING.indexOf( open.pop() ) ) );
+            else if( r == 1 && left > open.size() + 1 ) {
+                char c = openings.charAt( random.nextInt( openings.length() ) );
+                open.push( c );
+                dotb.append( c );
+            }
+            else dotb.append( '.' );
+        }
+        return dotb.toString();
+    }
+
+    // SecondaryStructure.computeMotifs before DotBracket
+    private static String oldComputeMotifs( String dotBracket, Map<String,Set<BasePair>> statesBasePairs, Map<String,Set<Loop>> statesLoops ) {
+        StringBuilder filtered = new StringBuilder();
+        List<Integer> originalIndices = new ArrayList<>();
+        List<Integer> dotIndices = new ArrayList<>();
+        for( int i = 0; i < dotBracket.length(); i++ ) {
+            char c = dotBracket.charAt( i );
+            if( c != '.' ) {
+                filtered.append( c );
+                originalIndices.add( i );
+            }
+            else dotIndices.add( i );
+        }
+        Stack<Integer> stack = new Stack<>();
+        Map<Integer,Integer> bps = new HashMap<>();
+        for( int i = 0; i < filtered.length(); i++ ) {
+            if( filtered.charAt( i ) == '(' ) stack.push( i );
+            else if( filtered.charAt( i ) == ')' ) {
+                int open = stack.pop();
+                bps.put( open, i );
+                statesBasePairs.computeIfAbsent( dotBracket, k -> new HashSet<>() ).add( new BasePair( originalIndices.get( open ), originalIndices.get( i ) ) );
+            }
+        }
+        for( int i = 0; i < dotIndices.size(); i++ ) {
+            int start = dotIndices.get( i );
+            int length = 1;
+            while( i + 1 < dotIndices.size() && dotIndices.get( i + 1 ) == dotIndices.get( i ) + 1 ) {
+                i++;
+                length++;
+            }
+            statesLoops.computeIfAbsent( dotBracket, k -> new HashSet<>() ).add( new Loop( start, length ) );
+        }
+        boolean[] toRemove = new boolean[filtered.length()];
+        for( int i = 0; i < filtered.length() - 1; i++ ) {
+            Integer j1 = bps.get( i );
+            Integer j2 = bps.get( i + 1 );
+            if( j1 != null && j2 != null && j1 == j2 + 1 ) {
+                toRemove[i] = true;
+                toRemove[j1] = true;
+            }
+        }
+        StringBuilder result = new StringBuilder();
+        for( int i = 0; i < filtered.length(); i++ )
+            if( !toRemove[i] ) result.append( filtered.charAt( i ) );
+        return result.toString();
+    }
+
+    @Test
+    public void motifsAsBefore() {
+        Random random = new Random( 11 );
+        for( int s = 0; s < STRUCTURES; s++ ) {
+            String dotb = randomDotBracket( random, 1 + random.nextInt( 120 ), "(" );
+            Map<String,Set<BasePair>> oldBps = new HashMap<>(), newBps = new HashMap<>();
+            Map<String,Set<Loop>> oldLoops = new HashMap<>(), newLoops = new HashMap<>();
+            String oldShape = oldComputeMotifs( dotb, oldBps, oldLoops );
+            assertEquals( oldShape, SecondaryStructure.computeMotifs( dotb, newBps, newLoops ), dotb );
+            assertEquals( oldShape, SecondaryStructure.computeAbstractShape( dotb ), dotb );
+            assertEquals( oldBps, newBps, dotb );
+            assertEquals( oldLoops, newLoops, dotb );
+        }
+    }
+
+    @Test
+    public void partnersOfAllPairTypes() {
+        Random random = new Random( 12 );
+        DotBracket parser = DotBracket.local();
+        for( int s = 0; s < STRUCTURES; s++ ) {
+            String dotb = randomDotBracket( random, 1 + random.nextInt( 200 ), DotBracket.OPENING );
+            parser.parse( dotb );
+            Stack<Integer> stack = new Stack<>();
+            int pairs = 0;
+            for( int i = 0; i < dotb.length(); i++ ) {
+                char c = dotb.charAt( i );
+                if( DotBracket.isOpening( c ) ) stack.push( i );
+                else if( DotBracket.isClosing( c ) ) {
+                    int open = stack.pop();
+                    assertEquals( i, parser.partner( open ), dotb );
+                    assertEquals( open, parser.partner( i ), dotb );
+                    assertEquals( c, parser.pairType( open ), dotb );
+                    pairs++;
+                }
+                else assertEquals( -1, parser.partner( i ), dotb );
+            }
+            assertEquals( pairs, parser.getNumberOfPairs() );
+            assertTrue( parser.isBalanced() );
+        }
+    }
+
+    @Test
+    public void duplexGap() {
+        String duplex = "..((<((.  .))>)).."; // strand, gap, antiStrand
+        int from = DotBracket.gapStart( duplex );
+        assertEquals( 8, from );
+        assertEquals( 10, DotBracket.gapEnd( duplex, from ) );
+        DotBracket parser = DotBracket.local().parse( duplex );
+        assertEquals( 15, parser.partner( 2 ) );
+        assertEquals( '>', parser.pairType( 4 ) );
+        assertTrue( parser.isGap( 9 ) );
+
+        // a declared gap (the cis-duplex loop) is skipped, brackets included
+        parser.parse( "((xx))", 6, 2, 4 );
+        assertEquals( 5, parser.partner( 0 ) );
+        assertTrue( parser.isGap( 3 ) );
+        parser.parse( "(())", 4, 1, 3 );
+        assertEquals( 3, parser.partner( 0 ) );
+        assertEquals( 1, parser.getNumberOfPairs() );
+
+        assertFalse( DotBracket.local().parse( "(()" ).isBalanced() );
+        assertFalse( DotBracket.local().parse( "())" ).isBalanced() );
+        assertEquals( 0, DotBracket.local().parseParentheses( "<..>" ).getNumberOfPairs() );
+    }
+
+    @Test
+    public void counts() {
+        assertEquals( 2, DotBracket.count( "((..).)", 0, 7, '(' ) );
+        assertEquals( 1, DotBracket.count( "((..).)", 0, 3, '.' ) );
+        assertTrue( DotBracket.hasUnpairedRun( "(...)", 0, 5, 3 ) );
+        assertFalse( DotBracket.hasUnpairedRun( "(..(.))", 0, 7, 3 ) );
+        assertEquals( -1, DotBracket.gapStart( "(((...)))" ) );
+    }
+}
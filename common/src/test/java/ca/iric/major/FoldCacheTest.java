@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** -------------------------------------------
+      FoldCacheTest
+        the cached folds are the engine folds, folded once per distinct request.
+*/
+
+public class FoldCacheTest {
+
+    // an engine that counts its folds; the result depends on the request only
+    private static class CountingEngine implements FoldingEngine {
+        final AtomicInteger folds = new AtomicInteger( 0 );
+
+        @Override
+        public String getName() { return "counting"; }
+
+        @Override
+        public FoldResult fold( FoldRequest request ) {
+            this.folds.incrementAndGet();
+            return new FoldResult( new String[] { "((..))" }, new double[] { -request.getThreshold() }, request.getThreshold() );
+        }
+    }
+
+    private static FoldRequest duplex( String strand, int t ) {
+        return FoldRequest.duplex( strand, "GGGCCC", "", t, false, false );
+    }
+
+    @Test
+    public void foldsOncePerRequest() throws Exception {
+        CountingEngine engine = new CountingEngine();
+        CachedFoldingEngine cached = new CachedFoldingEngine( engine, new FoldCache( 1 << 20 ) );
+        FoldResult first = cached.fold( duplex( "ACGUACGU", 2 ) );
+        assertSame( first, cached.fold( duplex( "ACGUACGU", 2 ) ) );
+        assertEquals( -3.0, cached.fold( duplex( "ACGUACGU", 3 ) ).getEnergy( 0 ) ); // another threshold, another key
+        assertEquals( 2, engine.folds.get() );
+        assertEquals( 1L, cached.getCache().getHits() );
+    }
+
+    @Test
+    public void batchFoldsTheDistinctMisses() throws Exception {
+        CountingEngine engine = new CountingEngine();
+        CachedFoldingEngine cached = new CachedFoldingEngine( engine, new FoldCache( 1 << 20 ) );
+        cached.fold( duplex( "AAAA", 2 ) );
+        List<FoldResult> results = cached.foldAll( List.of( duplex( "AAAA", 2 ), duplex( "CCCC", 2 ), duplex( "CCCC", 2 ), duplex( "GGGG", 4 ) ) );
+        assertEquals( 3, engine.folds.get() );
+        assertSame( results.get( 1 ), results.get( 2 ) );
+        assertEquals( -4.0, results.get( 3 ).getEnergy( 0 ) );
+    }
+
+    @Test
+    public void evictsBeyondItsBudget() {
+        FoldCache cache = new FoldCache( 16 * 2048 ); // 2 kB per segment
+        for( int i = 0; i < 1000; i++ ) cache.put( "key" + i, new FoldResult( new String[] { "(((....)))" }, new double[] { -1.0 }, 2 ) );
+        assertTrue( cache.getWeight() <= cache.getMaxWeight(), "weight " + cache.getWeight() );
+        assertEquals( 1000L, cache.size() + cache.getEvictions() );
+    }
+
+    @Test
+    public void disabledCacheKeepsNothing() {
+        FoldCache cache = new FoldCache( 0 );
+        cache.put( "key", new FoldResult( new String[0], new double[0], 2 ) );
+        assertNull( cache.get( "key" ) );
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** -------------------------------------------
+      FoldPrefilterTest
+        tier 1 against a brute force search of the same grips, and against
+        the grips of seedBind() and suppBind() (Guide.determineSeedSuppTypes)
+        on random duplexes: a duplex with a seed or supp grip must pass.
+*/
+
+public class FoldPrefilterTest {
+
+    private static final int DUPLEXES = 20000;
+    private static final String NTS = "ACGU";
+
+    // WC or GU
+    private static boolean pairs( char guide, char target ) {
+        String pair = "" + guide + target;
+        return pair.equals( "AU" ) || pair.equals( "UA" ) || pair.equals( "CG" ) || pair.equals( "GC" ) || pair.equals( "GU" ) || pair.equals( "UG" );
+    }
+
+    // a target facing guide: the reverse complement, then mutated
+    private static String randomTarget( Random random, String guide, int n ) {
+        char[] target = new char[n];
+        int shift = random.nextInt( 5 );
+        for( int i = 0; i < n; i++ ) {
+            int g = n - 1 - i - shift; // the guide nt facing target i
+            char c = g >= 0 && g < guide.length() ? "UGCA".charAt( NTS.indexOf( guide.charAt( g ) ) ) : NTS.charAt( random.nextInt( 4 ) );
+            target[i] = random.nextInt( 4 ) == 0 ? NTS.charAt( random.nextInt( 4 ) ) : c;
+        }
+        return new String( target );
+    }
+
+    private static String randomGuide( Random random ) {
+        char[] guide = new char[22];
+        for( int i = 0; i < guide.length; i++ ) guide[i] = NTS.charAt( random.nextInt( 4 ) );
+        return new String( guide );
+    }
+
+    // the brute force tier 1: 4 guide nts from start in helix with 4 target nts
+    private static boolean hasHelix( String guide, String target, int start ) {
+        for( int t = target.length() - 1; t >= 3; t-- ) {
+            boolean helix = true;
+            for( int k = 0; k < 4 && helix; k++ ) helix = pairs( guide.charAt( start + k ), target.charAt( t - k ) );
+            if( helix ) return true;
+        }
+        return false;
+    }
+
+    // longest sequence of guide nts from start to end (inclusive) pairing in order with target read 3'->5'
+    private static int pairedInOrder( String guide, String target, int start, int end ) {
+        int n = target.length();
+        int[][] lcs = new int[end - start + 2][n + 1];
+        for( int g = start; g <= end; g++ )
+            for( int r = 0; r < n; r++ )
+                lcs[g - start + 1][r + 1] = pairs( guide.charAt( g ), target.charAt( n - 1 - r ) ) ?
+                    lcs[g - start][r] + 1 : Math.max( lcs[g - start][r + 1], lcs[g - start + 1][r] );
+        return lcs[end - start + 1][n];
+    }
+
+    private static boolean seedReference( String guide, String target ) {
+        for( int start = Guide.G2; start <= Guide.G5; start++ )
+            if( hasHelix( guide, target, start ) ) return true;
+        return pairedInOrder( guide, target, Guide.G2, Guide.G8 ) >= 6;
+    }
+
+    private static boolean suppReference( String guide, String target ) {
+        return hasHelix( guide, target, Guide.G13 ) || hasHelix( guide, target, Guide.G14 );
+    }
+
+    @Test
+    public void tier1AsBruteForce() {
+        Random random = new Random( 19 );
+        for( int k = 0; k < DUPLEXES; k++ ) {
+            String guide = randomGuide( random );
+            String target = random.nextBoolean() ? randomTarget( random, guide, 10 + random.nextInt( 25 ) ) : randomGuide( random );
+            long[] masks = FoldPrefilter.pairingMasks( target );
+            assertEquals( seedReference( guide, target ), FoldPrefilter.seedMayBind( masks, guide ), guide + " " + target );
+            assertEquals( suppReference( guide, target ), FoldPrefilter.suppMayBind( masks, guide ), guide + " " + target );
+        }
+        assertNull( FoldPrefilter.pairingMasks( "A".repeat( 65 ) ) ); // too long to pack, passes
+    }
+
+    // a random duplex of target (strand) and guide (antiStrand), antiparallel: ( ) on the nts that pair, < > on some that do not
+    private static Duplex randomDuplex( Random random, String guide, String target ) {
+        char[] strandDotb = ".".repeat( target.length() ).toCharArray();
+        char[] guideDotb = ".".repeat( guide.length() ).toCharArray();
+        int t = target.length() - 1;
+        for( int g = 0; g < guide.length() && t >= 0; g++ ) {
+            int r = random.nextInt( 10 );
+            if( r == 0 ) continue; // bulge in the guide
+            if( r == 1 ) t--; // bulge in the target
+            if( t < 0 ) break;
+            if( pairs( guide.charAt( g ), target.charAt( t ) ) ) {
+                strandDotb[t] = '(';
+                guideDotb[g] = ')';
+            }
+            else if( r == 2 ) {
+                strandDotb[t] = '<';
+                guideDotb[g] = '>';
+            }
+            t--;
+        }
+        return new Duplex( target, guide, new String( strandDotb ) + Duplex.LOOPMASK + new String( guideDotb ) + " -5.000" );
+    }
+
+    @Test
+    public void everyGripPassesTier1() {
+        Random random = new Random( 20 );
+        int seeds = 0, supps = 0;
+        for( int k = 0; k < DUPLEXES; k++ ) {
+            String guide = randomGuide( random );
+            String target = randomTarget( random, guide, 22 + random.nextInt( 10 ) );
+            Duplex duplex = randomDuplex( random, guide, target );
+            long[] masks = FoldPrefilter.pairingMasks( target );
+            // the seed grips of determineSeedSuppTypes() and hasTightSeedGrip()
+            boolean seedGrip = duplex.getNumberOfCanonical( Guide.G2, Guide.G8 ) >= 6;
+            for( int start = Guide.G2; start <= Guide.G5; start++ ) seedGrip |= duplex.isCanonicallyPairedGU( start, start + 3 );
+            boolean suppGrip = duplex.isCanonicallyPairedGU( Guide.G13, Guide.G16 ) || duplex.isCanonicallyPairedGU( Guide.G14, Guide.G17 );
+            if( seedGrip ) {
+                seeds++;
+                assertTrue( FoldPrefilter.seedMayBind( masks, guide ), "seed " + duplex.getState() );
+            }
+            if( suppGrip ) {
+                supps++;
+                assertTrue( FoldPrefilter.suppMayBind( masks, guide ), "supp " + duplex.getState() );
+            }
+        }
+        assertTrue( seeds > DUPLEXES / 50 && supps > DUPLEXES / 50, seeds + " seeds, " + supps + " supps" ); // the grips were exercised
+    }
+}
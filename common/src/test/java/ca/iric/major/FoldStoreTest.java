@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** -------------------------------------------
+      FoldStoreTest
+        a stored result reads back as put, after a reopen, from another
+        instance on the same file and after compact.
+*/
+
+public class FoldStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private static FoldResult result( double energy ) {
+        return new FoldResult( new String[] { "((((....))))", "(((......)))" }, new double[] { energy, energy + 1.5 }, 3.0 );
+    }
+
+    private static void assertSameResult( FoldResult expected, FoldResult actual ) {
+        assertNotNull( actual );
+        assertEquals( expected.getE(), actual.getE() );
+        assertEquals( expected.size(), actual.size() );
+        for( int i = 0; i < expected.size(); i++ ) {
+            assertEquals( expected.getState( i ), actual.getState( i ) );
+            assertEquals( expected.getEnergy( i ), actual.getEnergy( i ) );
+        }
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        FoldStore store = new FoldStore( this.dir.resolve( "folds" ) );
+        assertNull( store.get( "a" ) );
+        store.put( "a", result( -4.25 ) );
+        store.put( "b", result( -7.0 ) );
+        store.put( "empty", new FoldResult( new String[0], new double[0], 2.0 ) );
+        assertSameResult( result( -4.25 ), store.get( "a" ) );
+        assertSameResult( result( -7.0 ), store.get( "b" ) );
+        assertEquals( 0, store.get( "empty" ).size() );
+        assertNull( store.get( "c" ) );
+        store.close();
+    }
+
+    @Test
+    public void reopenKeepsTheLatestRecord() throws Exception {
+        Path path = this.dir.resolve( "folds" );
+        FoldStore store = new FoldStore( path );
+        store.put( "a", result( -1.0 ) );
+        store.put( "a", result( -2.0 ) );
+        store.close();
+        FoldStore reopened = new FoldStore( path );
+        assertEquals( 1, reopened.size() );
+        assertSameResult( result( -2.0 ), reopened.get( "a" ) );
+        reopened.close();
+    }
+
+    @Test
+    public void readsWhatAnotherInstanceAppends() throws Exception {
+        Path path = this.dir.resolve( "folds" );
+        FoldStore reader = new FoldStore( path );
+        FoldStore writer = new FoldStore( path );
+        assertNull( reader.get( "a" ) );
+        writer.put( "a", result( -3.0 ) );
+        assertSameResult( result( -3.0 ), reader.get( "a" ) );
+        writer.close();
+        reader.close();
+    }
+
+    @Test
+    public void compactDropsTheOverwrittenRecords() throws Exception {
+        Path path = this.dir.resolve( "folds" );
+        FoldStore store = new FoldStore( path );
+        for( int i = 0; i < 10; i++ ) store.put( "a", result( -i ) );
+        store.put( "b", result( -20.0 ) );
+        long before = Files.size( path );
+        store.compact();
+        assertTrue( Files.size( path ) < before );
+        assertEquals( 2, store.size() );
+        assertSameResult( result( -9.0 ), store.get( "a" ) );
+        assertSameResult( result( -20.0 ), store.get( "b" ) );
+        store.close();
+        assertArrayEquals( new String[] { "folds" }, Files.list( this.dir ).map( p -> p.getFileName().toString() ).toArray( String[]::new ) );
+    }
+}
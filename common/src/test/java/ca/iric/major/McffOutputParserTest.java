@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** -------------------------------------------
+      McffOutputParserTest
+        captured mcff output, parsed by McffOutputParser and by the split and
+        Double.parseDouble code it replaced in Duplex, SecondaryStructure and
+        MiRISCDuplex; and the MIRISC output printed by bash through the line
+        paths of McffWorkerPool (worker and one process per call).
+*/
+
+public class McffOutputParserTest {
+
+    private static final List<String> DUPLEX = List.of(
+        "....(<(((((....)))))>) -19.773 ()",
+        "((((((((....)))).)))) -18.5 (())",
+        "..(((((......))))).. +0.25 ()" );
+
+    private static final List<String> ENSEMBLE = List.of(
+        "(((((((((((((.((((..))))(((..)))))))))))))).))(((((....))))) -60.958",
+        "(((((((((((((.((((..))))(((..)))))))))))))).)).((((....)))). -59.1",
+        "..(((((((((((.((((..))))(((..)))))))))))))......(((....))).. -57" );
+
+    private static final List<String> MIRISC = List.of(
+        "mcff 0.5",
+        "target ACGUACGUACGUACGUACGUACGUACGUA",
+        "guide  UAGCAGCACGUAAAUAUUGGCG",
+        "",
+        "<(.<<<<((<(<<....<...(....((((  )))))>.>>)>))>>>>)> -31.268",
+        ".(.<<<<((<(<<....<...(....((((  )))))>.>>)>))>>>>). -30.9" );
+
+    // the Duplex parsing before McffOutputParser
+    private static double oldDuplexEnergy( String line ) {
+        String[] parts = line.split( "[+-]", 2 );
+        String forEnergy = parts[1].split( " ", 2 )[0];
+        return line.contains( "-" ) ? -Double.parseDouble( forEnergy ) : Double.parseDouble( forEnergy );
+    }
+
+    private static FoldResult parse( FoldRequest request, List<String> lines ) {
+        McffOutputParser parser = new McffOutputParser( request );
+        for( String line : lines ) if( !parser.accept( line ) ) break;
+        return parser.result();
+    }
+
+    @Test
+    public void duplexLines() {
+        FoldResult result = parse( FoldRequest.duplex( "ACGU", "ACGU", "", 4, false, true ), DUPLEX );
+        assertEquals( DUPLEX.size(), result.size() );
+        for( int i = 0; i < DUPLEX.size(); i++ ) {
+            String line = DUPLEX.get( i );
+            assertEquals( line.split( "[+-]", 2 )[0].trim(), result.getState( i ) );
+            assertEquals( oldDuplexEnergy( line ), result.getEnergy( i ) );
+        }
+    }
+
+    @Test
+    public void ensembleLines() {
+        FoldResult result = parse( FoldRequest.ensemble( "ACGU", "", 3.0, "" ), ENSEMBLE );
+        assertEquals( ENSEMBLE.size(), result.size() );
+        for( int i = 0; i < ENSEMBLE.size(); i++ ) {
+            String[] splitLine = ENSEMBLE.get( i ).split( " ", 2 ); // the SecondaryStructure parsing
+            assertEquals( splitLine[0], result.getState( i ) );
+            assertEquals( Double.parseDouble( splitLine[1] ), result.getEnergy( i ) );
+        }
+    }
+
+    @Test
+    public void miriscLinesAfterTheHeader() {
+        FoldResult result = parse( FoldRequest.mirisc( "ACGU", "ACGU", "", 4 ), MIRISC );
+        assertEquals( 2, result.size() );
+        for( int i = 0; i < 2; i++ ) {
+            String line = MIRISC.get( 4 + i );
+            assertEquals( line.substring( 0, line.lastIndexOf( ' ' ) ), result.getState( i ) ); // the inner spaces are kept
+            assertEquals( -Double.parseDouble( line.split( "-", 2 )[1] ), result.getEnergy( i ) ); // the MiRISCDuplex parsing
+        }
+    }
+
+    private final McffWorkerPool pool = new McffWorkerPool( 1 );
+
+    @AfterEach
+    public void shutdownPool() { this.pool.shutdown(); }
+
+    // a command line printing lines as mcff would, blank ones included
+    private static String printing( List<String> lines ) {
+        return "printf '%s\\n' " + lines.stream().map( line -> "'" + line + "'" ).collect( Collectors.joining( " " ) );
+    }
+
+    // the 2 states of MIRISC, the MFE duplex first
+    private static void assertMiriscStates( FoldResult result ) {
+        assertEquals( 2, result.size() );
+        for( int i = 0; i < 2; i++ ) {
+            String line = MIRISC.get( 4 + i );
+            assertEquals( line.substring( 0, line.lastIndexOf( ' ' ) ), result.getState( i ) );
+            assertEquals( -Double.parseDouble( line.split( "-", 2 )[1] ), result.getEnergy( i ) );
+        }
+    }
+
+    @Test
+    public void miriscThroughThePoolLines() throws IOException, InterruptedException {
+        FoldRequest request = FoldRequest.mirisc( "ACGU", "ACGU", "", 4 );
+        assertEquals( MIRISC, this.pool.run( printing( MIRISC ) ) );
+        assertEquals( List.of( MIRISC, List.of(), MIRISC ), this.pool.runAll( List.of( printing( MIRISC ), "true", printing( MIRISC ) ) ) );
+        assertEquals( MIRISC, McffWorkerPool.runOnce( printing( MIRISC ), false ) );
+        McffOutputParser streamed = new McffOutputParser( request );
+        this.pool.run( printing( MIRISC ), streamed::accept );
+        assertMiriscStates( streamed.result() );
+        McffOutputParser once = new McffOutputParser( request );
+        McffWorkerPool.runOnce( printing( MIRISC ), false, once::accept );
+        assertMiriscStates( once.result() );
+
+        // a third state, cut by head after the header and 2 states
+        FoldRequest two = request.withMaxStates( 2, "" );
+        List<String> longer = new ArrayList<>( MIRISC );
+        longer.add( "...........(....((((  )))))....................... -12.5" );
+        McffOutputParser cut = new McffOutputParser( two );
+        this.pool.run( ExternalFoldingEngine.limitOutput( printing( longer ), cut ), cut::accept );
+        assertMiriscStates( cut.result() );
+        assertMiriscStates( ExternalFoldingEngine.parse( two, this.pool.run( ExternalFoldingEngine.limitOutput( printing( longer ), cut ) ) ) );
+    }
+
+    @Test
+    public void headKeepsTheMcffStatus() throws IOException, InterruptedException {
+        McffOutputParser two = new McffOutputParser( FoldRequest.mirisc( "ACGU", "ACGU", "", 4 ).withMaxStates( 2, "" ) );
+        String failing = "( " + printing( MIRISC ) + "; exit 3 )";
+        assertThrows( McffExitException.class, () -> this.pool.run( ExternalFoldingEngine.limitOutput( failing, two ) ) );
+        assertThrows( McffExitException.class, () -> this.pool.runAll( List.of( ExternalFoldingEngine.limitOutput( failing, two ) ) ) );
+        assertThrows( McffExitException.class, () -> McffWorkerPool.runOnce( ExternalFoldingEngine.limitOutput( failing, two ), false ) );
+        // cut by head: the SIGPIPE that ends the command is a success
+        assertEquals( 6, this.pool.run( ExternalFoldingEngine.limitOutput( "seq 1 1000000", two ) ).size() );
+        assertEquals( 6, McffWorkerPool.runOnce( ExternalFoldingEngine.limitOutput( "seq 1 1000000", two ), false ).size() );
+    }
+
+    @Test
+    public void stopsAtMaxStates() {
+        FoldRequest mfeOnly = FoldRequest.duplex( "ACGU", "ACGU", "", 4, false, false );
+        McffOutputParser parser = new McffOutputParser( mfeOnly );
+        assertEquals( 1, parser.lineLimit() );
+        assertFalse( parser.accept( DUPLEX.get( 0 ) ) );
+        assertTrue( parser.isDone() );
+        assertFalse( parser.accept( DUPLEX.get( 1 ) ) );
+        assertEquals( 1, parser.result().size() );
+
+        FoldRequest two = FoldRequest.mirisc( "ACGU", "ACGU", "", 4 ).withMaxStates( 2, "" );
+        assertEquals( 6, new McffOutputParser( two ).lineLimit() );
+        assertEquals( 0, new McffOutputParser( FoldRequest.ensemble( "ACGU", "", 3.0, "" ) ).lineLimit() );
+        assertEquals( 0, new McffOutputParser( FoldRequest.ensemble( "ACGU", "", 3.0, "" ).withMaxStates( 2, "[]" ) ).lineLimit() );
+    }
+
+    @Test
+    public void parsesNumbersLikeParseDouble() {
+        for( String number : new String[] { "0", "7", "-19.773", "+0.25", "60.958", "-0.001", "123456.5" } )
+            assertEquals( Double.parseDouble( number ), McffOutputParser.parseNumber( number, 0 ) );
+        assertEquals( -19.773, McffOutputParser.parseNumber( "x -19.773 ()", 2 ) );
+        assertThrows( NumberFormatException.class, () -> McffOutputParser.parseNumber( "((..)) ()", 7 ) );
+        assertThrows( NumberFormatException.class, () -> new McffOutputParser( FoldRequest.duplex( "A", "A", "", 4, false, true ) ).accept( "((..))" ) );
+    }
+}
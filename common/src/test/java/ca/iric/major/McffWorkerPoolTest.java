@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** -------------------------------------------
+      McffWorkerPoolTest
+        a worker killed by its command ($$ is the worker bash): the collected
+        run is retried on a new worker, the streamed run is not (its consumer
+        was fed), and the pool keeps working.
+*/
+
+public class McffWorkerPoolTest {
+
+    private static final String CRASHING = "printf 'a\\nb\\n'; kill -9 $$";
+
+    private final McffWorkerPool pool = new McffWorkerPool( 1 );
+
+    @AfterEach
+    public void shutdownPool() { this.pool.shutdown(); }
+
+    @Test
+    public void streamedRunIsNotRetried() throws IOException, InterruptedException {
+        List<String> fed = new ArrayList<>();
+        assertThrows( IOException.class, () -> this.pool.run( CRASHING, line -> fed.add( line ) ) );
+        assertEquals( List.of( "a", "b" ), fed );
+        assertEquals( List.of( "x" ), this.pool.run( "echo x" ) );
+        assertEquals( 1, this.pool.getCreated() );
+    }
+
+    @Test
+    public void collectedRunIsRetriedOnce() throws IOException, InterruptedException {
+        assertThrows( IOException.class, () -> this.pool.run( CRASHING ) ); // crashes its replacement too
+        assertEquals( 1, this.pool.getRestarts() );
+        assertEquals( List.of( "x" ), this.pool.run( "echo x" ) );
+    }
+}
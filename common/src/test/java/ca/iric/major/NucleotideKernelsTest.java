@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** -------------------------------------------
+      NucleotideKernelsTest
+        the kernels, single and batched (on the Vector API when it is there),
+        against the string loops they replaced in StringSequence,
+        SecondaryStructure and GuideMap.
+*/
+
+public class NucleotideKernelsTest {
+
+    private static final String SYMBOLS = "ACGU ACGUNTacgu-";
+
+    private static String randomSequence( Random random, int n, String symbols ) {
+        char[] sequence = new char[n];
+        for( int i = 0; i < n; i++ ) sequence[i] = symbols.charAt( random.nextInt( symbols.length() ) );
+        return new String( sequence );
+    }
+
+    // StringSequence.countBPs before NucleotideKernels
+    private static int oldCountBPs( String sense, String antisense ) {
+        String antiantisense = Utils.reverse( antisense );
+        int numBPs = 0;
+        for( int i = 0; i < sense.length(); i++ )
+            if( StringSequence.canonicalGUBps.contains( Character.toString( sense.charAt( i ) ) + Character.toString( antiantisense.charAt( i ) ) ) ) numBPs++;
+        return numBPs;
+    }
+
+    // GuideMap.containsRightGCPercentage before NucleotideKernels
+    private static int oldCountGC( String sirna ) {
+        int gcCount = 0;
+        for( char nucleotide : sirna.toCharArray() )
+            if( nucleotide == 'G' || nucleotide == 'C' ) gcCount++;
+        return gcCount;
+    }
+
+    private static boolean oldHasGCFraction( String sirna, double gcMin, double gcMax ) {
+        double gcPercentage = oldCountGC( sirna ) / (double)sirna.length();
+        return gcPercentage >= gcMin && gcPercentage <= gcMax;
+    }
+
+    @Test
+    public void singleAsTheStringLoops() {
+        Random random = new Random( 25 );
+        for( int k = 0; k < 20000; k++ ) {
+            int n = 1 + random.nextInt( 40 );
+            String sense = randomSequence( random, n, SYMBOLS );
+            String antisense = randomSequence( random, n + random.nextInt( 3 ), SYMBOLS );
+            assertEquals( oldCountBPs( sense, antisense ), NucleotideKernels.countBPs( sense, antisense ), sense + "|" + antisense );
+            assertEquals( oldCountBPs( sense, antisense ), StringSequence.countBPs( sense, antisense ), sense + "|" + antisense );
+            assertEquals( oldCountGC( sense ), NucleotideKernels.countGC( sense ), sense );
+            assertEquals( oldHasGCFraction( sense, 0.3, 0.6 ), NucleotideKernels.hasGCFraction( sense, 0.3, 0.6 ), sense );
+        }
+    }
+
+    @Test
+    public void batchAsSingle() {
+        Random random = new Random( 26 );
+        for( int size : new int[] { 0, 1, 7, 63, 64, 65, 200 } ) {
+            int length = 1 + random.nextInt( 30 );
+            List<String> candidates = new ArrayList<>();
+            for( int c = 0; c < size; c++ ) candidates.add( randomSequence( random, length, SYMBOLS ) );
+            String sense = randomSequence( random, length - random.nextInt( length ), SYMBOLS );
+            NucleotideKernels.Batch batch = new NucleotideKernels.Batch( candidates );
+            assertEquals( size, batch.size() );
+            int[] gc = new int[size];
+            int[] bps = new int[size];
+            boolean[] gcFraction = new boolean[size];
+            for( int c = 0; c < size; c++ ) {
+                gc[c] = oldCountGC( candidates.get( c ) );
+                bps[c] = oldCountBPs( sense, candidates.get( c ) );
+                gcFraction[c] = oldHasGCFraction( candidates.get( c ), 0.3, 0.6 );
+            }
+            String vectorized = "vectorized " + NucleotideKernels.isVectorized();
+            assertArrayEquals( gc, batch.countGC(), vectorized );
+            assertArrayEquals( bps, batch.countBPs( sense ), vectorized );
+            assertArrayEquals( gcFraction, batch.hasGCFraction( 0.3, 0.6 ), vectorized );
+        }
+    }
+
+    @Test
+    public void batchOfTheLongestCandidates() {
+        String all = "G".repeat( NucleotideKernels.Batch.MAX_LENGTH );
+        assertArrayEquals( new int[] { NucleotideKernels.Batch.MAX_LENGTH }, new NucleotideKernels.Batch( List.of( all ) ).countGC() );
+        assertThrows( IllegalArgumentException.class, () -> new NucleotideKernels.Batch( List.of( all + "G" ) ) );
+        assertThrows( IllegalArgumentException.class, () -> new NucleotideKernels.Batch( List.of( "ACGU", "ACG" ) ) );
+        assertThrows( IllegalArgumentException.class, () -> new NucleotideKernels.Batch( List.of( "ACGU" ) ).countBPs( "ACGUA" ) );
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** -------------------------------------------
+      PackedEnsembleTest
+        the packed ensemble, StateSet and Accumulator against the boxed
+        collections they replaced.
+*/
+
+public class PackedEnsembleTest {
+
+    private static final String SYMBOLS = ".()<>{}[]";
+
+    private static String randomState( Random random, int length ) {
+        char[] state = new char[length];
+        for( int i = 0; i < length; i++ ) state[i] = SYMBOLS.charAt( random.nextInt( 3 ) == 0 ? random.nextInt( SYMBOLS.length() ) : 0 );
+        return new String( state );
+    }
+
+    @Test
+    public void addKeepsEachStateOnceWithItsLowestEnergy() {
+        Random random = new Random( 12 );
+        for( int length : new int[] { 1, 2, 7, 64 } ) {
+            PackedEnsemble ensemble = new PackedEnsemble( length );
+            Map<String,Double> reference = new LinkedHashMap<>(); // in order of addition
+            List<String> pool = new ArrayList<>();
+            for( int s = 0; s < 200; s++ ) pool.add( randomState( random, length ) );
+            for( int k = 0; k < 2000; k++ ) {
+                String state = pool.get( random.nextInt( pool.size() ) );
+                double energy = -random.nextInt( 1000 ) / 10.0;
+                int id = ensemble.add( state, energy );
+                reference.merge( state, energy, Math::min );
+                assertEquals( state, ensemble.toString( id ) );
+            }
+            assertEquals( reference.size(), ensemble.size() );
+            int id = 0;
+            for( Map.Entry<String,Double> entry : reference.entrySet() ) {
+                assertEquals( entry.getKey(), ensemble.toString( id ) );
+                assertEquals( entry.getKey(), ensemble.getState( id ).toString() );
+                assertEquals( entry.getKey().charAt( length - 1 ), ensemble.symbol( id, length - 1 ) );
+                assertEquals( entry.getValue().doubleValue(), ensemble.getEnergy( id ) );
+                id++;
+            }
+        }
+    }
+
+    @Test
+    public void rejectsForeignStates() {
+        PackedEnsemble ensemble = new PackedEnsemble( 4 );
+        assertThrows( IllegalArgumentException.class, () -> ensemble.add( "(..)x", -1.0 ) );
+        assertThrows( IllegalArgumentException.class, () -> ensemble.add( "(xx)", -1.0 ) );
+        ensemble.add( "(..)", -1.0 );
+        ensemble.clear();
+        assertEquals( 0, ensemble.size() );
+        assertEquals( 0, ensemble.add( "....", -2.0 ) );
+    }
+
+    @Test
+    public void stateSetAsAMap() {
+        Random random = new Random( 13 );
+        PackedEnsemble.StateSet set = new PackedEnsemble.StateSet();
+        Map<String,Double> reference = new HashMap<>();
+        for( int k = 0; k < 5000; k++ ) {
+            String state = randomState( random, 12 );
+            double energy = -random.nextInt( 1000 ) / 10.0;
+            int slot = set.add( PackedEnsemble.fingerprint( state ), energy, state.startsWith( "." ) );
+            Double seen = reference.get( state );
+            assertEquals( seen == null, slot < 0, state );
+            if( seen == null ) reference.put( state, energy );
+            else {
+                assertEquals( seen.doubleValue(), set.getEnergy( slot ) );
+                assertEquals( state.startsWith( "." ), set.getFlag( slot ) );
+                if( energy < seen ) {
+                    set.setEnergy( slot, energy );
+                    reference.put( state, energy );
+                }
+            }
+        }
+        assertEquals( reference.size(), set.size() );
+        set.clear();
+        assertEquals( 0, set.size() );
+        assertTrue( set.add( PackedEnsemble.fingerprint( "((..))" ), 0.0, false ) < 0 );
+    }
+
+    @Test
+    public void fingerprintsDiffer() {
+        assertEquals( PackedEnsemble.fingerprint( "((..))" ), PackedEnsemble.fingerprint( new StringBuilder( "((..))" ) ) );
+        assertNotEquals( PackedEnsemble.fingerprint( "((..))" ), PackedEnsemble.fingerprint( "(....)" ) );
+        assertNotEquals( PackedEnsemble.fingerprint( "" ), PackedEnsemble.fingerprint( "." ) );
+    }
+
+    @Test
+    public void accumulatorAsAMap() {
+        Random random = new Random( 14 );
+        PackedEnsemble.Accumulator accumulator = new PackedEnsemble.Accumulator();
+        Map<Integer,Double> sums = new TreeMap<>();
+        Map<Integer,Integer> counts = new HashMap<>();
+        for( int k = 0; k < 20000; k++ ) {
+            int i = random.nextInt( 300 );
+            int key = PackedEnsemble.Accumulator.key( i, i + 1 + random.nextInt( 300 ) );
+            double value = random.nextDouble();
+            accumulator.add( key, value );
+            sums.merge( key, value, Double::sum );
+            counts.merge( key, 1, Integer::sum );
+        }
+        accumulator.addToSum( PackedEnsemble.Accumulator.key( 1000, 1001 ), 1.0 ); // not counted: ignored
+        accumulator.scale( 0.5 );
+        assertEquals( sums.size(), accumulator.size() );
+        int[] keys = sums.keySet().stream().mapToInt( Integer::intValue ).toArray();
+        assertArrayEquals( keys, accumulator.sortedKeys() );
+        for( int key : keys ) {
+            assertEquals( 0.5 * sums.get( key ), accumulator.getSum( key ), 1e-9 );
+            assertEquals( counts.get( key ).intValue(), accumulator.getCount( key ) );
+        }
+        assertEquals( 0.0, accumulator.getSum( PackedEnsemble.Accumulator.key( 1000, 1001 ) ) );
+        assertEquals( 299, PackedEnsemble.Accumulator.first( PackedEnsemble.Accumulator.key( 299, 598 ) ) );
+        assertEquals( 598, PackedEnsemble.Accumulator.second( PackedEnsemble.Accumulator.key( 299, 598 ) ) );
+        accumulator.clear();
+        assertEquals( 0, accumulator.size() );
+        assertFalse( accumulator.getCount( keys[0] ) > 0 );
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** -------------------------------------------
+      ProfileIndexTest
+        the constant time range queries against linear scans of the profile,
+        the accessibility against the scan of TiledSecondaryStructure it replaced.
+*/
+
+public class ProfileIndexTest {
+
+    private static final int QUERIES = 20000;
+
+    // probabilities in [0, 1], with NaN (uncovered) runs and a few exact 0 and 1
+    private static double[] randomProfile( Random random, int n ) {
+        double[] profile = new double[n];
+        for( int i = 0; i < n; i++ ) {
+            int r = random.nextInt( 20 );
+            profile[i] = r == 0 ? Double.NaN : r == 1 ? 0.0 : r == 2 ? 1.0 : random.nextDouble();
+        }
+        for( int i = 0; i < Math.min( 5, n ); i++ ) profile[i] = Double.NaN; // an uncovered head
+        return profile;
+    }
+
+    // TiledSecondaryStructure.getAccessibility before ProfileIndex
+    private static double oldAccessibility( double[] profile, int begin, int end ) {
+        double res = 1.0;
+        for( int i = begin; i <= end; i++ )
+            if( profile[i] < res )
+                res = profile[i];
+        return 1 - res;
+    }
+
+    @Test
+    public void rangesAsLinearScans() {
+        Random random = new Random( 16 );
+        for( int n : new int[] { 1, 2, 3, 17, 64, 1000 } ) {
+            double[] profile = randomProfile( random, n );
+            ProfileIndex index = new ProfileIndex( profile );
+            assertEquals( n, index.length() );
+            for( int q = 0; q < QUERIES; q++ ) {
+                int begin = random.nextInt( n );
+                int end = Math.min( n - 1, begin + random.nextInt( Math.min( n, 40 ) ) );
+                double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, unpaired = 0.0;
+                int covered = 0;
+                for( int i = begin; i <= end; i++ ) {
+                    if( Double.isNaN( profile[i] ) ) continue;
+                    min = Math.min( min, profile[i] );
+                    max = Math.max( max, profile[i] );
+                    unpaired += 1 - profile[i];
+                    covered++;
+                }
+                String range = n + " [" + begin + ", " + end + "]";
+                assertEquals( min, index.getMinimum( begin, end ), range );
+                assertEquals( max, index.getMaximum( begin, end ), range );
+                assertEquals( oldAccessibility( profile, begin, end ), index.getAccessibility( begin, end ), range );
+                assertEquals( covered == 0 ? Double.NaN : unpaired / covered, index.getMeanUnpairedProbability( begin, end ), 1e-12, range );
+            }
+        }
+    }
+
+    @Test
+    public void batchAsSingle() {
+        Random random = new Random( 17 );
+        double[] profile = randomProfile( random, 500 );
+        ProfileIndex index = new ProfileIndex( profile );
+        int[] begins = new int[1000];
+        int[] ends = new int[1000];
+        double[] accessibility = new double[1000], mean = new double[1000], max = new double[1000];
+        for( int k = 0; k < begins.length; k++ ) {
+            begins[k] = random.nextInt( 480 );
+            ends[k] = begins[k] + random.nextInt( 20 );
+            accessibility[k] = index.getAccessibility( begins[k], ends[k] );
+            mean[k] = index.getMeanUnpairedProbability( begins[k], ends[k] );
+            max[k] = index.getMaximum( begins[k], ends[k] );
+        }
+        double[] out = new double[1000];
+        index.getAccessibility( begins, ends, out );
+        assertArrayEquals( accessibility, out );
+        index.getMeanUnpairedProbability( begins, ends, out );
+        assertArrayEquals( mean, out );
+        index.getMaximum( begins, ends, out );
+        assertArrayEquals( max, out );
+    }
+
+    @Test
+    public void emptyRanges() {
+        ProfileIndex index = new ProfileIndex( new double[] { 0.5, Double.NaN } );
+        assertEquals( Double.POSITIVE_INFINITY, index.getMinimum( 1, 0 ) );
+        assertEquals( Double.NEGATIVE_INFINITY, index.getMaximum( 1, 1 ) );
+        assertEquals( 0.0, index.getAccessibility( 1, 1 ) );
+        assertEquals( Double.NaN, index.getMeanUnpairedProbability( 1, 1 ) );
+        assertEquals( 0.5, index.getAccessibility( 0, 1 ) );
+        assertEquals( 0, new ProfileIndex( new double[0] ).length() );
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2025 François Major, Major Lab (Université de Montréal)
+ * Licensed under the MIT License. See LICENSE file in the project root for details.
+ */
+package ca.iric.major.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** -------------------------------------------
+      TiledSecondaryStructureTest
+        the tiling (parallel and sliding) against the counts of the tiles
+        summed one by one, on an engine whose states depend on the tile only.
+*/
+
+public class TiledSecondaryStructureTest {
+
+    private static final int[] SIZES = { 8, 13 };
+    private static final double[] E = { 2.0, 3.0 };
+
+    // the states of a tile: a hairpin, a shorter one, and the open chain if the tile starts with G
+    private static List<String> states( String tile ) {
+        int n = tile.length();
+        List<String> states = new ArrayList<>();
+        states.add( "(" + ".".repeat( n - 2 ) + ")" );
+        states.add( ".((" + ".".repeat( n - 6 ) + "))." );
+        if( tile.charAt( 0 ) == 'G' ) states.add( ".".repeat( n ) );
+        return states;
+    }
+
+    private static class TileEngine implements FoldingEngine {
+        @Override
+        public String getName() { return "tiles"; }
+
+        @Override
+        public FoldResult fold( FoldRequest request ) {
+            List<String> states = states( request.getStrand() );
+            double[] energies = new double[states.size()];
+            for( int k = 0; k < energies.length; k++ ) energies[k] = -1.0 - k;
+            return new FoldResult( states.toArray( new String[0] ), energies, request.getThreshold() );
+        }
+    }
+
+    private static String randomStrand( Random random, int n ) {
+        char[] strand = new char[n];
+        for( int i = 0; i < n; i++ ) strand[i] = "ACGU".charAt( random.nextInt( 4 ) );
+        return new String( strand );
+    }
+
+    // the canonical probabilities, tile by tile
+    private static double[] reference( String strand ) {
+        int n = strand.length();
+        int[] canonical = new int[n];
+        int[] states = new int[n];
+        for( int size : SIZES )
+            for( int start = 0; start + size <= n; start++ )
+                for( String state : states( strand.substring( start, start + size ) ) )
+                    for( int k = 0; k < size; k++ ) {
+                        if( state.charAt( k ) != '.' ) canonical[start + k]++;
+                        states[start + k]++;
+                    }
+        double[] probabilities = new double[n];
+        for( int i = 0; i < n; i++ ) probabilities[i] = states[i] > 0 ? (double)canonical[i] / states[i] : Double.NaN;
+        return probabilities;
+    }
+
+    @BeforeEach
+    public void installEngine() { FoldingEngines.set( new TileEngine() ); }
+
+    @AfterEach
+    public void restoreEngine() { FoldingEngines.set( null ); }
+
+    @Test
+    public void tilesAsSummedOneByOne() {
+        Random random = new Random( 14 );
+        for( int n : new int[] { 5, 8, 13, 40, 200 } ) {
+            String strand = randomStrand( random, n );
+            TiledSecondaryStructure tiled = new TiledSecondaryStructure( strand, SIZES, E, 0.0 );
+            assertArrayEquals( reference( strand ), tiled.getBasePairProbabilities(), 1e-12 );
+        }
+    }
+
+    @Test
+    public void slidingAsTiled() {
+        Random random = new Random( 15 );
+        String strand = randomStrand( random, 300 );
+        double[] tiled = new TiledSecondaryStructure( strand, SIZES, E, 0.0 ).getBasePairProbabilities();
+        TiledSecondaryStructure.Sliding sliding = new TiledSecondaryStructure.Sliding( SIZES, E );
+        double[] streamed = new double[strand.length()];
+        int returned = 0;
+        for( int from = 0; from < strand.length(); ) {
+            int to = Math.min( strand.length(), from + 1 + random.nextInt( 30 ) );
+            double[] chunk = sliding.append( strand.substring( from, to ) );
+            System.arraycopy( chunk, 0, streamed, returned, chunk.length );
+            returned += chunk.length;
+            from = to;
+        }
+        double[] rest = sliding.finish();
+        System.arraycopy( rest, 0, streamed, returned, rest.length );
+        assertEquals( strand.length(), returned + rest.length );
+        assertArrayEquals( tiled, streamed, 1e-12 );
+    }
+}